@@ -0,0 +1,243 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.benchmark;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Minimal benchmark harness: an operation is run for a number of warm-up iterations, that are not measured, followed
+ * by the measured iterations. Every iteration is timed separately, so that the spread between iterations is reported
+ * along with the mean. {@link Operation#setUp()} runs before each iteration and is not measured. On JVMs that support it,
+ * the bytes allocated by the measured iterations are reported as well.
+ * <p/>
+ * The results can be used as a regression gate. When the {@value #RECORD_PROPERTY} system property is set to a file,
+ * the median time per row of every result is stored in that file. When {@value #BASELINE_PROPERTY} is set to such a
+ * file, an operation fails when its median time per row exceeds the recorded time by more than the tolerance, a fraction
+ * set with {@value #TOLERANCE_PROPERTY} that defaults to {@value #DEFAULT_TOLERANCE}. Operations that are not in the
+ * baseline are not checked.
+ */
+final class Benchmark {
+    static final String BASELINE_PROPERTY = "benchmark.baseline";
+    static final String RECORD_PROPERTY = "benchmark.record";
+    static final String TOLERANCE_PROPERTY = "benchmark.tolerance";
+    static final double DEFAULT_TOLERANCE = 0.3;
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 10;
+
+    private final String mName;
+    private final int mWarmupIterations;
+    private final int mIterations;
+
+    /**
+     * @param name the name of the benchmark, for example the class and parameters, prefixed to every result
+     */
+    Benchmark(String name) {
+        this(name, WARMUP_ITERATIONS, ITERATIONS);
+    }
+
+    Benchmark(String name, int warmupIterations, int iterations) {
+        mName = name;
+        mWarmupIterations = warmupIterations;
+        mIterations = iterations;
+    }
+
+    /**
+     * Run and report an operation
+     *
+     * @param label     the name of the operation
+     * @param rows      the number of rows a single run of the operation processes, to report the time per row
+     * @param operation the operation
+     * @return the result
+     */
+    Result measure(String label, int rows, Operation operation) {
+        for (int i = 0; i < mWarmupIterations; i++) {
+            operation.setUp();
+            operation.run();
+        }
+        long[] nanos = new long[mIterations];
+        long allocatedBytes = 0;
+        for (int i = 0; i < mIterations; i++) {
+            operation.setUp();
+            long allocatedBefore = getAllocatedBytes();
+            long start = System.nanoTime();
+            operation.run();
+            nanos[i] = System.nanoTime() - start;
+            allocatedBytes += getAllocatedBytes() - allocatedBefore;
+        }
+        Result result = new Result(label, rows, nanos, getAllocatedBytes() < 0 ? -1 : allocatedBytes / mIterations);
+        System.out.println(mName + " " + result);
+        String key = mName + " " + label;
+        record(key, result);
+        checkBaseline(key, result);
+        return result;
+    }
+
+    private static synchronized void record(String key, Result result) {
+        String path = System.getProperty(RECORD_PROPERTY);
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+        File file = new File(path);
+        Properties results = load(file);
+        results.setProperty(key, String.format(Locale.US, "%.1f", result.getMedianNanosPerRow()));
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(file);
+            results.store(out, "Median ns/row per benchmark operation");
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not record the benchmark results to " + file, e);
+        } finally {
+            close(out);
+        }
+    }
+
+    private static void checkBaseline(String key, Result result) {
+        String path = System.getProperty(BASELINE_PROPERTY);
+        if (path == null || path.isEmpty()) {
+            return;
+        }
+        String baseline = load(new File(path)).getProperty(key);
+        if (baseline == null) {
+            return;
+        }
+        double tolerance = Double.parseDouble(System.getProperty(TOLERANCE_PROPERTY, String.valueOf(DEFAULT_TOLERANCE)));
+        double limit = Double.parseDouble(baseline) * (1 + tolerance);
+        if (result.getMedianNanosPerRow() > limit) {
+            throw new AssertionError(String.format(Locale.US, "%s regressed: %.1f ns/row, baseline %s ns/row, limit %.1f ns/row",
+                    key, result.getMedianNanosPerRow(), baseline, limit));
+        }
+    }
+
+    private static Properties load(File file) {
+        Properties properties = new Properties();
+        if (!file.exists()) {
+            return properties;
+        }
+        InputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            properties.load(in);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read the benchmark results from " + file, e);
+        } finally {
+            close(in);
+        }
+        return properties;
+    }
+
+    private static void close(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    /**
+     * @return the number of bytes allocated by the current thread so far, or -1 if this is not supported by the JVM
+     */
+    private static long getAllocatedBytes() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+
+    abstract static class Operation {
+        /**
+         * Prepare an iteration, for example by clearing a table. Not included in the measurement.
+         */
+        void setUp() {
+        }
+
+        abstract void run();
+    }
+
+    static final class Result {
+        final String mLabel;
+        final int mRows;
+        final double mMeanNanos;
+        final double mStdDevNanos;
+        final long mMinNanos;
+        final long mMedianNanos;
+        /**
+         * Mean number of bytes allocated by an iteration, or -1 if unknown
+         */
+        final long mAllocatedBytes;
+
+        Result(String label, int rows, long[] nanos, long allocatedBytes) {
+            mLabel = label;
+            mRows = rows;
+            mAllocatedBytes = allocatedBytes;
+            long[] sorted = nanos.clone();
+            Arrays.sort(sorted);
+            mMinNanos = sorted[0];
+            mMedianNanos = sorted[sorted.length / 2];
+            double sum = 0;
+            for (long value : nanos) {
+                sum += value;
+            }
+            mMeanNanos = sum / nanos.length;
+            double squares = 0;
+            for (long value : nanos) {
+                squares += (value - mMeanNanos) * (value - mMeanNanos);
+            }
+            mStdDevNanos = Math.sqrt(squares / nanos.length);
+        }
+
+        /**
+         * @return the mean time per row in nanoseconds
+         */
+        double getNanosPerRow() {
+            return mMeanNanos / Math.max(1, mRows);
+        }
+
+        /**
+         * @return the median time per row in nanoseconds, which is less sensitive to outliers than the mean
+         */
+        double getMedianNanosPerRow() {
+            return (double) mMedianNanos / Math.max(1, mRows);
+        }
+
+        /**
+         * @return the mean number of bytes allocated per row, or -1 if unknown
+         */
+        double getAllocatedBytesPerRow() {
+            return mAllocatedBytes < 0 ? -1 : (double) mAllocatedBytes / Math.max(1, mRows);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%-28s %10.3f ms/op +-%5.1f%% (min %.3f, median %.3f) %10.0f ns/row %10.0f B/row",
+                    mLabel, mMeanNanos / 1e6, mMeanNanos == 0 ? 0 : mStdDevNanos * 100 / mMeanNanos, mMinNanos / 1e6,
+                    mMedianNanos / 1e6, getNanosPerRow(), getAllocatedBytesPerRow());
+        }
+    }
+}
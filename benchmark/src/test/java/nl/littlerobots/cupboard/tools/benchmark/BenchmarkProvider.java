@@ -0,0 +1,148 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.benchmark;
+
+import android.content.ContentValues;
+import android.provider.BaseColumns;
+
+import java.io.File;
+import java.util.List;
+
+import nl.littlerobots.cupboard.tools.provider.CupboardContentProvider;
+import nl.littlerobots.cupboard.tools.sqlitejdbc.SQLiteJdbcCupboardProviderDatabase;
+import nl.qbusict.cupboard.Cupboard;
+import nl.qbusict.cupboard.CupboardBuilder;
+import nl.qbusict.cupboard.convert.EntityConverter;
+
+/**
+ * Provider under benchmark, with a narrow and a wide entity. The database is opened by Robolectric, or by sqlite-jdbc
+ * when {@link #mSqliteJdbc} is set before the provider is attached.
+ */
+public class BenchmarkProvider extends CupboardContentProvider {
+    static final String AUTHORITY = "nl.littlerobots.cupboard.tools.benchmark";
+    static final Cupboard CUPBOARD = new CupboardBuilder().build();
+
+    static {
+        CUPBOARD.register(Narrow.class);
+        CUPBOARD.register(Wide.class);
+    }
+
+    static final String DATABASE_NAME = "benchmark.db";
+    static final String JDBC_DATABASE_NAME = "benchmark-jdbc.db";
+
+    boolean mBulkInsertBatching;
+    boolean mSqliteJdbc;
+
+    public BenchmarkProvider() {
+        super(AUTHORITY, DATABASE_NAME, 1);
+    }
+
+    @Override
+    protected Cupboard createCupboard() {
+        return CUPBOARD;
+    }
+
+    @Override
+    protected boolean isBulkInsertBatchingEnabled() {
+        return mBulkInsertBatching;
+    }
+
+    @Override
+    protected CupboardProviderDatabase openDatabase() {
+        if (!mSqliteJdbc) {
+            return super.openDatabase();
+        }
+        SQLiteJdbcCupboardProviderDatabase db = SQLiteJdbcCupboardProviderDatabase.open(getJdbcDatabaseFile());
+        CUPBOARD.withDatabase(db).upgradeTables();
+        return db;
+    }
+
+    /**
+     * Close and delete the database
+     */
+    void close() {
+        shutdown();
+        getWritableDatabase().close();
+        getDatabaseHelper().close();
+        if (mSqliteJdbc) {
+            getJdbcDatabaseFile().delete();
+        } else {
+            getContext().deleteDatabase(DATABASE_NAME);
+        }
+    }
+
+    private File getJdbcDatabaseFile() {
+        return new File(getContext().getCacheDir(), JDBC_DATABASE_NAME);
+    }
+
+    /**
+     * Create the values of rows of an entity. The position column is the row number and the name repeats every 10 rows.
+     *
+     * @param entityClass the entity class
+     * @param rows        the number of rows
+     * @return the values, without {@link BaseColumns#_ID}
+     */
+    static ContentValues[] createValues(Class<?> entityClass, int rows) {
+        List<EntityConverter.Column> columns = CUPBOARD.getEntityConverter(entityClass).getColumns();
+        ContentValues[] values = new ContentValues[rows];
+        for (int row = 0; row < rows; row++) {
+            ContentValues rowValues = new ContentValues(columns.size());
+            for (EntityConverter.Column column : columns) {
+                if (BaseColumns._ID.equals(column.name)) {
+                    continue;
+                }
+                switch (column.type) {
+                    case INTEGER:
+                        rowValues.put(column.name, (long) row);
+                        break;
+                    case REAL:
+                        rowValues.put(column.name, row / 2d);
+                        break;
+                    default:
+                        rowValues.put(column.name, column.name + " " + row % 10);
+                }
+            }
+            values[row] = rowValues;
+        }
+        return values;
+    }
+
+    public static class Narrow {
+        public Long _id;
+        public String name;
+        public long position;
+    }
+
+    public static class Wide {
+        public Long _id;
+        public String name;
+        public long position;
+        public String description;
+        public String category;
+        public String origin;
+        public String author;
+        public String url;
+        public long created;
+        public long modified;
+        public long count;
+        public long flags;
+        public double price;
+        public double weight;
+        public double latitude;
+        public double longitude;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.benchmark;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.littlerobots.cupboard.tools.benchmark.ConverterBenchmarkTest.Cheese;
+import nl.qbusict.cupboard.Cupboard;
+import nl.qbusict.cupboard.convert.EntityConverter;
+import nl.qbusict.cupboard.convert.FieldConverter;
+import nl.qbusict.cupboard.convert.FieldConverterFactory;
+
+/**
+ * Hand written binary encoding of a list of {@link Cheese}, stored as a blob. This is the baseline the json converters
+ * are compared to: no reflection and no text encoding.
+ */
+class BinaryCheeseListConverterFactory implements FieldConverterFactory {
+
+    @Override
+    public FieldConverter<?> create(Cupboard cupboard, Type type) {
+        if (type instanceof ParameterizedType && ((ParameterizedType) type).getRawType() == List.class
+                && ((ParameterizedType) type).getActualTypeArguments()[0] == Cheese.class) {
+            return new FieldConverter<List<Cheese>>() {
+                @Override
+                public List<Cheese> fromCursorValue(Cursor cursor, int columnIndex) {
+                    try {
+                        return read(cursor.getBlob(columnIndex));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                @Override
+                public void toContentValue(List<Cheese> value, String key, ContentValues values) {
+                    try {
+                        values.put(key, write(value));
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+
+                @Override
+                public EntityConverter.ColumnType getColumnType() {
+                    return EntityConverter.ColumnType.BLOB;
+                }
+            };
+        }
+        return null;
+    }
+
+    private static byte[] write(List<Cheese> cheeses) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + cheeses.size() * 32);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(cheeses.size());
+        for (Cheese cheese : cheeses) {
+            writeString(out, cheese.name);
+            writeString(out, cheese.origin);
+            out.writeInt(cheese.age);
+            out.writeDouble(cheese.price);
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static List<Cheese> read(byte[] value) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+        int size = in.readInt();
+        List<Cheese> cheeses = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            Cheese cheese = new Cheese();
+            cheese.name = readString(in);
+            cheese.origin = readString(in);
+            cheese.age = in.readInt();
+            cheese.price = in.readDouble();
+            cheeses.add(cheese);
+        }
+        return cheeses;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
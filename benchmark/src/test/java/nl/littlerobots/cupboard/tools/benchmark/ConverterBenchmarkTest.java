@@ -0,0 +1,174 @@
+package nl.littlerobots.cupboard.tools.benchmark;
+
+import com.google.gson.Gson;
+import com.squareup.moshi.Moshi;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import nl.littlerobots.cupboard.tools.gson.GsonListFieldConverterFactory;
+import nl.littlerobots.cupboard.tools.moshi.MoshiListFieldConverterFactory;
+import nl.qbusict.cupboard.Cupboard;
+import nl.qbusict.cupboard.CupboardBuilder;
+import nl.qbusict.cupboard.convert.EntityConverter;
+import nl.qbusict.cupboard.convert.FieldConverterFactory;
+
+import static junit.framework.Assert.assertEquals;
+
+/**
+ * Compares the field converters for a list field, using an entity with a {@code List<Cheese>}. Reports the encode and
+ * decode time and allocations per entity and the size of the column. To compare another converter, add its factory to
+ * {@link #CONVERTERS}.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class ConverterBenchmarkTest {
+    private static final Map<String, FieldConverterFactory> CONVERTERS = new LinkedHashMap<>();
+    private static final int[] ELEMENT_COUNTS = {1, 10, 100, 1000, 10000};
+    /**
+     * Number of elements converted per measured iteration, so that small lists are converted often enough to measure
+     */
+    private static final int ELEMENTS_PER_ITERATION = 100000;
+    private static final String[] ORIGINS = {"Netherlands", "France", "Switzerland", "Italy", "United Kingdom"};
+
+    static {
+        CONVERTERS.put("gson", new GsonListFieldConverterFactory(new Gson()));
+        CONVERTERS.put("moshi", new MoshiListFieldConverterFactory(new Moshi.Builder().build()));
+        CONVERTERS.put("binary", new BinaryCheeseListConverterFactory());
+    }
+
+    private final String mConverterName;
+    private final int mElements;
+    private final int mRows;
+    private EntityConverter<Plateau> mEntityConverter;
+    private Plateau mPlateau;
+    private Benchmark mBenchmark;
+
+    public ConverterBenchmarkTest(String converterName, int elements) {
+        mConverterName = converterName;
+        mElements = elements;
+        mRows = Math.max(1, ELEMENTS_PER_ITERATION / elements);
+    }
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{0} x {1}")
+    public static Collection<Object[]> parameters() {
+        List<Object[]> parameters = new ArrayList<>();
+        for (String converter : CONVERTERS.keySet()) {
+            for (int elements : ELEMENT_COUNTS) {
+                parameters.add(new Object[]{converter, elements});
+            }
+        }
+        return parameters;
+    }
+
+    @Before
+    public void setUp() {
+        Cupboard cupboard = new CupboardBuilder().registerFieldConverterFactory(CONVERTERS.get(mConverterName)).build();
+        cupboard.register(Plateau.class);
+        mEntityConverter = cupboard.getEntityConverter(Plateau.class);
+        mPlateau = createPlateau(mElements);
+        mBenchmark = new Benchmark(String.format(Locale.US, "%-6s x %5d cheeses", mConverterName, mElements));
+    }
+
+    @Test
+    public void benchmarkEncode() {
+        final ContentValues values = new ContentValues();
+        mBenchmark.measure("encode", mRows, new Benchmark.Operation() {
+            @Override
+            void run() {
+                for (int i = 0; i < mRows; i++) {
+                    values.clear();
+                    mEntityConverter.toValues(mPlateau, values);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkDecode() {
+        final MatrixCursor cursor = toCursor(encode());
+        cursor.moveToFirst();
+        mBenchmark.measure("decode", mRows, new Benchmark.Operation() {
+            @Override
+            void run() {
+                for (int i = 0; i < mRows; i++) {
+                    mEntityConverter.fromCursor(cursor);
+                }
+            }
+        });
+        Plateau plateau = mEntityConverter.fromCursor(cursor);
+        assertEquals(mElements, plateau.cheeses.size());
+        assertEquals(mPlateau.cheeses.get(mElements - 1).name, plateau.cheeses.get(mElements - 1).name);
+        cursor.close();
+    }
+
+    @Test
+    public void benchmarkColumnSize() {
+        Object value = encode().get("cheeses");
+        int size = value instanceof byte[] ? ((byte[]) value).length : value.toString().getBytes(Charset.forName("UTF-8")).length;
+        System.out.println(String.format(Locale.US, "%-6s x %5d cheeses column size %10d bytes %8.1f bytes/element",
+                mConverterName, mElements, size, (double) size / mElements));
+    }
+
+    private ContentValues encode() {
+        ContentValues values = new ContentValues();
+        mEntityConverter.toValues(mPlateau, values);
+        return values;
+    }
+
+    private MatrixCursor toCursor(ContentValues values) {
+        List<EntityConverter.Column> columns = mEntityConverter.getColumns();
+        String[] names = new String[columns.size()];
+        Object[] row = new Object[columns.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = columns.get(i).name;
+            row[i] = values.get(names[i]);
+        }
+        MatrixCursor cursor = new MatrixCursor(names, 1);
+        cursor.addRow(row);
+        return cursor;
+    }
+
+    private static Plateau createPlateau(int elements) {
+        Plateau plateau = new Plateau();
+        plateau._id = 1L;
+        plateau.name = "Cheese plateau";
+        plateau.cheeses = new ArrayList<>(elements);
+        for (int i = 0; i < elements; i++) {
+            Cheese cheese = new Cheese();
+            cheese.name = "Cheese " + i;
+            cheese.origin = ORIGINS[i % ORIGINS.length];
+            cheese.age = i % 36;
+            cheese.price = 4.95 + i % 10;
+            plateau.cheeses.add(cheese);
+        }
+        return plateau;
+    }
+
+    public static class Plateau {
+        public Long _id;
+        public String name;
+        public List<Cheese> cheeses;
+    }
+
+    public static class Cheese {
+        public String name;
+        public String origin;
+        public int age;
+        public double price;
+    }
+}
@@ -0,0 +1,297 @@
+package nl.littlerobots.cupboard.tools.benchmark;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.ParameterizedRobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentProviderOperation;
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.OperationApplicationException;
+import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import nl.littlerobots.cupboard.tools.provider.CupboardContentProvider;
+import nl.littlerobots.cupboard.tools.provider.UriHelper;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Measures the write and read paths of {@link CupboardContentProvider} for a number of row counts and entity widths,
+ * on the Robolectric SQLite bindings and on sqlite-jdbc. Run with {@code ./gradlew :benchmark:testDebugUnitTest} and
+ * compare the reported times before and after a change, or check them against a baseline, see {@link Benchmark}.
+ */
+@RunWith(ParameterizedRobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class ProviderBenchmarkTest {
+    private static final int PAGE_SIZE = 50;
+    private static final int OBSERVER_COUNT = 8;
+    private static final String ROBOLECTRIC = "Robolectric";
+    private static final String SQLITE_JDBC = "sqlite-jdbc";
+
+    private final int mRows;
+    private final Class<?> mEntityClass;
+    private final String mBackend;
+    private BenchmarkProvider mProvider;
+    private Benchmark mBenchmark;
+    private Uri mUri;
+    private ContentValues[] mValues;
+
+    public ProviderBenchmarkTest(int rows, String entity, String backend) throws ClassNotFoundException {
+        mRows = rows;
+        mEntityClass = Class.forName(BenchmarkProvider.class.getName() + "$" + entity);
+        mBackend = backend;
+    }
+
+    @ParameterizedRobolectricTestRunner.Parameters(name = "{1} x {0} ({2})")
+    public static Collection<Object[]> parameters() {
+        List<Object[]> parameters = new ArrayList<>();
+        for (String backend : new String[]{ROBOLECTRIC, SQLITE_JDBC}) {
+            for (String entity : new String[]{"Narrow", "Wide"}) {
+                for (int rows : new int[]{100, 1000, 10000}) {
+                    parameters.add(new Object[]{rows, entity, backend});
+                }
+            }
+        }
+        return parameters;
+    }
+
+    @Before
+    public void setUp() {
+        mProvider = new BenchmarkProvider();
+        mProvider.mSqliteJdbc = SQLITE_JDBC.equals(mBackend);
+        ProviderInfo info = new ProviderInfo();
+        info.authority = BenchmarkProvider.AUTHORITY;
+        mProvider.attachInfo(RuntimeEnvironment.application, info);
+        mUri = UriHelper.with(BenchmarkProvider.CUPBOARD).forAuthority(BenchmarkProvider.AUTHORITY).getUri(mEntityClass);
+        mValues = BenchmarkProvider.createValues(mEntityClass, mRows);
+        mBenchmark = new Benchmark(mEntityClass.getSimpleName() + " x " + mRows + " (" + mBackend + ")");
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.close();
+    }
+
+    @Test
+    public void benchmarkInsert() {
+        mBenchmark.measure("insert", mRows, new ClearingOperation() {
+            @Override
+            void run() {
+                for (ContentValues values : mValues) {
+                    mProvider.insert(mUri, values);
+                }
+            }
+        });
+        assertEquals(mRows, count(mUri));
+    }
+
+    @Test
+    public void benchmarkBulkInsert() {
+        mBenchmark.measure("bulkInsert", mRows, new ClearingOperation() {
+            @Override
+            void run() {
+                mProvider.bulkInsert(mUri, mValues);
+            }
+        });
+        assertEquals(mRows, count(mUri));
+    }
+
+    @Test
+    public void benchmarkBulkInsertBatched() {
+        mProvider.mBulkInsertBatching = true;
+        mBenchmark.measure("bulkInsert (batched)", mRows, new ClearingOperation() {
+            @Override
+            void run() {
+                mProvider.bulkInsert(mUri, mValues);
+            }
+        });
+        assertEquals(mRows, count(mUri));
+    }
+
+    @Test
+    public void benchmarkApplyBatch() {
+        final int yieldInterval = mProvider.getMaxOperationsPerYield();
+        mBenchmark.measure("applyBatch", mRows, new ClearingOperation() {
+            @Override
+            void run() {
+                ArrayList<ContentProviderOperation> operations = new ArrayList<>(mRows);
+                for (int i = 0; i < mRows; i++) {
+                    operations.add(ContentProviderOperation.newInsert(mUri).withValues(mValues[i])
+                            .withYieldAllowed(i > 0 && i % yieldInterval == 0).build());
+                }
+                try {
+                    mProvider.applyBatch(operations);
+                } catch (OperationApplicationException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        assertEquals(mRows, count(mUri));
+    }
+
+    @Test
+    public void benchmarkUpdateWithSelection() {
+        fill();
+        final ContentValues values = new ContentValues();
+        values.put("name", "updated");
+        mBenchmark.measure("update (half)", mRows / 2, new Benchmark.Operation() {
+            @Override
+            void run() {
+                assertEquals(mRows / 2, mProvider.update(mUri, values, "position < ?", new String[]{String.valueOf(mRows / 2)}));
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkDeleteWithSelection() {
+        mBenchmark.measure("delete (half)", mRows / 2, new Benchmark.Operation() {
+            @Override
+            void setUp() {
+                fill();
+            }
+
+            @Override
+            void run() {
+                assertEquals(mRows / 2, mProvider.delete(mUri, "position < ?", new String[]{String.valueOf(mRows / 2)}));
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkQuery() {
+        fill();
+        measureQuery("query", mRows, mUri, null, null, null);
+        measureQuery("query (selection)", mRows / 2, mUri, null, "position >= ?", null);
+        measureQuery("query (sort order)", mRows, mUri, null, null, "name, position DESC");
+        measureQuery("query (item)", 1, ContentUris.withAppendedId(mUri, mRows / 2), null, null, null);
+        measureQuery("query limit", PAGE_SIZE, page(mUri.buildUpon()).build(), null, null, null);
+        measureQuery("query limit offset", PAGE_SIZE, page(mUri.buildUpon())
+                .appendQueryParameter(CupboardContentProvider.OFFSET_PARAMETER, String.valueOf(mRows / 2)).build(), null, null, null);
+        measureQuery("query distinct", 10, mUri.buildUpon()
+                .appendQueryParameter(CupboardContentProvider.DISTINCT_PARAMETER, "true").build(), new String[]{"name"}, null, null);
+        measureQuery("query groupBy having", 10, mUri.buildUpon()
+                        .appendQueryParameter(CupboardContentProvider.GROUP_BY_PARAMETER, "name")
+                        .appendQueryParameter(CupboardContentProvider.HAVING_PARAMETER, "count(*) > 0").build(),
+                new String[]{"name", "count(*)"}, null, null);
+        measureQuery("query afterId", PAGE_SIZE, page(mUri.buildUpon())
+                .appendQueryParameter(CupboardContentProvider.AFTER_ID_PARAMETER, String.valueOf(mRows / 2)).build(), null, null, null);
+        measureQuery("query seekColumn", PAGE_SIZE, page(mUri.buildUpon())
+                .appendQueryParameter(CupboardContentProvider.SEEK_COLUMN_PARAMETER, "position")
+                .appendQueryParameter(CupboardContentProvider.AFTER_VALUE_PARAMETER, String.valueOf(mRows / 2 - 1))
+                .appendQueryParameter(CupboardContentProvider.AFTER_ID_PARAMETER, String.valueOf(mRows / 2)).build(), null, null, null);
+        UriHelper uriHelper = UriHelper.with(BenchmarkProvider.CUPBOARD).forAuthority(BenchmarkProvider.AUTHORITY);
+        measureQuery("query count", 1, uriHelper.getCountUri(mEntityClass), null, null, null);
+        measureQuery("query sum", 1, uriHelper.getAggregateUri(mEntityClass, UriHelper.AGGREGATE_SUM, "position"), null, null, null);
+    }
+
+    @Test
+    public void benchmarkNotifications() {
+        ContentResolver resolver = RuntimeEnvironment.application.getContentResolver();
+        Benchmark.Operation insert = new ClearingOperation() {
+            @Override
+            void run() {
+                for (ContentValues values : mValues) {
+                    mProvider.insert(mUri, values);
+                }
+            }
+        };
+        Benchmark.Result withoutObservers = mBenchmark.measure("insert (no observers)", mRows, insert);
+        List<CountingObserver> observers = new ArrayList<>(OBSERVER_COUNT);
+        for (int i = 0; i < OBSERVER_COUNT; i++) {
+            CountingObserver observer = new CountingObserver();
+            resolver.registerContentObserver(mUri, true, observer);
+            observers.add(observer);
+        }
+        try {
+            Benchmark.Result withObservers = mBenchmark.measure("insert (" + OBSERVER_COUNT + " observers)", mRows, insert);
+            System.out.println(String.format(Locale.US, "%s x %d (%s) notification overhead %10.0f ns/row",
+                    mEntityClass.getSimpleName(), mRows, mBackend, withObservers.getNanosPerRow() - withoutObservers.getNanosPerRow()));
+            for (CountingObserver observer : observers) {
+                assertTrue(observer.mChanges >= mRows);
+            }
+        } finally {
+            for (CountingObserver observer : observers) {
+                resolver.unregisterContentObserver(observer);
+            }
+        }
+    }
+
+    private void measureQuery(String label, final int expectedRows, final Uri uri, final String[] projection,
+                              final String selection, final String sortOrder) {
+        final String[] selectionArgs = selection == null ? null : new String[]{String.valueOf(mRows / 2)};
+        mBenchmark.measure(label, expectedRows, new Benchmark.Operation() {
+            @Override
+            void run() {
+                Cursor cursor = mProvider.query(uri, projection, selection, selectionArgs, sortOrder);
+                try {
+                    int rows = 0;
+                    int columns = cursor.getColumnCount();
+                    while (cursor.moveToNext()) {
+                        for (int i = 0; i < columns; i++) {
+                            cursor.getString(i);
+                        }
+                        rows++;
+                    }
+                    assertEquals(Math.min(expectedRows, mRows), rows);
+                } finally {
+                    cursor.close();
+                }
+            }
+        });
+    }
+
+    private Uri.Builder page(Uri.Builder builder) {
+        return builder.appendQueryParameter(CupboardContentProvider.LIMIT_PARAMETER, String.valueOf(PAGE_SIZE));
+    }
+
+    private void fill() {
+        mProvider.delete(mUri, null, null);
+        mProvider.bulkInsert(mUri, mValues);
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mProvider.query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Operation on an empty table
+     */
+    private abstract class ClearingOperation extends Benchmark.Operation {
+        @Override
+        void setUp() {
+            mProvider.delete(mUri, null, null);
+        }
+    }
+
+    private static class CountingObserver extends ContentObserver {
+        int mChanges;
+
+        CountingObserver() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            mChanges++;
+        }
+    }
+}
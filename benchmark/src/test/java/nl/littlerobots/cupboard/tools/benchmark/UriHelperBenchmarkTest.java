@@ -0,0 +1,124 @@
+package nl.littlerobots.cupboard.tools.benchmark;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentUris;
+import android.net.Uri;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import nl.littlerobots.cupboard.tools.provider.UriHelper;
+import nl.qbusict.cupboard.Cupboard;
+import nl.qbusict.cupboard.CupboardBuilder;
+
+/**
+ * Measures the per-query work of {@link UriHelper} with a large number of registered entities
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class UriHelperBenchmarkTest {
+    private static final int ENTITY_COUNT = 128;
+    /**
+     * Number of lookups per measured iteration
+     */
+    private static final int LOOKUPS = 100000;
+    private static final Class<?>[] MARKER_INTERFACES = {Runnable.class, Comparable.class, Serializable.class, CharSequence.class,
+            Iterable.class, Appendable.class, Readable.class, Closeable.class};
+
+    private List<Class<?>> mEntities;
+    private UriHelper mUriHelper;
+    private Uri[] mCollectionUris;
+    private Uri[] mItemUris;
+    private Benchmark mBenchmark;
+
+    @Before
+    public void setUp() {
+        mEntities = createEntityClasses(ENTITY_COUNT);
+        Cupboard cupboard = new CupboardBuilder().build();
+        for (Class<?> entity : mEntities) {
+            cupboard.register(entity);
+        }
+        mUriHelper = UriHelper.with(cupboard).forAuthority("nl.littlerobots.test");
+        mCollectionUris = new Uri[ENTITY_COUNT];
+        mItemUris = new Uri[ENTITY_COUNT];
+        for (int i = 0; i < ENTITY_COUNT; i++) {
+            mCollectionUris[i] = Uri.parse(mUriHelper.getUri(mEntities.get(i)).toString());
+            mItemUris[i] = ContentUris.withAppendedId(mCollectionUris[i], i + 1);
+        }
+        mBenchmark = new Benchmark(String.format(Locale.US, "UriHelper %d entities", ENTITY_COUNT));
+    }
+
+    @Test
+    public void benchmarkGetUri() {
+        mBenchmark.measure("getUri", LOOKUPS, new Benchmark.Operation() {
+            @Override
+            void run() {
+                for (int i = 0; i < LOOKUPS; i++) {
+                    mUriHelper.getUri(mEntities.get(i % ENTITY_COUNT));
+                }
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkMatchCollection() {
+        mBenchmark.measure("getMatchedClass (collection)", LOOKUPS, new Benchmark.Operation() {
+            @Override
+            void run() {
+                for (int i = 0; i < LOOKUPS; i++) {
+                    mUriHelper.getMatchedClass(mCollectionUris[i % ENTITY_COUNT]);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkMatchItem() {
+        mBenchmark.measure("isCollection (item)", LOOKUPS, new Benchmark.Operation() {
+            @Override
+            void run() {
+                for (int i = 0; i < LOOKUPS; i++) {
+                    mUriHelper.isCollection(mItemUris[i % ENTITY_COUNT]);
+                }
+            }
+        });
+    }
+
+    @Test
+    public void benchmarkResolveItem() {
+        mBenchmark.measure("resolve (item)", LOOKUPS, new Benchmark.Operation() {
+            @Override
+            void run() {
+                for (int i = 0; i < LOOKUPS; i++) {
+                    mUriHelper.resolve(mItemUris[i % ENTITY_COUNT]);
+                }
+            }
+        });
+    }
+
+    /**
+     * Create distinct classes to register as entities, using a proxy class for each combination of marker interfaces.
+     */
+    private static List<Class<?>> createEntityClasses(int count) {
+        List<Class<?>> classes = new ArrayList<>(count);
+        for (int mask = 1; classes.size() < count; mask++) {
+            List<Class<?>> interfaces = new ArrayList<>();
+            for (int bit = 0; bit < MARKER_INTERFACES.length; bit++) {
+                if ((mask & (1 << bit)) != 0) {
+                    interfaces.add(MARKER_INTERFACES[bit]);
+                }
+            }
+            classes.add(Proxy.getProxyClass(UriHelperBenchmarkTest.class.getClassLoader(), interfaces.toArray(new Class<?>[interfaces.size()])));
+        }
+        return classes;
+    }
+}
@@ -2,7 +2,6 @@ package nl.littlerobots.cupboard.tools.moshi;
 
 import com.squareup.moshi.JsonAdapter;
 import com.squareup.moshi.Moshi;
-import com.squareup.moshi.Types;
 
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
@@ -24,7 +23,7 @@ public class MoshiListFieldConverterFactory implements FieldConverterFactory {
     public FieldConverter<?> create(Cupboard cupboard, Type type) {
         if (type == List.class || (type instanceof ParameterizedType
                 && ((Class<?>) (((ParameterizedType) type).getRawType())).isAssignableFrom(List.class))) {
-            final JsonAdapter<List<?>> adapter = mMoshi.adapter(Types.newParameterizedType(List.class, type));
+            final JsonAdapter<List<?>> adapter = mMoshi.adapter(type);
             return new MoshiFieldConverter<>(adapter);
         }
         return null;
@@ -5,9 +5,17 @@ import com.squareup.moshi.Types;
 
 import org.junit.Test;
 
+import android.database.Cursor;
+
+import java.util.Arrays;
 import java.util.List;
 
+import nl.qbusict.cupboard.convert.FieldConverter;
+
+import static junit.framework.Assert.assertEquals;
 import static junit.framework.Assert.assertNotNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 
 public class MoshiListFieldConverterFactoryTest {
 
@@ -16,4 +24,13 @@ public class MoshiListFieldConverterFactoryTest {
         MoshiListFieldConverterFactory fieldConverterFactory = new MoshiListFieldConverterFactory(new Moshi.Builder().build());
         assertNotNull(fieldConverterFactory.create(null, Types.newParameterizedType(List.class, String.class)));
     }
+
+    @Test
+    public void testConvertListFromCursor() {
+        MoshiListFieldConverterFactory fieldConverterFactory = new MoshiListFieldConverterFactory(new Moshi.Builder().build());
+        FieldConverter<?> converter = fieldConverterFactory.create(null, Types.newParameterizedType(List.class, String.class));
+        Cursor cursor = mock(Cursor.class);
+        when(cursor.getString(0)).thenReturn("[\"Gouda\",\"Brie\"]");
+        assertEquals(Arrays.asList("Gouda", "Brie"), converter.fromCursorValue(cursor, 0));
+    }
 }
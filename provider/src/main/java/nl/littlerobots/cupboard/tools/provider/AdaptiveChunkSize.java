@@ -0,0 +1,60 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+/**
+ * Number of operations between automatic yield points. The size is adjusted after every chunk so that a chunk takes
+ * about the target duration, and is halved whenever another thread was waiting for the database.
+ */
+final class AdaptiveChunkSize {
+    private final int mMinSize;
+    private final int mMaxSize;
+    private final long mTargetNanos;
+    private int mSize;
+
+    AdaptiveChunkSize(int minSize, int maxSize, long targetNanos) {
+        if (minSize < 1 || maxSize < minSize) {
+            throw new IllegalArgumentException("Invalid chunk size range " + minSize + " - " + maxSize);
+        }
+        mMinSize = minSize;
+        mMaxSize = maxSize;
+        mTargetNanos = targetNanos;
+        mSize = Math.max(minSize, maxSize / 4);
+    }
+
+    synchronized int get() {
+        return mSize;
+    }
+
+    /**
+     * Adjust the chunk size after a chunk has been applied
+     *
+     * @param operations   the number of operations in the chunk
+     * @param elapsedNanos the time it took to apply the chunk
+     * @param contended    true if the yield after the chunk found the database contended
+     */
+    synchronized void update(int operations, long elapsedNanos, boolean contended) {
+        if (contended) {
+            mSize = Math.max(mMinSize, mSize / 2);
+        } else if (operations > 0) {
+            long size = elapsedNanos <= 0 ? mMaxSize : operations * mTargetNanos / elapsedNanos;
+            // move half way towards the measured size to smooth out outliers
+            size = (mSize + Math.min(size, mMaxSize) + 1) / 2;
+            mSize = (int) Math.max(mMinSize, Math.min(mMaxSize, size));
+        }
+    }
+}
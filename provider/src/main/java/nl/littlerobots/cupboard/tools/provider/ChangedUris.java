@@ -0,0 +1,84 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The set of uris that changed during a transaction. Item uris (uris ending with a numeric id) are collapsed into
+ * their collection uri when many rows are changed, since notifying the collection uri also notifies the observers
+ * of every item in it.
+ */
+final class ChangedUris {
+    /**
+     * Number of uris after which item uris are recorded as their collection uri
+     */
+    static final int MAX_URIS = 20;
+    private final Set<Uri> mUris = new LinkedHashSet<Uri>();
+
+    synchronized void add(Uri uri) {
+        if (uri.getEncodedQuery() != null || uri.getEncodedFragment() != null) {
+            uri = uri.buildUpon().clearQuery().fragment(null).build();
+        }
+        if (mUris.size() >= MAX_URIS && isItemUri(uri)) {
+            uri = getCollectionUri(uri);
+        }
+        mUris.add(uri);
+    }
+
+    /**
+     * Get and clear the changed uris. Item uris for which the collection uri has changed are omitted.
+     *
+     * @return the changed uris
+     */
+    synchronized List<Uri> drain() {
+        List<Uri> uris = new ArrayList<Uri>(mUris);
+        mUris.clear();
+        Iterator<Uri> iterator = uris.iterator();
+        while (iterator.hasNext()) {
+            Uri uri = iterator.next();
+            if (isItemUri(uri) && uris.contains(getCollectionUri(uri))) {
+                iterator.remove();
+            }
+        }
+        return uris;
+    }
+
+    private static boolean isItemUri(Uri uri) {
+        String segment = uri.getLastPathSegment();
+        if (segment == null || segment.length() == 0) {
+            return false;
+        }
+        for (int i = 0; i < segment.length(); i++) {
+            if (!Character.isDigit(segment.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static Uri getCollectionUri(Uri uri) {
+        String path = uri.getEncodedPath();
+        return uri.buildUpon().encodedPath(path.substring(0, path.lastIndexOf('/'))).build();
+    }
+}
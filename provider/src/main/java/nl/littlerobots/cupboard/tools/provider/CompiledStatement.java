@@ -0,0 +1,42 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+/**
+ * A pre-compiled statement for a {@link SQLiteContentProvider.CupboardProviderDatabase}, modelled after
+ * {@link android.database.sqlite.SQLiteStatement}. Bind indexes are 1-based.
+ */
+public interface CompiledStatement {
+    void bindNull(int index);
+
+    void bindLong(int index, long value);
+
+    void bindDouble(int index, double value);
+
+    void bindString(int index, String value);
+
+    void bindBlob(int index, byte[] value);
+
+    void clearBindings();
+
+    /**
+     * Execute an insert statement
+     *
+     * @return the row id of the last inserted row
+     */
+    long executeInsert();
+
+    /**
+     * Execute an update or delete statement
+     *
+     * @return the number of rows affected
+     */
+    int executeUpdateDelete();
+
+    /**
+     * Execute a statement that returns a 1 by 1 table with a numeric value
+     *
+     * @return the value
+     */
+    long simpleQueryForLong();
+
+    void close();
+}
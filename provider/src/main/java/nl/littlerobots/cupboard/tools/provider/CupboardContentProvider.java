@@ -16,18 +16,57 @@
 
 package nl.littlerobots.cupboard.tools.provider;
 
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.OperationApplicationException;
+import android.database.CrossProcessCursorWrapper;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.Process;
+import android.os.ResultReceiver;
 import android.provider.BaseColumns;
+import android.util.JsonReader;
+import android.util.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import nl.qbusict.cupboard.Cupboard;
 import nl.qbusict.cupboard.CupboardDatabase;
 import nl.qbusict.cupboard.DatabaseCompartment.QueryBuilder;
+import nl.qbusict.cupboard.convert.EntityConverter;
 
 import static nl.qbusict.cupboard.CupboardFactory.cupboard;
 
@@ -35,6 +74,10 @@ import static nl.qbusict.cupboard.CupboardFactory.cupboard;
  * Content provider that reduces boilerplate for the common cases:
  * <ul>
  * <li>Defines a content uri for a single entity and collection (query) of entities</li>
+ * <li>Defines count and aggregate uris that return a single row, see {@link UriHelper#getCountUri(Class)}</li>
+ * <li>Exports all entities of a collection uri as newline delimited JSON through {@link #openFile(Uri, String)}</li>
+ * <li>Imports newline delimited JSON from a file descriptor through {@link #call(String, String, Bundle)}</li>
+ * <li>Deletes and updates a set of ids in a single transaction through {@link #call(String, String, Bundle)}</li>
  * <li>Returns a cursor that notifies on changes to the dataset</li>
  * <li>Provides a callback to control notification with optional sync to network</li>
  * <li>Has a helper for for finding an existing entity based on an external id for inserts (e.g. update with external key)</li>
@@ -52,11 +95,141 @@ public abstract class CupboardContentProvider extends SQLiteContentProvider {
     public static final String DISTINCT_PARAMETER = "distinct";
     public static final String GROUP_BY_PARAMETER = "groupBy";
     public static final String HAVING_PARAMETER = "having";
+    /**
+     * Query parameter for keyset pagination: the _id of the last row of the previous page. Rows are returned ordered by
+     * the {@link #SEEK_COLUMN_PARAMETER}, if set, and _id. Keyset pagination can't be combined with a sort order.
+     */
+    public static final String AFTER_ID_PARAMETER = "afterId";
+    /**
+     * Query parameter for keyset pagination: the column to page on, in addition to _id. The column should not contain null values.
+     */
+    public static final String SEEK_COLUMN_PARAMETER = "seekColumn";
+    /**
+     * Query parameter for keyset pagination: the value of the {@link #SEEK_COLUMN_PARAMETER} of the last row of the previous page.
+     */
+    public static final String AFTER_VALUE_PARAMETER = "afterValue";
+    /**
+     * Query parameter for keyset pagination: set to "true" to page in descending order.
+     */
+    public static final String SEEK_DESCENDING_PARAMETER = "seekDescending";
+    /**
+     * Cursor extra containing the uri of the next page, as a string, when using keyset pagination with a limit and the
+     * page is full. The projection must include _id and the seek column for the next page to be known.
+     */
+    public static final String EXTRA_NEXT_PAGE_URI = "nextPageUri";
+    /**
+     * Column of the cursor returned for a {@link UriHelper#getAggregateUri(Class, String, String) aggregate uri}. The cursor
+     * for a {@link UriHelper#getCountUri(Class) count uri} has a single {@link BaseColumns#_COUNT} column.
+     */
+    public static final String AGGREGATE_VALUE_COLUMN = "value";
+    /**
+     * Method for {@link #call(String, String, Bundle)} that imports newline delimited JSON, in the format written by
+     * {@link #openFile(Uri, String)}. The argument is the collection uri to insert the entities in, the file descriptor to
+     * read from is passed as {@link #EXTRA_FILE_DESCRIPTOR}. Returns the number of imported entities as {@link #EXTRA_IMPORTED_COUNT}.
+     */
+    public static final String METHOD_IMPORT = "import";
+    /**
+     * Extra for {@link #METHOD_IMPORT}: the {@link ParcelFileDescriptor} to read from, for example the read side of a pipe.
+     * It is closed when the import is done.
+     */
+    public static final String EXTRA_FILE_DESCRIPTOR = "fileDescriptor";
+    /**
+     * Optional extra for {@link #METHOD_IMPORT}: a {@link ResultReceiver} that receives {@link #RESULT_IMPORT_PROGRESS}
+     * with the {@link #EXTRA_IMPORTED_COUNT} so far after every chunk of imported entities.
+     */
+    public static final String EXTRA_PROGRESS_RECEIVER = "progressReceiver";
+    /**
+     * Result extra of {@link #METHOD_IMPORT}: the number of imported entities
+     */
+    public static final String EXTRA_IMPORTED_COUNT = "importedCount";
+    /**
+     * Result code sent to the {@link #EXTRA_PROGRESS_RECEIVER}
+     */
+    public static final int RESULT_IMPORT_PROGRESS = 1;
+    /**
+     * Method for {@link #call(String, String, Bundle)} that deletes the entities with the ids in {@link #EXTRA_IDS} and
+     * {@link #EXTRA_ID_RANGES}. The argument is the collection uri of the entities. Returns the number of deleted entities
+     * as {@link #EXTRA_AFFECTED_COUNT}.
+     */
+    public static final String METHOD_DELETE_IDS = "deleteIds";
+    /**
+     * Method for {@link #call(String, String, Bundle)} that updates the entities with the ids in {@link #EXTRA_IDS} and
+     * {@link #EXTRA_ID_RANGES} with the {@link #EXTRA_VALUES}. The argument is the collection uri of the entities. Returns
+     * the number of updated entities as {@link #EXTRA_AFFECTED_COUNT}.
+     */
+    public static final String METHOD_UPDATE_IDS = "updateIds";
+    /**
+     * Extra for {@link #METHOD_DELETE_IDS} and {@link #METHOD_UPDATE_IDS}: a long array of ids
+     */
+    public static final String EXTRA_IDS = "ids";
+    /**
+     * Extra for {@link #METHOD_DELETE_IDS} and {@link #METHOD_UPDATE_IDS}: a long array of pairs of the first and last
+     * id of a range, both inclusive
+     */
+    public static final String EXTRA_ID_RANGES = "idRanges";
+    /**
+     * Extra for {@link #METHOD_UPDATE_IDS}: the {@link ContentValues} to update
+     */
+    public static final String EXTRA_VALUES = "values";
+    /**
+     * Result extra of {@link #METHOD_DELETE_IDS} and {@link #METHOD_UPDATE_IDS}: the number of affected entities
+     */
+    public static final String EXTRA_AFFECTED_COUNT = "affectedCount";
+    /**
+     * Method for {@link #call(String, String, Bundle)} that returns the statements in the slow query log as
+     * {@link #EXTRA_SLOW_QUERIES}, see {@link #getSlowQueryThresholdMillis()}. Requires the read permission of the provider.
+     */
+    public static final String METHOD_DUMP_SLOW_QUERIES = "slowQueries";
+    /**
+     * Result extra of {@link #METHOD_DUMP_SLOW_QUERIES}: a human readable summary of the slow statements and their query plans
+     */
+    public static final String EXTRA_SLOW_QUERIES = "slowQueries";
+    /**
+     * Method for {@link #call(String, String, Bundle)} that returns suggested indexes for the queries seen so far as
+     * {@link #EXTRA_INDEX_ADVICE}, see {@link #isIndexAdvisorEnabled()}. Requires the read permission of the provider.
+     */
+    public static final String METHOD_INDEX_ADVICE = "indexAdvice";
+    /**
+     * Result extra of {@link #METHOD_INDEX_ADVICE}: the suggested create index statements, one per line
+     */
+    public static final String EXTRA_INDEX_ADVICE = "indexAdvice";
+    private static final String TAG = "CupboardContentProvider";
     private static final String DEFAULT_DATABASE_NAME = "cupboard.db";
+    /**
+     * Number of rows that are queried at once when exporting
+     */
+    private static final int EXPORT_PAGE_SIZE = 1000;
+    /**
+     * Number of imported entities that are inserted in a single transaction
+     */
+    private static final int IMPORT_CHUNK_SIZE = 500;
+    /**
+     * Maximum number of rows in a query result that is cached
+     */
+    private static final int MAX_CACHED_QUERY_ROWS = 100;
+    /**
+     * Number of statement shapes kept in the slow query log
+     */
+    private static final int SLOW_QUERY_LOG_SIZE = 32;
+    /**
+     * Number of distinct combinations of selection and order columns the index advisor keeps track of
+     */
+    private static final int INDEX_ADVISOR_SIZE = 128;
     private final String mDatabaseName;
     private final int mDatabaseVersion;
     protected Cupboard mCupboard = cupboard();
     protected UriHelper mUriHelper;
+    private final InsertStatementCache mInsertStatements = new InsertStatementCache();
+    private final Set<Class<?>> mIndexedExternalKeys = new HashSet<Class<?>>();
+    private volatile Boolean mNativeUpsertSupported;
+    private QueryCache mQueryCache;
+    private boolean mQueryCacheCreated;
+    private SlowQueryLog mSlowQueryLog;
+    private boolean mSlowQueryLogCreated;
+    private IndexAdvisor mIndexAdvisor;
+    private boolean mIndexAdvisorCreated;
+    private final ConcurrentMap<Class<?>, CountDownLatch> mMigrationLatches = new ConcurrentHashMap<Class<?>, CountDownLatch>();
+    private ExecutorService mMigrationExecutor;
 
     protected CupboardContentProvider(String authority, String databaseName, int databaseVersion) {
         mDatabaseName = databaseName;
@@ -107,24 +280,42 @@ public abstract class CupboardContentProvider extends SQLiteContentProvider {
 
     @Override
     protected Uri insertInTransaction(Uri uri, ContentValues values) {
-        if (mUriHelper.matches(uri)) {
-            Class<?> entityClass = mUriHelper.getMatchedClass(uri);
-            CupboardDatabase db = getWritableDatabase();
-            setExistingId(db, uri, entityClass, values);
-            long id = mCupboard.withDatabase(db).put(entityClass, values);
-            return mUriHelper.isCollection(uri) ? ContentUris.withAppendedId(uri, id) : uri;
+        UriMatch match = mUriHelper.resolve(uri);
+        if (match != null && match.getAggregate() == null) {
+            CupboardProviderDatabase db = getWritableDatabase();
+            Class<?> entityClass = match.getEntityClass();
+            long id;
+            String upsertColumn = match.isCollection() ? getUpsertColumn(entityClass) : null;
+            if (upsertColumn != null) {
+                id = mInsertStatements.upsert(db, mCupboard.getTable(entityClass), upsertColumn, values, isNativeUpsertSupported(db));
+            } else {
+                if (match.isCollection()) {
+                    setExistingId(db, entityClass, values);
+                }
+                id = insert(db, entityClass, values);
+            }
+            return match.isCollection() ? ContentUris.withAppendedId(uri, id) : uri;
         }
         throw new IllegalArgumentException("Unknown uri for insert: " + uri);
     }
 
     @Override
     protected int updateInTransaction(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
-        if (mUriHelper.matches(uri)) {
-            if (mUriHelper.isCollection(uri)) {
-                return mCupboard.withDatabase(getWritableDatabase()).update(mUriHelper.getMatchedClass(uri), values, selection, selectionArgs);
+        UriMatch match = mUriHelper.resolve(uri);
+        if (match != null && match.getAggregate() == null) {
+            if (match.isCollection()) {
+                CupboardDatabase db = getWritableDatabase();
+                long start = System.nanoTime();
+                int count = mCupboard.withDatabase(db).update(match.getEntityClass(), values, selection, selectionArgs);
+                long duration = getSlowDuration(start);
+                if (duration >= 0) {
+                    String table = mCupboard.getTable(match.getEntityClass());
+                    logSlowStatement(db, duration, buildUpdateSql(table, values, selection), buildSelectIdSql(table, selection), selectionArgs);
+                }
+                return count;
             } else {
-                values.put(BaseColumns._ID, ContentUris.parseId(uri));
-                return mCupboard.withDatabase(getWritableDatabase()).update(mUriHelper.getMatchedClass(uri), values);
+                values.put(BaseColumns._ID, match.getId());
+                return mCupboard.withDatabase(getWritableDatabase()).update(match.getEntityClass(), values);
             }
         }
         throw new IllegalArgumentException("Unknown uri for update: " + uri);
@@ -132,11 +323,21 @@ public abstract class CupboardContentProvider extends SQLiteContentProvider {
 
     @Override
     protected int deleteInTransaction(Uri uri, String selection, String[] selectionArgs) {
-        if (mUriHelper.matches(uri)) {
-            if (mUriHelper.isCollection(uri)) {
-                return mCupboard.withDatabase(getWritableDatabase()).delete(mUriHelper.getMatchedClass(uri), selection, selectionArgs);
+        UriMatch match = mUriHelper.resolve(uri);
+        if (match != null && match.getAggregate() == null) {
+            if (match.isCollection()) {
+                CupboardDatabase db = getWritableDatabase();
+                long start = System.nanoTime();
+                int count = mCupboard.withDatabase(db).delete(match.getEntityClass(), selection, selectionArgs);
+                long duration = getSlowDuration(start);
+                if (duration >= 0) {
+                    String table = mCupboard.getTable(match.getEntityClass());
+                    String where = selection != null ? " WHERE " + selection : "";
+                    logSlowStatement(db, duration, "DELETE FROM \"" + table + "\"" + where, buildSelectIdSql(table, selection), selectionArgs);
+                }
+                return count;
             } else {
-                if (mCupboard.withDatabase(getWritableDatabase()).delete(mUriHelper.getMatchedClass(uri), ContentUris.parseId(uri))) {
+                if (mCupboard.withDatabase(getWritableDatabase()).delete(match.getEntityClass(), match.getId())) {
                     return 1;
                 }
                 return 0;
@@ -147,39 +348,404 @@ public abstract class CupboardContentProvider extends SQLiteContentProvider {
 
     @Override
     public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
-        if (mUriHelper.matches(uri)) {
-            if (mUriHelper.isCollection(uri)) {
-                QueryBuilder<?> builder = mCupboard.withDatabase(getWritableDatabase()).query(mUriHelper.getMatchedClass(uri)).
-                        withProjection(projection).
-                        withSelection(selection, selectionArgs).
-                        orderBy(sortOrder);
-                String limit = uri.getQueryParameter(LIMIT_PARAMETER);
-                if (limit != null) {
-                    builder.limit(Integer.parseInt(limit));
-                }
-                String offset = uri.getQueryParameter(OFFSET_PARAMETER);
-                if (offset != null) {
-                    builder.offset(Integer.parseInt(offset));
-                }
-                String distinct = uri.getQueryParameter(DISTINCT_PARAMETER);
-                if ("true".equals(distinct)) {
-                    builder.distinct();
-                }
-                builder.groupBy(uri.getQueryParameter(GROUP_BY_PARAMETER));
-                builder.having(uri.getQueryParameter(HAVING_PARAMETER));
-                return notifyingCursor(uri, builder.getCursor());
-            } else {
-                return notifyingCursor(uri, mCupboard.withDatabase(getWritableDatabase()).query(mUriHelper.getMatchedClass(uri)).byId(ContentUris.parseId(uri)).getCursor());
+        MetricsListener metrics = metrics();
+        if (metrics == null) {
+            return queryInternal(uri, projection, selection, selectionArgs, sortOrder);
+        }
+        long start = System.nanoTime();
+        Cursor cursor = queryInternal(uri, projection, selection, selectionArgs, sortOrder);
+        // the count executes the query, which is otherwise deferred until the cursor is read
+        int rows = cursor != null ? cursor.getCount() : 0;
+        metrics.onOperation(getMetricsKey(uri), MetricsListener.OPERATION_QUERY, System.nanoTime() - start, rows);
+        return cursor;
+    }
+
+    @Override
+    protected String getMetricsKey(Uri uri) {
+        UriMatch match = mUriHelper.resolve(uri);
+        return match != null ? mCupboard.getTable(match.getEntityClass()) : super.getMetricsKey(uri);
+    }
+
+    private Cursor queryInternal(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        UriMatch match = mUriHelper.resolve(uri);
+        if (match != null) {
+            awaitMigration(match.getEntityClass());
+            QueryCache cache = isSeek(match) || inTransaction() ? null : getQueryCache();
+            if (cache == null) {
+                return notifyingCursor(uri, query(match, uri, projection, selection, selectionArgs, sortOrder));
             }
+            String cacheKey = QueryCache.key(uri, projection, selection, selectionArgs, sortOrder);
+            Cursor cursor = cache.get(cacheKey);
+            if (cursor == null) {
+                long generation = cache.getGeneration(match.getEntityClass());
+                cursor = cache.put(cacheKey, match.getEntityClass(), match.getId(), generation,
+                        query(match, uri, projection, selection, selectionArgs, sortOrder));
+            }
+            return notifyingCursor(uri, cursor);
         }
 
         throw new IllegalArgumentException("Unknown uri for query: " + uri);
     }
 
+    private Cursor query(UriMatch match, Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        if (match.getAggregate() != null) {
+            return queryAggregate(match, uri, selection, selectionArgs);
+        } else if (match.isCollection()) {
+            String afterId = match.getQueryParameter(AFTER_ID_PARAMETER);
+            String seekColumn = match.getQueryParameter(SEEK_COLUMN_PARAMETER);
+            boolean seek = isSeek(match);
+            if (seek) {
+                if (sortOrder != null) {
+                    throw new IllegalArgumentException("Keyset pagination can't be combined with a sort order: " + uri);
+                }
+                if (seekColumn != null && !isColumn(match.getEntityClass(), seekColumn)) {
+                    throw new IllegalArgumentException("Unknown seek column " + seekColumn + " for " + uri);
+                }
+                boolean descending = "true".equals(match.getQueryParameter(SEEK_DESCENDING_PARAMETER));
+                sortOrder = getSeekOrder(seekColumn, descending);
+                if (afterId != null) {
+                    String afterValue = match.getQueryParameter(AFTER_VALUE_PARAMETER);
+                    if (seekColumn != null && afterValue == null) {
+                        throw new IllegalArgumentException(AFTER_VALUE_PARAMETER + " is required for " + uri);
+                    }
+                    String seekSelection = getSeekSelection(seekColumn, descending);
+                    selection = selection == null ? seekSelection : "(" + selection + ") AND " + seekSelection;
+                    selectionArgs = appendArgs(selectionArgs, seekColumn == null ? new String[]{afterId} : new String[]{afterValue, afterValue, afterId});
+                }
+            }
+            CupboardDatabase db = getReadableDatabase();
+            QueryBuilder<?> builder = mCupboard.withDatabase(db).query(match.getEntityClass()).
+                    withProjection(projection).
+                    withSelection(selection, selectionArgs).
+                    orderBy(sortOrder);
+            String limit = match.getQueryParameter(LIMIT_PARAMETER);
+            if (limit != null) {
+                builder.limit(Integer.parseInt(limit));
+            }
+            String offset = match.getQueryParameter(OFFSET_PARAMETER);
+            if (offset != null) {
+                builder.offset(Integer.parseInt(offset));
+            }
+            String distinct = match.getQueryParameter(DISTINCT_PARAMETER);
+            if ("true".equals(distinct)) {
+                builder.distinct();
+            }
+            builder.groupBy(match.getQueryParameter(GROUP_BY_PARAMETER));
+            builder.having(match.getQueryParameter(HAVING_PARAMETER));
+            IndexAdvisor advisor = getIndexAdvisor();
+            if (advisor != null) {
+                advisor.record(mCupboard.getTable(match.getEntityClass()), getColumnNames(match.getEntityClass()), selection, sortOrder);
+            }
+            boolean logSlowQuery = getSlowQueryLog() != null;
+            long start = System.nanoTime();
+            Cursor cursor = builder.getCursor();
+            if (logSlowQuery && cursor != null) {
+                // the count executes the query, which is otherwise deferred until the cursor is read
+                cursor.getCount();
+                long duration = getSlowDuration(start);
+                if (duration >= 0) {
+                    String sql = SQLiteQueryBuilder.buildQueryString("true".equals(distinct), mCupboard.getTable(match.getEntityClass()),
+                            projection, selection, match.getQueryParameter(GROUP_BY_PARAMETER), match.getQueryParameter(HAVING_PARAMETER),
+                            sortOrder, limit == null ? null : offset == null ? limit : offset + "," + limit);
+                    logSlowStatement(db, duration, sql, sql, selectionArgs);
+                }
+            }
+            if (seek && limit != null) {
+                cursor = withNextPage(uri, seekColumn, Integer.parseInt(limit), cursor);
+            }
+            return cursor;
+        } else {
+            return mCupboard.withDatabase(getReadableDatabase()).query(match.getEntityClass()).byId(match.getId()).getCursor();
+        }
+    }
+
+    /**
+     * Query a count or aggregate uri as a single row, without materializing the matching rows in a cursor
+     */
+    private Cursor queryAggregate(UriMatch match, Uri uri, String selection, String[] selectionArgs) {
+        String column = match.getAggregateColumn();
+        String expression;
+        if (column == null) {
+            expression = "COUNT(*) AS " + BaseColumns._COUNT;
+        } else {
+            if (!isColumn(match.getEntityClass(), column)) {
+                throw new IllegalArgumentException("Unknown column " + column + " for " + uri);
+            }
+            expression = match.getAggregate().toUpperCase(Locale.US) + "(\"" + column + "\") AS " + AGGREGATE_VALUE_COLUMN;
+        }
+        CupboardDatabase db = getReadableDatabase();
+        String table = mCupboard.getTable(match.getEntityClass());
+        String[] columns = new String[]{expression};
+        boolean logSlowQuery = getSlowQueryLog() != null;
+        long start = System.nanoTime();
+        Cursor cursor = db.query(false, table, columns, selection, selectionArgs, null, null, null, null);
+        if (logSlowQuery && cursor != null) {
+            cursor.getCount();
+            long duration = getSlowDuration(start);
+            if (duration >= 0) {
+                String sql = SQLiteQueryBuilder.buildQueryString(false, table, columns, selection, null, null, null, null);
+                logSlowStatement(db, duration, sql, sql, selectionArgs);
+            }
+        }
+        return cursor;
+    }
+
+    /**
+     * Return the duration from which queries, and updates and deletes on a collection uri, are logged in the slow query
+     * log together with their query plan. The slow query log can be read using {@link #METHOD_DUMP_SLOW_QUERIES}.
+     * Note that when the slow query log is enabled, queries are executed before the cursor is returned, in order to
+     * measure them. The default implementation returns 0 and the slow query log is disabled.
+     *
+     * @return the threshold in milliseconds, or 0 to disable the slow query log
+     */
+    protected int getSlowQueryThresholdMillis() {
+        return 0;
+    }
+
+    /**
+     * @return the number of distinct statements that are kept in the slow query log
+     */
+    protected int getSlowQueryLogSize() {
+        return SLOW_QUERY_LOG_SIZE;
+    }
+
+    private synchronized SlowQueryLog getSlowQueryLog() {
+        if (!mSlowQueryLogCreated) {
+            mSlowQueryLog = getSlowQueryThresholdMillis() > 0 ? new SlowQueryLog(Math.max(1, getSlowQueryLogSize())) : null;
+            mSlowQueryLogCreated = true;
+        }
+        return mSlowQueryLog;
+    }
+
+    /**
+     * @return the duration of a statement if it should be logged as slow, or -1
+     */
+    private long getSlowDuration(long startNanos) {
+        if (getSlowQueryLog() == null) {
+            return -1;
+        }
+        long duration = System.nanoTime() - startNanos;
+        return duration >= getSlowQueryThresholdMillis() * 1000000L ? duration : -1;
+    }
+
+    /**
+     * Log a slow statement, capturing the query plan the first time a statement with the same shape is logged.
+     *
+     * @param sql        the statement
+     * @param explainSql the select statement to explain, which has the same query plan as the statement
+     */
+    private void logSlowStatement(CupboardDatabase db, long durationNanos, String sql, String explainSql, String[] args) {
+        SlowQueryLog log = getSlowQueryLog();
+        if (!log.record(sql, args, durationNanos)) {
+            return;
+        }
+        String plan = explain(db, explainSql, args);
+        log.setPlan(sql, plan);
+        Log.w(TAG, "Slow statement (" + durationNanos / 1000000 + "ms): " + sql + "\n" + plan);
+    }
+
+    private static String explain(CupboardDatabase db, String sql, String[] args) {
+        Cursor cursor = null;
+        try {
+            cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+            int detail = cursor.getColumnIndex("detail");
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detail < 0 ? cursor.getColumnCount() - 1 : detail));
+            }
+            return plan.toString();
+        } catch (RuntimeException e) {
+            return "Query plan not available: " + e.getMessage();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    private static String buildUpdateSql(String table, ContentValues values, String selection) {
+        StringBuilder sql = new StringBuilder(128);
+        sql.append("UPDATE \"").append(table).append("\" SET ");
+        boolean first = true;
+        for (String column : values.keySet()) {
+            if (!first) {
+                sql.append(", ");
+            }
+            sql.append('"').append(column).append("\"=?");
+            first = false;
+        }
+        if (selection != null) {
+            sql.append(" WHERE ").append(selection);
+        }
+        return sql.toString();
+    }
+
+    private static String buildSelectIdSql(String table, String selection) {
+        return "SELECT " + BaseColumns._ID + " FROM \"" + table + "\"" + (selection != null ? " WHERE " + selection : "");
+    }
+
+    private static boolean isSeek(UriMatch match) {
+        return match.isCollection() && (match.getQueryParameter(AFTER_ID_PARAMETER) != null
+                || match.getQueryParameter(SEEK_COLUMN_PARAMETER) != null
+                || match.getQueryParameter(SEEK_DESCENDING_PARAMETER) != null);
+    }
+
+    private static String getSeekOrder(String seekColumn, boolean descending) {
+        String direction = descending ? " DESC" : " ASC";
+        if (seekColumn == null) {
+            return BaseColumns._ID + direction;
+        }
+        return "\"" + seekColumn + "\"" + direction + ", " + BaseColumns._ID + direction;
+    }
+
+    private static String getSeekSelection(String seekColumn, boolean descending) {
+        String operator = descending ? " < ?" : " > ?";
+        if (seekColumn == null) {
+            return BaseColumns._ID + operator;
+        }
+        String column = "\"" + seekColumn + "\"";
+        return "(" + column + operator + " OR (" + column + " = ? AND " + BaseColumns._ID + operator + "))";
+    }
+
+    private static String[] appendArgs(String[] args, String[] extraArgs) {
+        if (args == null || args.length == 0) {
+            return extraArgs;
+        }
+        String[] result = new String[args.length + extraArgs.length];
+        System.arraycopy(args, 0, result, 0, args.length);
+        System.arraycopy(extraArgs, 0, result, args.length, extraArgs.length);
+        return result;
+    }
+
+    /**
+     * Add the {@link #EXTRA_NEXT_PAGE_URI} to a keyset paginated cursor if the page is full.
+     */
+    private static Cursor withNextPage(Uri uri, String seekColumn, int limit, Cursor cursor) {
+        if (cursor == null || cursor.getCount() < limit || !cursor.moveToLast()) {
+            return cursor;
+        }
+        int idIndex = cursor.getColumnIndex(BaseColumns._ID);
+        int seekIndex = seekColumn == null ? -1 : cursor.getColumnIndex(seekColumn);
+        if (idIndex < 0 || (seekColumn != null && (seekIndex < 0 || cursor.isNull(seekIndex)))) {
+            cursor.moveToPosition(-1);
+            return cursor;
+        }
+        Uri.Builder builder = uri.buildUpon().clearQuery();
+        for (String name : uri.getQueryParameterNames()) {
+            if (!AFTER_ID_PARAMETER.equals(name) && !AFTER_VALUE_PARAMETER.equals(name)) {
+                for (String value : uri.getQueryParameters(name)) {
+                    builder.appendQueryParameter(name, value);
+                }
+            }
+        }
+        builder.appendQueryParameter(AFTER_ID_PARAMETER, String.valueOf(cursor.getLong(idIndex)));
+        if (seekColumn != null) {
+            builder.appendQueryParameter(AFTER_VALUE_PARAMETER, cursor.getString(seekIndex));
+        }
+        cursor.moveToPosition(-1);
+        final Bundle extras = new Bundle(1);
+        extras.putString(EXTRA_NEXT_PAGE_URI, builder.build().toString());
+        return new CrossProcessCursorWrapper(cursor) {
+            @Override
+            public Bundle getExtras() {
+                return extras;
+            }
+        };
+    }
+
+    /**
+     * @return the names of the columns of the entity, in the order of its entity converter
+     */
+    private List<String> getColumnNames(Class<?> entityClass) {
+        List<EntityConverter.Column> columns = mCupboard.getEntityConverter(entityClass).getColumns();
+        List<String> names = new ArrayList<String>(columns.size());
+        for (EntityConverter.Column column : columns) {
+            names.add(column.name);
+        }
+        return names;
+    }
+
+    /**
+     * Check if the column is one of the columns of the entity, to guard against arbitrary sql in query parameters.
+     */
+    private boolean isColumn(Class<?> entityClass, String column) {
+        for (EntityConverter.Column entityColumn : mCupboard.getEntityConverter(entityClass).getColumns()) {
+            if (entityColumn.name.equals(column)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Size of the in-memory cache of query results. Results of queries with up to {@link #getMaxCachedQueryRows()} rows
+     * are cached until a change to the queried entity is made through this provider. Cached results are returned as a
+     * copy in a {@link android.database.MatrixCursor}. Changes that are made to the database directly, bypassing the provider,
+     * are not detected.
+     *
+     * @return the maximum size of the cache in bytes, or 0 to disable the cache. 0 by default.
+     */
+    protected int getQueryCacheSizeBytes() {
+        return 0;
+    }
+
+    /**
+     * @return the maximum number of rows of a query result to be cached
+     * @see #getQueryCacheSizeBytes()
+     */
+    protected int getMaxCachedQueryRows() {
+        return MAX_CACHED_QUERY_ROWS;
+    }
+
+    private synchronized QueryCache getQueryCache() {
+        if (!mQueryCacheCreated) {
+            int size = getQueryCacheSizeBytes();
+            mQueryCache = size > 0 ? new QueryCache(size, getMaxCachedQueryRows()) : null;
+            mQueryCacheCreated = true;
+        }
+        return mQueryCache;
+    }
+
+    /**
+     * Invalidates the cached query results of the changed entities
+     */
+    @Override
+    protected void onChanged(List<Uri> changedUris) {
+        super.onChanged(changedUris);
+        QueryCache cache = getQueryCache();
+        if (cache == null) {
+            return;
+        }
+        if (changedUris.isEmpty()) {
+            cache.invalidateAll();
+            return;
+        }
+        for (Uri changedUri : changedUris) {
+            UriMatch match = mUriHelper.resolve(changedUri);
+            if (match == null) {
+                cache.invalidateAll();
+                return;
+            }
+            cache.invalidate(match.getEntityClass(), match.getId());
+        }
+    }
+
+    /**
+     * Set the notification uri on the cursor, unless the {@link #NOTIFY_PARAMETER} is set to "false". Cursors for a collection
+     * are notified of changes to any entity of the matched class, cursors for a single entity are notified of changes to that entity
+     * or the collection as a whole.
+     *
+     * @param uri    the uri that was queried
+     * @param cursor the cursor
+     * @return the cursor
+     */
     protected Cursor notifyingCursor(Uri uri, Cursor cursor) {
-        if (cursor != null && !"false".equals(uri.getQueryParameter(NOTIFY_PARAMETER))) {
-            Class<?> clz = mUriHelper.getMatchedClass(uri);
-            cursor.setNotificationUri(getContext().getContentResolver(), mUriHelper.getUri(clz));
+        UriMatch match = mUriHelper.resolve(uri);
+        if (cursor != null && match != null && !"false".equals(match.getQueryParameter(NOTIFY_PARAMETER))) {
+            cursor.setNotificationUri(getContext().getContentResolver(), match.getNotificationUri());
         }
         return cursor;
     }
@@ -189,17 +755,564 @@ public abstract class CupboardContentProvider extends SQLiteContentProvider {
         return null;
     }
 
+    /**
+     * Opening a collection uri for reading streams all entities of the collection through a pipe, as newline delimited
+     * JSON with an object for each row. Entities are queried in pages ordered by _id, so memory use is constant regardless
+     * of the number of entities. Note that pages are queried in separate transactions, changes that are made during the
+     * export may or may not be included.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        UriMatch match = mUriHelper.resolve(uri);
+        if (match == null || !match.isCollection() || match.getAggregate() != null) {
+            return super.openFile(uri, mode);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Entities can only be opened for reading: " + uri);
+        }
+        return openPipeHelper(uri, NdJson.MIME_TYPE, null, match.getEntityClass(), new PipeDataWriter<Class<?>>() {
+            @Override
+            public void writeDataToPipe(ParcelFileDescriptor output, Uri uri, String mimeType, Bundle opts, Class<?> entityClass) {
+                Writer writer = null;
+                try {
+                    writer = new BufferedWriter(new OutputStreamWriter(new ParcelFileDescriptor.AutoCloseOutputStream(output), "UTF-8"));
+                    export(entityClass, writer);
+                    writer.flush();
+                } catch (IOException e) {
+                    Log.w(TAG, "Export of " + uri + " failed", e);
+                } finally {
+                    try {
+                        if (writer != null) {
+                            writer.close();
+                        } else {
+                            output.close();
+                        }
+                    } catch (IOException e) {
+                        // ignored
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the number of imported entities that are inserted at once using {@link #bulkInsert(Uri, ContentValues[])}
+     * @see #METHOD_IMPORT
+     */
+    protected int getImportChunkSize() {
+        return IMPORT_CHUNK_SIZE;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (METHOD_IMPORT.equals(method)) {
+            enforceWritePermission();
+            return importEntities(arg, extras);
+        } else if (METHOD_DELETE_IDS.equals(method) || METHOD_UPDATE_IDS.equals(method)) {
+            enforceWritePermission();
+            return applyToIds(METHOD_UPDATE_IDS.equals(method), arg, extras);
+        } else if (METHOD_INDEX_ADVICE.equals(method)) {
+            enforceReadPermission();
+            IndexAdvisor advisor = getIndexAdvisor();
+            if (advisor == null) {
+                return null;
+            }
+            Bundle result = new Bundle(1);
+            result.putString(EXTRA_INDEX_ADVICE, advisor.advise(getReadableDatabase()));
+            return result;
+        } else if (METHOD_DUMP_SLOW_QUERIES.equals(method)) {
+            enforceReadPermission();
+            SlowQueryLog log = getSlowQueryLog();
+            if (log == null) {
+                return null;
+            }
+            Bundle result = new Bundle(1);
+            result.putString(EXTRA_SLOW_QUERIES, log.dump());
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    private UriMatch resolveCollectionUri(String arg, String operation) {
+        Uri uri = arg != null ? Uri.parse(arg) : null;
+        UriMatch match = uri != null ? mUriHelper.resolve(uri) : null;
+        if (match == null || !match.isCollection() || match.getAggregate() != null) {
+            throw new IllegalArgumentException("Unknown uri for " + operation + ": " + uri);
+        }
+        return match;
+    }
+
+    /**
+     * Delete or update a set of ids using a statement per chunk of ids, all in a single batch so that the changes are
+     * committed in one transaction and notified once.
+     */
+    private Bundle applyToIds(boolean update, String arg, Bundle extras) {
+        UriMatch match = resolveCollectionUri(arg, update ? "update" : "delete");
+        if (extras == null) {
+            throw new IllegalArgumentException("Missing " + EXTRA_IDS + " or " + EXTRA_ID_RANGES);
+        }
+        ContentValues values = update ? extras.<ContentValues>getParcelable(EXTRA_VALUES) : null;
+        if (update && (values == null || values.size() == 0)) {
+            throw new IllegalArgumentException("Missing " + EXTRA_VALUES + " for update");
+        }
+        List<IdSelection> selections = IdSelection.build(extras.getLongArray(EXTRA_IDS), extras.getLongArray(EXTRA_ID_RANGES),
+                getMaxVariablesPerStatement());
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>(selections.size());
+        for (IdSelection selection : selections) {
+            ContentProviderOperation.Builder builder = update ? ContentProviderOperation.newUpdate(match.getEntityUri()).withValues(values) :
+                    ContentProviderOperation.newDelete(match.getEntityUri());
+            operations.add(builder.withSelection(selection.mSelection, selection.mSelectionArgs).build());
+        }
+        int count = 0;
+        if (!operations.isEmpty()) {
+            try {
+                for (ContentProviderResult result : applyBatch(operations)) {
+                    count += result.count;
+                }
+            } catch (OperationApplicationException e) {
+                throw new IllegalArgumentException("Too many ids: " + e.getMessage());
+            }
+        }
+        Bundle result = new Bundle(1);
+        result.putInt(EXTRA_AFFECTED_COUNT, count);
+        return result;
+    }
+
+    /**
+     * Import entities from a stream of newline delimited JSON. Entities are parsed as they are read and inserted in chunks of
+     * {@link #getImportChunkSize()} using {@link #bulkInsert(Uri, ContentValues[])}, each chunk in its own transaction.
+     * The writing side of the stream is blocked while a chunk is inserted. Notifications are suspended until the import is done.
+     * If the import fails, the chunks that were inserted before the failure are kept.
+     */
+    private Bundle importEntities(String arg, Bundle extras) {
+        UriMatch match = resolveCollectionUri(arg, "import");
+        ParcelFileDescriptor fd = extras != null ? extras.<ParcelFileDescriptor>getParcelable(EXTRA_FILE_DESCRIPTOR) : null;
+        if (fd == null) {
+            throw new IllegalArgumentException("Missing " + EXTRA_FILE_DESCRIPTOR + " for import");
+        }
+        ResultReceiver progress = extras.getParcelable(EXTRA_PROGRESS_RECEIVER);
+        Map<String, EntityConverter.ColumnType> columns = new HashMap<String, EntityConverter.ColumnType>();
+        for (EntityConverter.Column column : mCupboard.getEntityConverter(match.getEntityClass()).getColumns()) {
+            columns.put(column.name, column.type);
+        }
+        int imported = 0;
+        JsonReader reader = null;
+        suspendNotifications();
+        try {
+            reader = new JsonReader(new BufferedReader(new InputStreamReader(new ParcelFileDescriptor.AutoCloseInputStream(fd), "UTF-8")));
+            reader.setLenient(true);
+            ContentValues[] chunk = new ContentValues[Math.max(1, getImportChunkSize())];
+            int count = 0;
+            ContentValues values = new ContentValues();
+            while (NdJson.readRow(reader, columns, values)) {
+                chunk[count++] = values;
+                values = new ContentValues();
+                if (count == chunk.length) {
+                    imported += bulkInsert(match.getEntityUri(), chunk);
+                    count = 0;
+                    sendImportProgress(progress, imported);
+                }
+            }
+            if (count > 0) {
+                imported += bulkInsert(match.getEntityUri(), Arrays.copyOf(chunk, count));
+                sendImportProgress(progress, imported);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Import in " + match.getEntityUri() + " failed after " + imported + " entities: " + e.getMessage());
+        } finally {
+            try {
+                if (reader != null) {
+                    reader.close();
+                } else {
+                    fd.close();
+                }
+            } catch (IOException e) {
+                // ignored
+            }
+            resumeNotifications();
+        }
+        Bundle result = new Bundle(1);
+        result.putInt(EXTRA_IMPORTED_COUNT, imported);
+        return result;
+    }
+
+    private static void sendImportProgress(ResultReceiver receiver, int imported) {
+        if (receiver != null) {
+            Bundle progress = new Bundle(1);
+            progress.putInt(EXTRA_IMPORTED_COUNT, imported);
+            receiver.send(RESULT_IMPORT_PROGRESS, progress);
+        }
+    }
+
+    /**
+     * Write all entities of a class as newline delimited JSON
+     *
+     * @param entityClass the entity class
+     * @param writer      the writer
+     * @throws IOException if writing fails
+     */
+    protected void export(Class<?> entityClass, Writer writer) throws IOException {
+        awaitMigration(entityClass);
+        long lastId = Long.MIN_VALUE;
+        String[] columns = null;
+        int idIndex = -1;
+        int rows = EXPORT_PAGE_SIZE;
+        while (rows == EXPORT_PAGE_SIZE) {
+            Cursor cursor = mCupboard.withDatabase(getReadableDatabase()).query(entityClass).
+                    withSelection(BaseColumns._ID + " > ?", String.valueOf(lastId)).
+                    orderBy(BaseColumns._ID).
+                    limit(EXPORT_PAGE_SIZE).
+                    getCursor();
+            try {
+                if (columns == null) {
+                    columns = cursor.getColumnNames();
+                    idIndex = cursor.getColumnIndexOrThrow(BaseColumns._ID);
+                }
+                rows = 0;
+                while (cursor.moveToNext()) {
+                    NdJson.writeRow(writer, columns, cursor);
+                    lastId = cursor.getLong(idIndex);
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Notifies the base uri, which will notify all cursors returned by this provider.
+     */
     @Override
     protected void notifyChange(boolean syncToNetwork) {
         getContext().getContentResolver().notifyChange(mUriHelper.getBaseUri(), null, syncToNetwork);
     }
 
-    private void setExistingId(CupboardDatabase db, Uri uri, Class<?> entityClass, ContentValues contentValues) {
-        if (mUriHelper.isCollection(uri)) {
-            setExistingId(db, entityClass, contentValues);
+    /**
+     * Insert or replace the values using a cached compiled statement for the entity and the set of columns in the values.
+     */
+    private long insert(CupboardProviderDatabase db, Class<?> entityClass, ContentValues values) {
+        return mInsertStatements.insert(db, mCupboard.getTable(entityClass), values);
+    }
+
+    /**
+     * Inserts a batch of rows for a collection uri with multi-row insert statements, or upserts them if an {@link #getUpsertColumn(Class) upsert column}
+     * is set. Note that {@link #setExistingIds(CupboardDatabase, Class, ContentValues[], int, int)}
+     * is called for all rows in the batch before any of them is inserted. When an {@link #getExternalKeyColumn(Class) external key column}
+     * is set, rows with a new external key that occurs more than once in the batch are inserted in order, so that the later
+     * rows replace the earlier ones.
+     */
+    @Override
+    protected int bulkInsertInTransaction(Uri uri, ContentValues[] values, int offset, int count) {
+        UriMatch match = mUriHelper.resolve(uri);
+        if (match != null && match.isCollection() && match.getAggregate() == null) {
+            Class<?> entityClass = match.getEntityClass();
+            CupboardProviderDatabase db = getWritableDatabase();
+            String table = mCupboard.getTable(entityClass);
+            String upsertColumn = getUpsertColumn(entityClass);
+            if (upsertColumn != null) {
+                mInsertStatements.upsert(db, table, upsertColumn, values, offset, count, getMaxVariablesPerStatement(), isNativeUpsertSupported(db));
+                return count;
+            }
+            String keyColumn = getExternalKeyColumn(entityClass);
+            int end = offset + count;
+            int start = offset;
+            while (start < end) {
+                setExistingIds(db, entityClass, values, start, end - start);
+                int next = keyColumn == null ? end : ExternalKeys.findRepeatedKey(values, start, end - start, keyColumn);
+                mInsertStatements.insert(db, table, values, start, next - start, getMaxVariablesPerStatement());
+                start = next;
+            }
+            return count;
+        }
+        return super.bulkInsertInTransaction(uri, values, offset, count);
+    }
+
+    @Override
+    protected void onDatabaseOpened(CupboardProviderDatabase db) {
+        super.onDatabaseOpened(db);
+        mInsertStatements.clear();
+        QueryCache cache = getQueryCache();
+        if (cache != null) {
+            cache.invalidateAll();
+        }
+        synchronized (mIndexedExternalKeys) {
+            mIndexedExternalKeys.clear();
+        }
+        mNativeUpsertSupported = null;
+        IndexAdvisor advisor = getIndexAdvisor();
+        if (advisor != null) {
+            // the indexes may have changed, collect the usage of the new schema
+            advisor.clear();
+        }
+        SlowQueryLog slowQueryLog = getSlowQueryLog();
+        if (slowQueryLog != null) {
+            // the logged plans are those of the previous schema
+            slowQueryLog.clear();
+        }
+        syncIndexes(db);
+        scheduleMigrations(db);
+    }
+
+    /**
+     * Declare the entities that are inserted first after the provider starts. When {@link #isPrewarmEnabled() pre-warming},
+     * the statements that insert new rows of these entities are compiled ahead of time. The default implementation returns
+     * an empty list.
+     *
+     * @return the entity classes
+     */
+    protected List<Class<?>> getPrewarmEntities() {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Compiles the insert statements of the {@link #getPrewarmEntities() pre-warm entities}
+     */
+    @Override
+    protected void onPrewarm(CupboardProviderDatabase db) {
+        super.onPrewarm(db);
+        for (Class<?> entityClass : getPrewarmEntities()) {
+            List<String> columns = getColumnNames(entityClass);
+            columns.remove(BaseColumns._ID);
+            mInsertStatements.prepareInsert(db, mCupboard.getTable(entityClass), columns.toArray(new String[columns.size()]));
+        }
+    }
+
+    /**
+     * Waits for the migrations of the entity of the uri, see {@link #getMigrations()}
+     */
+    @Override
+    protected void beforeWrite(Uri uri) {
+        super.beforeWrite(uri);
+        UriMatch match = mUriHelper.resolve(uri);
+        if (match != null) {
+            awaitMigration(match.getEntityClass());
         }
     }
 
+    /**
+     * Declare the data migrations of the entities of this provider. Schema changes are still made by
+     * {@link #onUpgradeDatabase(SQLiteDatabase, int, int)}, which is fast for adding tables and columns. Migrations are
+     * meant for the slow part of an upgrade that touches every row, like filling a new column.
+     * <p/>
+     * When the database is opened, migrations that haven't completed yet are run in chunks on a background thread.
+     * Queries and writes on an entity that is being migrated wait for the migrations of that entity, other entities are
+     * available right away. If a migration fails, it's logged and resumed the next time the database is opened.
+     * The default implementation returns an empty list.
+     *
+     * @return the migrations
+     */
+    protected List<Migration> getMigrations() {
+        return Collections.emptyList();
+    }
+
+    private String getMigrationName(Migration migration) {
+        return mCupboard.getTable(migration.getEntityClass()) + "_" + migration.getVersion();
+    }
+
+    private void scheduleMigrations(CupboardDatabase db) {
+        List<Migration> migrations = getMigrations();
+        if (migrations.isEmpty()) {
+            return;
+        }
+        MigrationRunner.createTable(db);
+        Set<String> done = new HashSet<String>();
+        final Map<String, String> tokens = MigrationRunner.loadProgress(db, done);
+        Map<Class<?>, List<Migration>> pending = new LinkedHashMap<Class<?>, List<Migration>>();
+        Set<String> names = new HashSet<String>();
+        for (Migration migration : migrations) {
+            String name = getMigrationName(migration);
+            if (!names.add(name)) {
+                throw new IllegalArgumentException("Duplicate migration " + name);
+            }
+            if (migration.getVersion() > mDatabaseVersion || done.contains(name)) {
+                continue;
+            }
+            List<Migration> entityMigrations = pending.get(migration.getEntityClass());
+            if (entityMigrations == null) {
+                entityMigrations = new ArrayList<Migration>(1);
+                pending.put(migration.getEntityClass(), entityMigrations);
+            }
+            entityMigrations.add(migration);
+        }
+        for (Map.Entry<Class<?>, List<Migration>> entry : pending.entrySet()) {
+            final Class<?> entityClass = entry.getKey();
+            final List<Migration> entityMigrations = entry.getValue();
+            final CountDownLatch latch = new CountDownLatch(1);
+            if (mMigrationLatches.putIfAbsent(entityClass, latch) != null) {
+                // still running since the database was opened before
+                continue;
+            }
+            Collections.sort(entityMigrations, new Comparator<Migration>() {
+                @Override
+                public int compare(Migration lhs, Migration rhs) {
+                    return lhs.getVersion() < rhs.getVersion() ? -1 : (lhs.getVersion() == rhs.getVersion() ? 0 : 1);
+                }
+            });
+            getMigrationExecutor().execute(new Runnable() {
+                @Override
+                public void run() {
+                    migrate(entityClass, entityMigrations, tokens, latch);
+                }
+            });
+        }
+    }
+
+    private void migrate(Class<?> entityClass, List<Migration> migrations, Map<String, String> tokens, CountDownLatch latch) {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        try {
+            for (Migration migration : migrations) {
+                String name = getMigrationName(migration);
+                long start = System.nanoTime();
+                int chunks = MigrationRunner.run(getWritableDatabase(), name, migration, tokens.get(name));
+                Log.i(TAG, "Migrated " + name + " in " + chunks + " chunks, " + (System.nanoTime() - start) / 1000000 + "ms");
+            }
+        } catch (RuntimeException e) {
+            Log.e(TAG, "Migration of " + entityClass.getName() + " failed, it will be resumed when the database is opened again", e);
+        } finally {
+            mMigrationLatches.remove(entityClass);
+            latch.countDown();
+            QueryCache cache = getQueryCache();
+            if (cache != null) {
+                cache.invalidate(entityClass, UriMatch.NO_ID);
+            }
+            notifyChange(mUriHelper.getUri(entityClass), false);
+        }
+    }
+
+    private synchronized ExecutorService getMigrationExecutor() {
+        if (mMigrationExecutor == null) {
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable runnable) {
+                            return new Thread(runnable, "CupboardMigrations");
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            mMigrationExecutor = executor;
+        }
+        return mMigrationExecutor;
+    }
+
+    /**
+     * Wait until the migrations of an entity are done. The database is opened first, so that migrations are scheduled.
+     */
+    private void awaitMigration(Class<?> entityClass) {
+        getWritableDatabase();
+        CountDownLatch latch = mMigrationLatches.get(entityClass);
+        if (latch == null) {
+            return;
+        }
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the migration of " + entityClass.getName());
+        }
+    }
+
+    /**
+     * Declare the secondary indexes of the entities of this provider. When the database is opened, declared indexes that
+     * don't exist are created and indexes that were declared before, but are no longer declared or have changed, are dropped.
+     * Indexes that weren't declared using this method are left alone. The default implementation returns an empty list.
+     *
+     * @return the declared indexes
+     * @see EntityIndex#on(Class)
+     */
+    protected List<EntityIndex> getIndexes() {
+        return Collections.emptyList();
+    }
+
+    private void syncIndexes(CupboardDatabase db) {
+        Map<String, String> declared = new HashMap<String, String>();
+        for (EntityIndex index : getIndexes()) {
+            Class<?> entityClass = index.getEntityClass();
+            for (String column : index.getColumns()) {
+                if (!isColumn(entityClass, column)) {
+                    throw new IllegalArgumentException("Unknown column " + column + " for index on " + entityClass.getName());
+                }
+            }
+            String table = mCupboard.getTable(entityClass);
+            String name = index.getName(table);
+            if (declared.put(name, index.getCreateSql(table)) != null) {
+                throw new IllegalArgumentException("Duplicate index " + name + ", use EntityIndex.Builder.name() to name indexes on the same columns");
+            }
+        }
+        IndexManager.sync(db, declared);
+    }
+
+    /**
+     * Return true to record the columns used in the selection and sort order of queries on collection uris, in order to
+     * suggest indexes using {@link #METHOD_INDEX_ADVICE}. Meant for development builds, the default implementation returns false.
+     *
+     * @return true if the index advisor is enabled
+     */
+    protected boolean isIndexAdvisorEnabled() {
+        return false;
+    }
+
+    private synchronized IndexAdvisor getIndexAdvisor() {
+        if (!mIndexAdvisorCreated) {
+            mIndexAdvisor = isIndexAdvisorEnabled() ? new IndexAdvisor(INDEX_ADVISOR_SIZE) : null;
+            mIndexAdvisorCreated = true;
+        }
+        return mIndexAdvisor;
+    }
+
+    /**
+     * Get the column that inserts on the collection uri of an entity are upserted on. Instead of inserting a new row, the
+     * existing row with the same value in this column is updated in place. Unlike a replace, this keeps the row and
+     * doesn't trigger deletes. When set, {@link #setExistingId(CupboardDatabase, Class, ContentValues)} is not called
+     * for the entity.
+     * <p/>
+     * On SQLite 3.24 and later, this uses INSERT ... ON CONFLICT DO UPDATE, which requires a unique index on the column.
+     * On older versions an update is tried first and the values are inserted if no row was updated.
+     *
+     * @param entityClass the entity class
+     * @return the column to upsert on, or null to insert. Null by default.
+     */
+    protected String getUpsertColumn(Class<?> entityClass) {
+        return null;
+    }
+
+    private boolean isNativeUpsertSupported(CupboardDatabase db) {
+        Boolean supported = mNativeUpsertSupported;
+        if (supported == null) {
+            Cursor cursor = db.rawQuery("SELECT sqlite_version()", null);
+            try {
+                supported = cursor.moveToFirst() && InsertStatementCache.isUpsertSupported(cursor.getString(0));
+            } finally {
+                cursor.close();
+            }
+            mNativeUpsertSupported = supported;
+        }
+        return supported;
+    }
+
+    /**
+     * Get the column that contains the external key of an entity. When set, inserts on the collection uri will replace the
+     * existing entity with the same external key, which is looked up for a batch of values at once in {@link #bulkInsert(Uri, ContentValues[])}
+     * when {@link #isBulkInsertBatchingEnabled()} returns true.
+     *
+     * @param entityClass the entity class
+     * @return the external key column, or null if the entity has no external key. Null by default.
+     */
+    protected String getExternalKeyColumn(Class<?> entityClass) {
+        return null;
+    }
+
+    /**
+     * Whether an index should be created on the {@link #getExternalKeyColumn(Class) external key column} of an entity to
+     * speed up the lookup of existing ids. The index is created when the first entity is inserted.
+     *
+     * @param entityClass the entity class
+     * @return true to create an index, false by default
+     */
+    protected boolean shouldIndexExternalKey(Class<?> entityClass) {
+        return false;
+    }
+
     /**
      * Set the existing id based on the entity class and content values. This is useful if the entity has an external key that isn't
      * the same as the entity _id field. This is not triggered for inserts on uri's that contain the id for obvious reasons.
@@ -209,6 +1322,39 @@ public abstract class CupboardContentProvider extends SQLiteContentProvider {
      * @param contentValues the content values for the entity to be inserted.
      */
     protected void setExistingId(CupboardDatabase db, Class<?> entityClass, ContentValues contentValues) {
+        if (getExternalKeyColumn(entityClass) != null) {
+            setExistingIds(db, entityClass, new ContentValues[]{contentValues}, 0, 1);
+        }
+    }
+
+    /**
+     * Set the existing ids for a batch of content values that are about to be inserted. When an {@link #getExternalKeyColumn(Class) external key column}
+     * is set, the ids are looked up with a single query per {@link #getMaxVariablesPerStatement()} keys, otherwise
+     * {@link #setExistingId(CupboardDatabase, Class, ContentValues)} is called for each of the values.
+     *
+     * @param db          the database to match the ids
+     * @param entityClass the entity class
+     * @param values      the content values
+     * @param offset      the index of the first content values to resolve
+     * @param count       the number of content values to resolve
+     */
+    protected void setExistingIds(CupboardDatabase db, Class<?> entityClass, ContentValues[] values, int offset, int count) {
+        String keyColumn = getExternalKeyColumn(entityClass);
+        if (keyColumn == null) {
+            for (int i = offset; i < offset + count; i++) {
+                setExistingId(db, entityClass, values[i]);
+            }
+            return;
+        }
+        String table = mCupboard.getTable(entityClass);
+        if (shouldIndexExternalKey(entityClass)) {
+            synchronized (mIndexedExternalKeys) {
+                if (mIndexedExternalKeys.add(entityClass)) {
+                    ExternalKeys.createIndex(db, table, keyColumn);
+                }
+            }
+        }
+        ExternalKeys.resolve(db, table, keyColumn, values, offset, count, getMaxVariablesPerStatement());
     }
 
     private class DatabaseHelper extends SQLiteOpenHelper {
@@ -0,0 +1,203 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Declaration of a secondary index on the table of an entity, see {@link CupboardContentProvider#getIndexes()}.
+ * Indexes are declared using a builder:
+ * <pre>
+ * EntityIndex.on(Cheese.class).column("origin").descending("age").build();
+ * </pre>
+ * Composite indexes have multiple columns, partial indexes have a {@link Builder#where(String)} clause (SQLite 3.8.0+) and
+ * covering indexes {@link Builder#include(String...) include} the other columns a query reads after the key columns.
+ */
+public final class EntityIndex {
+    /**
+     * Prefix of the names of declared indexes. Indexes with this prefix that are no longer declared are dropped.
+     */
+    static final String NAME_PREFIX = ExternalKeys.INDEX_PREFIX + "idx_";
+
+    private final Class<?> mEntityClass;
+    private final List<String> mColumns;
+    private final List<Boolean> mDescending;
+    private final boolean mUnique;
+    private final String mWhere;
+    private final String mName;
+
+    private EntityIndex(Builder builder) {
+        mEntityClass = builder.mEntityClass;
+        mColumns = Collections.unmodifiableList(new ArrayList<String>(builder.mColumns));
+        mDescending = new ArrayList<Boolean>(builder.mDescending);
+        mUnique = builder.mUnique;
+        mWhere = builder.mWhere;
+        mName = builder.mName;
+    }
+
+    /**
+     * Start declaring an index
+     *
+     * @param entityClass the entity class to index
+     * @return the builder
+     */
+    public static Builder on(Class<?> entityClass) {
+        return new Builder(entityClass);
+    }
+
+    public Class<?> getEntityClass() {
+        return mEntityClass;
+    }
+
+    /**
+     * @return the indexed columns, in order
+     */
+    public List<String> getColumns() {
+        return mColumns;
+    }
+
+    /**
+     * Get the name of the index, which is the declared name or the table and columns, prefixed with {@link #NAME_PREFIX}
+     *
+     * @param table the table of the entity
+     * @return the name of the index
+     */
+    String getName(String table) {
+        if (mName != null) {
+            return NAME_PREFIX + mName;
+        }
+        StringBuilder sb = new StringBuilder(NAME_PREFIX).append(table);
+        for (String column : mColumns) {
+            sb.append('_').append(column);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Build the statement that creates this index. The statement is in the form that SQLite stores in sqlite_master, so
+     * that it can be compared to the existing index.
+     *
+     * @param table the table of the entity
+     * @return the create statement
+     */
+    String getCreateSql(String table) {
+        StringBuilder sql = new StringBuilder(64);
+        sql.append(mUnique ? "CREATE UNIQUE INDEX " : "CREATE INDEX ");
+        InsertStatementCache.appendQuoted(sql, getName(table));
+        sql.append(" ON ");
+        InsertStatementCache.appendQuoted(sql, table);
+        sql.append(" (");
+        for (int i = 0; i < mColumns.size(); i++) {
+            if (i > 0) {
+                sql.append(", ");
+            }
+            InsertStatementCache.appendQuoted(sql, mColumns.get(i));
+            if (mDescending.get(i)) {
+                sql.append(" DESC");
+            }
+        }
+        sql.append(')');
+        if (mWhere != null) {
+            sql.append(" WHERE ").append(mWhere);
+        }
+        return sql.toString();
+    }
+
+    public static class Builder {
+        private final Class<?> mEntityClass;
+        private final List<String> mColumns = new ArrayList<String>();
+        private final List<Boolean> mDescending = new ArrayList<Boolean>();
+        private boolean mUnique;
+        private boolean mIncludes;
+        private String mWhere;
+        private String mName;
+
+        private Builder(Class<?> entityClass) {
+            mEntityClass = entityClass;
+        }
+
+        /**
+         * Add a column to the index in ascending order
+         */
+        public Builder column(String column) {
+            mColumns.add(column);
+            mDescending.add(false);
+            return this;
+        }
+
+        /**
+         * Add a column to the index in descending order
+         */
+        public Builder descending(String column) {
+            mColumns.add(column);
+            mDescending.add(true);
+            return this;
+        }
+
+        /**
+         * Add columns after the key columns so that queries that only read these columns don't need to read the table.
+         * SQLite has no separate included columns, so these are part of the key. That's why a unique index can't include
+         * columns: uniqueness would apply to the combination of the key and the included columns.
+         */
+        public Builder include(String... columns) {
+            for (String column : columns) {
+                column(column);
+            }
+            mIncludes = true;
+            return this;
+        }
+
+        /**
+         * Make this a unique index. A unique index can't {@link #include(String...) include} columns.
+         */
+        public Builder unique() {
+            mUnique = true;
+            return this;
+        }
+
+        /**
+         * Make this a partial index that only contains the rows matching the expression. Partial indexes require
+         * SQLite 3.8.0 (Android 5.0) or later.
+         *
+         * @param expression the expression, without arguments
+         */
+        public Builder where(String expression) {
+            mWhere = expression;
+            return this;
+        }
+
+        /**
+         * Set the name of the index, required when there are multiple indexes on the same columns of an entity.
+         */
+        public Builder name(String name) {
+            mName = name;
+            return this;
+        }
+
+        public EntityIndex build() {
+            if (mColumns.isEmpty()) {
+                throw new IllegalStateException("An index needs at least one column");
+            }
+            if (mUnique && mIncludes) {
+                throw new IllegalStateException("A unique index can't include columns, they would be part of the unique key");
+            }
+            return new EntityIndex(this);
+        }
+    }
+}
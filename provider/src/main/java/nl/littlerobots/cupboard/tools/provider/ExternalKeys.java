@@ -0,0 +1,161 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.provider.BaseColumns;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import nl.qbusict.cupboard.CupboardDatabase;
+
+/**
+ * Resolves the existing ids of rows that are identified by an external key column, using a single query for a range of
+ * values instead of a query per row.
+ */
+final class ExternalKeys {
+    /**
+     * Prefix of the names of indexes that are created by cupboard-tools
+     */
+    static final String INDEX_PREFIX = "cupboard_tools_";
+
+    private ExternalKeys() {
+    }
+
+    /**
+     * Set the {@link BaseColumns#_ID} of each of the values that doesn't have an id yet to the id of the existing row
+     * with the same external key, if any.
+     *
+     * @param db           the database
+     * @param table        the table
+     * @param keyColumn    the external key column
+     * @param values       the values
+     * @param offset       the index of the first value
+     * @param count        the number of values
+     * @param maxVariables the maximum number of bound variables per query
+     */
+    static void resolve(CupboardDatabase db, String table, String keyColumn, ContentValues[] values, int offset, int count, int maxVariables) {
+        Map<String, List<ContentValues>> unresolved = new HashMap<String, List<ContentValues>>(count * 2);
+        for (int i = offset; i < offset + count; i++) {
+            ContentValues row = values[i];
+            Object key = row.get(keyColumn);
+            if (key == null || row.get(BaseColumns._ID) != null) {
+                continue;
+            }
+            String keyString = key.toString();
+            List<ContentValues> rows = unresolved.get(keyString);
+            if (rows == null) {
+                rows = new ArrayList<ContentValues>(1);
+                unresolved.put(keyString, rows);
+            }
+            rows.add(row);
+        }
+        if (unresolved.isEmpty()) {
+            return;
+        }
+        int chunkSize = Math.max(1, maxVariables);
+        String[] args = new String[Math.min(chunkSize, unresolved.size())];
+        int argCount = 0;
+        Iterator<String> keys = unresolved.keySet().iterator();
+        while (keys.hasNext()) {
+            args[argCount++] = keys.next();
+            if (argCount == args.length || !keys.hasNext()) {
+                if (argCount < args.length) {
+                    String[] lastArgs = new String[argCount];
+                    System.arraycopy(args, 0, lastArgs, 0, argCount);
+                    args = lastArgs;
+                }
+                Cursor cursor = db.rawQuery(buildLookupSql(table, keyColumn, argCount), args);
+                try {
+                    while (cursor.moveToNext()) {
+                        if (cursor.isNull(1)) {
+                            continue;
+                        }
+                        List<ContentValues> rows = unresolved.get(cursor.getString(1));
+                        if (rows != null) {
+                            long id = cursor.getLong(0);
+                            for (ContentValues row : rows) {
+                                row.put(BaseColumns._ID, id);
+                            }
+                        }
+                    }
+                } finally {
+                    cursor.close();
+                }
+                argCount = 0;
+            }
+        }
+    }
+
+    /**
+     * Find the first value that has the same external key as an earlier value in the range, while neither has an id.
+     * Rows up to that value can be inserted at once, after which the value needs to be resolved again to update the
+     * row that was just inserted.
+     *
+     * @return the index of the value, or offset + count if there is none
+     */
+    static int findRepeatedKey(ContentValues[] values, int offset, int count, String keyColumn) {
+        Set<String> keys = new HashSet<String>(count * 2);
+        int end = offset + count;
+        for (int i = offset; i < end; i++) {
+            Object key = values[i].get(keyColumn);
+            if (key == null || values[i].get(BaseColumns._ID) != null) {
+                continue;
+            }
+            if (!keys.add(key.toString())) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    /**
+     * Create an index on the external key column, if it doesn't exist yet
+     */
+    static void createIndex(CupboardDatabase db, String table, String keyColumn) {
+        StringBuilder sql = new StringBuilder("CREATE INDEX IF NOT EXISTS ");
+        InsertStatementCache.appendQuoted(sql, INDEX_PREFIX + table + "_" + keyColumn);
+        sql.append(" ON ");
+        InsertStatementCache.appendQuoted(sql, table);
+        sql.append(" (");
+        InsertStatementCache.appendQuoted(sql, keyColumn);
+        sql.append(')');
+        db.execSQL(sql.toString());
+    }
+
+    static String buildLookupSql(String table, String keyColumn, int keyCount) {
+        StringBuilder sql = new StringBuilder(48 + table.length() + keyColumn.length() * 2 + keyCount * 2);
+        sql.append("SELECT ").append(BaseColumns._ID).append(", ");
+        InsertStatementCache.appendQuoted(sql, keyColumn);
+        sql.append(" FROM ");
+        InsertStatementCache.appendQuoted(sql, table);
+        sql.append(" WHERE ");
+        InsertStatementCache.appendQuoted(sql, keyColumn);
+        sql.append(" IN (");
+        for (int i = 0; i < keyCount; i++) {
+            sql.append(i > 0 ? ",?" : "?");
+        }
+        return sql.append(')').toString();
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Queue that coalesces writes from concurrent threads into groups that are committed in a single transaction. The first
+ * thread to submit a write becomes the leader: if other writes are already waiting it waits up to the group window for
+ * more writes, then applies the group while the other threads wait for their result. When the group is done, the next
+ * waiting thread becomes the leader. A write without contention is applied right away.
+ */
+final class GroupCommitQueue {
+
+    /**
+     * A single write, applied from within a transaction
+     */
+    interface Write {
+        Object apply();
+    }
+
+    /**
+     * Applies a group of writes and sets their results
+     */
+    interface GroupWriter {
+        void applyGroup(List<Request> requests);
+    }
+
+    static final class Request {
+        final Write mWrite;
+        Object mResult;
+        Throwable mError;
+        private boolean mDone;
+        private boolean mLeader;
+
+        Request(Write write) {
+            mWrite = write;
+        }
+
+        Object getResult() {
+            if (mError instanceof RuntimeException) {
+                throw (RuntimeException) mError;
+            } else if (mError instanceof Error) {
+                throw (Error) mError;
+            }
+            return mResult;
+        }
+    }
+
+    private final GroupWriter mWriter;
+    private final int mMaxGroupSize;
+    private final long mWindowNanos;
+    private final List<Request> mPending = new ArrayList<Request>();
+    private boolean mLeaderActive;
+
+    GroupCommitQueue(GroupWriter writer, int maxGroupSize, int windowMillis) {
+        mWriter = writer;
+        mMaxGroupSize = Math.max(1, maxGroupSize);
+        mWindowNanos = windowMillis * 1000000L;
+    }
+
+    /**
+     * Submit a write and wait for the group it is part of to be applied
+     *
+     * @param write the write
+     * @return the result of the write
+     */
+    Object submit(Write write) {
+        Request request = new Request(write);
+        List<Request> group;
+        boolean interrupted = false;
+        synchronized (this) {
+            mPending.add(request);
+            if (mLeaderActive) {
+                // wake up the leader in case it is waiting for the group to fill up
+                notifyAll();
+                while (!request.mDone && !request.mLeader) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (request.mDone) {
+                    restoreInterrupt(interrupted);
+                    return request.getResult();
+                }
+            }
+            mLeaderActive = true;
+            long deadline = System.nanoTime() + mWindowNanos;
+            long remaining;
+            // only wait for the group to fill up if there is a group, a single writer shouldn't pay for the window
+            while (mPending.size() > 1 && mPending.size() < mMaxGroupSize && (remaining = deadline - System.nanoTime()) > 0) {
+                try {
+                    wait(remaining / 1000000L, (int) (remaining % 1000000L));
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            // the leader is always the first pending request
+            List<Request> next = mPending.subList(0, Math.min(mMaxGroupSize, mPending.size()));
+            group = new ArrayList<Request>(next);
+            next.clear();
+        }
+        Throwable failure = null;
+        try {
+            mWriter.applyGroup(group);
+        } catch (RuntimeException e) {
+            failure = e;
+        } catch (Error e) {
+            failure = e;
+        }
+        synchronized (this) {
+            for (Request groupRequest : group) {
+                if (failure != null && groupRequest.mError == null) {
+                    groupRequest.mError = failure;
+                }
+                groupRequest.mDone = true;
+            }
+            if (mPending.isEmpty()) {
+                mLeaderActive = false;
+            } else {
+                mPending.get(0).mLeader = true;
+            }
+            notifyAll();
+        }
+        restoreInterrupt(interrupted);
+        return request.getResult();
+    }
+
+    private static void restoreInterrupt(boolean interrupted) {
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
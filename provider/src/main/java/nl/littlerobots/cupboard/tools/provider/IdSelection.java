@@ -0,0 +1,144 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import android.provider.BaseColumns;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A selection on a set of ids, split up in chunks that each stay within the maximum number of bound variables of a statement.
+ * Single ids are selected using {@code _id IN (...)}, ranges using {@code _id BETWEEN ? AND ?}.
+ */
+final class IdSelection {
+    final String mSelection;
+    final String[] mSelectionArgs;
+
+    private IdSelection(String selection, String[] selectionArgs) {
+        mSelection = selection;
+        mSelectionArgs = selectionArgs;
+    }
+
+    /**
+     * Build the selections for a set of ids and id ranges. Ranges that overlap are merged and ids that are part of a range
+     * are left out, so that every id is selected once.
+     *
+     * @param ids          the ids, in any order, may be null
+     * @param ranges       pairs of first and last id of a range, both inclusive, in any order, may be null
+     * @param maxVariables the maximum number of bound variables per selection
+     * @return the selections, empty if there are no ids
+     */
+    static List<IdSelection> build(long[] ids, long[] ranges, int maxVariables) {
+        long[] merged = mergeRanges(ranges);
+        int rangeCount = merged.length / 2;
+        int chunkSize = Math.max(2, maxVariables);
+        List<IdSelection> selections = new ArrayList<IdSelection>();
+        if (ids != null && ids.length > 0) {
+            // sorted ids are looked up in index order, duplicates and ids within a range don't need a variable
+            long[] sorted = ids.clone();
+            Arrays.sort(sorted);
+            int count = 0;
+            int range = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                long id = sorted[i];
+                if (i > 0 && id == sorted[i - 1]) {
+                    continue;
+                }
+                while (range < rangeCount && merged[range * 2 + 1] < id) {
+                    range++;
+                }
+                if (range < rangeCount && merged[range * 2] <= id) {
+                    continue;
+                }
+                sorted[count++] = id;
+            }
+            for (int offset = 0; offset < count; offset += chunkSize) {
+                int chunk = Math.min(chunkSize, count - offset);
+                StringBuilder sb = new StringBuilder(BaseColumns._ID.length() + 8 + chunk * 2);
+                sb.append(BaseColumns._ID).append(" IN (");
+                String[] args = new String[chunk];
+                for (int i = 0; i < chunk; i++) {
+                    if (i > 0) {
+                        sb.append(',');
+                    }
+                    sb.append('?');
+                    args[i] = String.valueOf(sorted[offset + i]);
+                }
+                selections.add(new IdSelection(sb.append(')').toString(), args));
+            }
+        }
+        int rangesPerChunk = chunkSize / 2;
+        for (int offset = 0; offset < rangeCount; offset += rangesPerChunk) {
+            int chunk = Math.min(rangesPerChunk, rangeCount - offset);
+            StringBuilder sb = new StringBuilder(chunk * 32);
+            String[] args = new String[chunk * 2];
+            for (int i = 0; i < chunk; i++) {
+                if (i > 0) {
+                    sb.append(" OR ");
+                }
+                sb.append('(').append(BaseColumns._ID).append(" BETWEEN ? AND ?)");
+                args[i * 2] = String.valueOf(merged[(offset + i) * 2]);
+                args[i * 2 + 1] = String.valueOf(merged[(offset + i) * 2 + 1]);
+            }
+            selections.add(new IdSelection(sb.toString(), args));
+        }
+        return selections;
+    }
+
+    /**
+     * Sort ranges by their first id and merge the ranges that overlap or are adjacent
+     *
+     * @return the merged ranges, as pairs of first and last id
+     */
+    private static long[] mergeRanges(long[] ranges) {
+        if (ranges == null || ranges.length == 0) {
+            return new long[0];
+        }
+        if (ranges.length % 2 != 0) {
+            throw new IllegalArgumentException("Id ranges should consist of pairs of first and last id");
+        }
+        long[][] pairs = new long[ranges.length / 2][];
+        for (int i = 0; i < pairs.length; i++) {
+            long first = ranges[i * 2];
+            long last = ranges[i * 2 + 1];
+            if (first > last) {
+                throw new IllegalArgumentException("Invalid id range " + first + " - " + last);
+            }
+            pairs[i] = new long[]{first, last};
+        }
+        Arrays.sort(pairs, new Comparator<long[]>() {
+            @Override
+            public int compare(long[] lhs, long[] rhs) {
+                return lhs[0] < rhs[0] ? -1 : (lhs[0] == rhs[0] ? 0 : 1);
+            }
+        });
+        long[] merged = new long[ranges.length];
+        int count = 0;
+        for (long[] pair : pairs) {
+            if (count > 0 && (pair[0] <= merged[count - 1] || pair[0] - merged[count - 1] == 1)) {
+                merged[count - 1] = Math.max(merged[count - 1], pair[1]);
+            } else {
+                merged[count++] = pair[0];
+                merged[count++] = pair[1];
+            }
+        }
+        return Arrays.copyOf(merged, count);
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import android.database.Cursor;
+import android.provider.BaseColumns;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import nl.qbusict.cupboard.CupboardDatabase;
+
+/**
+ * Records the columns that queries select and order on, and suggests indexes for the combinations that no existing index
+ * starts with. Suggestions use the name that {@link EntityIndex} would give the same index. The columns are found by
+ * matching the identifiers in the selection and sort order with the columns of the entity, so expressions on a column
+ * are counted as the column.
+ */
+final class IndexAdvisor {
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern IDENTIFIER = Pattern.compile("\"((?:[^\"]|\"\")+)\"|`([^`]+)`|\\b([A-Za-z_][A-Za-z0-9_]*)\\b");
+
+    private final LinkedHashMap<String, Usage> mUsages;
+
+    IndexAdvisor(final int maxUsages) {
+        mUsages = new LinkedHashMap<String, Usage>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Usage> eldest) {
+                return size() > maxUsages;
+            }
+        };
+    }
+
+    /**
+     * Get the entity columns an expression refers to, in order of appearance
+     *
+     * @param expression a selection or sort order, may be null
+     * @param columns    the columns of the entity
+     * @return the columns, without {@link BaseColumns#_ID} which is always indexed
+     */
+    static List<String> referencedColumns(String expression, Collection<String> columns) {
+        if (expression == null) {
+            return Collections.emptyList();
+        }
+        List<String> result = new ArrayList<String>(2);
+        Matcher matcher = IDENTIFIER.matcher(STRING_LITERAL.matcher(expression).replaceAll("''"));
+        while (matcher.find()) {
+            String identifier = matcher.group(1) != null ? matcher.group(1).replace("\"\"", "\"") :
+                    matcher.group(2) != null ? matcher.group(2) : matcher.group(3);
+            if (!BaseColumns._ID.equals(identifier) && columns.contains(identifier) && !result.contains(identifier)) {
+                result.add(identifier);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Record a query
+     *
+     * @param table     the queried table
+     * @param columns   the columns of the entity
+     * @param selection the selection of the query
+     * @param sortOrder the sort order of the query
+     */
+    void record(String table, Collection<String> columns, String selection, String sortOrder) {
+        List<String> selectionColumns = referencedColumns(selection, columns);
+        List<String> orderColumns = referencedColumns(sortOrder, columns);
+        if (selectionColumns.isEmpty() && orderColumns.isEmpty()) {
+            return;
+        }
+        String key = table + '\u0000' + selectionColumns + '\u0000' + orderColumns;
+        synchronized (this) {
+            Usage usage = mUsages.get(key);
+            if (usage == null) {
+                usage = new Usage(table, selectionColumns, orderColumns);
+                mUsages.put(key, usage);
+            }
+            usage.mCount++;
+        }
+    }
+
+    /**
+     * Suggest indexes for the recorded queries, most frequent first
+     *
+     * @param db the database, to look up the existing indexes
+     * @return the suggestions, one per line, or an empty string if there are none
+     */
+    String advise(CupboardDatabase db) {
+        List<Usage> usages;
+        synchronized (this) {
+            usages = new ArrayList<Usage>(mUsages.values());
+        }
+        Collections.sort(usages, new Comparator<Usage>() {
+            @Override
+            public int compare(Usage lhs, Usage rhs) {
+                return lhs.mCount < rhs.mCount ? 1 : (lhs.mCount == rhs.mCount ? 0 : -1);
+            }
+        });
+        Map<String, Set<String>> leadingColumns = new HashMap<String, Set<String>>();
+        Set<String> suggested = new HashSet<String>();
+        StringBuilder sb = new StringBuilder();
+        for (Usage usage : usages) {
+            List<String> indexColumns = new ArrayList<String>(usage.mSelectionColumns);
+            for (String column : usage.mOrderColumns) {
+                if (!indexColumns.contains(column)) {
+                    indexColumns.add(column);
+                }
+            }
+            Set<String> leading = leadingColumns.get(usage.mTable);
+            if (leading == null) {
+                leading = getLeadingIndexColumns(db, usage.mTable);
+                leadingColumns.put(usage.mTable, leading);
+            }
+            if (leading.contains(indexColumns.get(0)) || !suggested.add(usage.mTable + indexColumns)) {
+                continue;
+            }
+            StringBuilder name = new StringBuilder(EntityIndex.NAME_PREFIX).append(usage.mTable);
+            for (String column : indexColumns) {
+                name.append('_').append(column);
+            }
+            sb.append("CREATE INDEX ");
+            InsertStatementCache.appendQuoted(sb, name.toString());
+            sb.append(" ON ");
+            InsertStatementCache.appendQuoted(sb, usage.mTable);
+            sb.append(" (");
+            for (int i = 0; i < indexColumns.size(); i++) {
+                if (i > 0) {
+                    sb.append(", ");
+                }
+                InsertStatementCache.appendQuoted(sb, indexColumns.get(i));
+            }
+            sb.append(") -- ").append(usage.mCount).append(" queries selecting ").append(usage.mSelectionColumns)
+                    .append(" ordered by ").append(usage.mOrderColumns).append('\n');
+        }
+        return sb.toString();
+    }
+
+    synchronized void clear() {
+        mUsages.clear();
+    }
+
+    /**
+     * @return the first column of each of the indexes on a table
+     */
+    private static Set<String> getLeadingIndexColumns(CupboardDatabase db, String table) {
+        Set<String> columns = new HashSet<String>();
+        List<String> indexes = new ArrayList<String>();
+        StringBuilder sql = new StringBuilder("PRAGMA index_list(");
+        InsertStatementCache.appendQuoted(sql, table);
+        Cursor cursor = db.rawQuery(sql.append(')').toString(), null);
+        try {
+            int name = cursor.getColumnIndex("name");
+            while (cursor.moveToNext()) {
+                indexes.add(cursor.getString(name));
+            }
+        } finally {
+            cursor.close();
+        }
+        for (String index : indexes) {
+            sql = new StringBuilder("PRAGMA index_info(");
+            InsertStatementCache.appendQuoted(sql, index);
+            cursor = db.rawQuery(sql.append(')').toString(), null);
+            try {
+                int seqno = cursor.getColumnIndex("seqno");
+                int name = cursor.getColumnIndex("name");
+                while (cursor.moveToNext()) {
+                    if (cursor.getInt(seqno) == 0 && !cursor.isNull(name)) {
+                        columns.add(cursor.getString(name));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return columns;
+    }
+
+    private static final class Usage {
+        final String mTable;
+        final List<String> mSelectionColumns;
+        final List<String> mOrderColumns;
+        int mCount;
+
+        Usage(String table, List<String> selectionColumns, List<String> orderColumns) {
+            mTable = table;
+            mSelectionColumns = selectionColumns;
+            mOrderColumns = orderColumns;
+        }
+    }
+}
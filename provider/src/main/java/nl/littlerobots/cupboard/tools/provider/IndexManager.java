@@ -0,0 +1,96 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.qbusict.cupboard.CupboardDatabase;
+
+/**
+ * Brings the declared indexes in sync with the indexes in the database. Only indexes with the
+ * {@link EntityIndex#NAME_PREFIX} are managed, other indexes, like the external key indexes, are left alone.
+ */
+final class IndexManager {
+
+    private IndexManager() {
+    }
+
+    /**
+     * Drop the managed indexes that are no longer declared or have changed and create the declared indexes that don't exist.
+     *
+     * @param db       the database
+     * @param declared the create statements of the declared indexes, by index name
+     * @return the number of indexes that were created or dropped
+     */
+    static int sync(CupboardDatabase db, Map<String, String> declared) {
+        Map<String, String> existing = getManagedIndexes(db);
+        List<String> statements = new ArrayList<String>();
+        for (Map.Entry<String, String> index : existing.entrySet()) {
+            String sql = declared.get(index.getKey());
+            if (sql == null || !normalize(sql).equals(normalize(index.getValue()))) {
+                StringBuilder drop = new StringBuilder("DROP INDEX IF EXISTS ");
+                InsertStatementCache.appendQuoted(drop, index.getKey());
+                statements.add(drop.toString());
+            }
+        }
+        for (Map.Entry<String, String> index : declared.entrySet()) {
+            String sql = existing.get(index.getKey());
+            if (sql == null || !normalize(sql).equals(normalize(index.getValue()))) {
+                statements.add(index.getValue());
+            }
+        }
+        if (statements.isEmpty()) {
+            return 0;
+        }
+        db.beginTransaction();
+        try {
+            for (String statement : statements) {
+                db.execSQL(statement);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return statements.size();
+    }
+
+    private static Map<String, String> getManagedIndexes(CupboardDatabase db) {
+        Map<String, String> indexes = new HashMap<String, String>();
+        Cursor cursor = db.rawQuery("SELECT name, sql FROM sqlite_master WHERE type = 'index' AND name LIKE ? ESCAPE '\\'",
+                new String[]{EntityIndex.NAME_PREFIX.replace("_", "\\_") + "%"});
+        try {
+            while (cursor.moveToNext()) {
+                indexes.put(cursor.getString(0), cursor.getString(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return indexes;
+    }
+
+    /**
+     * Normalize the whitespace of a statement, in the same way SQLite does for the statements in sqlite_master
+     */
+    static String normalize(String sql) {
+        return sql == null ? "" : sql.trim().replaceAll("\\s+", " ");
+    }
+}
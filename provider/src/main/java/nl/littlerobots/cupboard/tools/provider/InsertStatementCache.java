@@ -0,0 +1,373 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import android.content.ContentValues;
+import android.provider.BaseColumns;
+import android.util.LruCache;
+
+import java.util.Arrays;
+
+import nl.littlerobots.cupboard.tools.provider.SQLiteContentProvider.CupboardProviderDatabase;
+
+/**
+ * Cache of compiled insert and replace statements, keyed by table and the set of columns being inserted. Inserts through
+ * this cache behave like {@link nl.qbusict.cupboard.DatabaseCompartment#put(Class, ContentValues)}: values that have an
+ * {@link BaseColumns#_ID} set are replaced, all others are inserted. Upserts update the existing row that has the same
+ * value for a unique column instead of inserting a new row.
+ * <p/>
+ * Statements are bound to the database connection they were compiled on, the cache is cleared when a different
+ * connection is passed in or when {@link #clear()} is called. Callers are expected to execute inserts from within a
+ * transaction, which serializes access to the bound statements.
+ */
+final class InsertStatementCache {
+    private static final int MAX_STATEMENTS = 64;
+    /**
+     * Maximum number of rows in a single VALUES clause, SQLITE_MAX_COMPOUND_SELECT on SQLite versions before 3.8.8
+     */
+    private static final int MAX_ROWS_PER_STATEMENT = 500;
+    private static final char INSERT = 'I';
+    private static final char REPLACE = 'R';
+    private static final char UPSERT = 'U';
+    private static final char UPDATE = 'P';
+    private static final char SELECT_ID = 'S';
+    /**
+     * First SQLite version that supports INSERT ... ON CONFLICT DO UPDATE
+     */
+    private static final int[] UPSERT_VERSION = {3, 24};
+
+    private final LruCache<String, CompiledStatement> mStatements = new LruCache<String, CompiledStatement>(MAX_STATEMENTS) {
+        @Override
+        protected void entryRemoved(boolean evicted, String key, CompiledStatement oldValue, CompiledStatement newValue) {
+            oldValue.close();
+        }
+    };
+    private CupboardProviderDatabase mDatabase;
+
+    /**
+     * Insert or replace a row in the given table
+     *
+     * @param db     the database
+     * @param table  the table
+     * @param values the values
+     * @return the row id
+     */
+    synchronized long insert(CupboardProviderDatabase db, String table, ContentValues values) {
+        Long id = values.getAsLong(BaseColumns._ID);
+        String[] columns = sortedColumns(values);
+        CompiledStatement statement = getStatement(db, id != null ? REPLACE : INSERT, table, null, columns, 1);
+        statement.clearBindings();
+        bindRow(statement, 1, values, columns);
+        long rowId = statement.executeInsert();
+        return id != null ? id : rowId;
+    }
+
+    /**
+     * Compile the statement that inserts a row with the given columns, so that the first insert doesn't have to
+     *
+     * @param db      the database
+     * @param table   the table
+     * @param columns the columns, without {@link BaseColumns#_ID}
+     */
+    synchronized void prepareInsert(CupboardProviderDatabase db, String table, String[] columns) {
+        String[] sorted = columns.clone();
+        Arrays.sort(sorted);
+        getStatement(db, INSERT, table, null, sorted, 1);
+    }
+
+    /**
+     * Insert a row or update the existing row that has the same value in the key column. Values that have an
+     * {@link BaseColumns#_ID} or no value for the key column are inserted as with {@link #insert(CupboardProviderDatabase, String, ContentValues)}.
+     *
+     * @param db           the database
+     * @param table        the table
+     * @param keyColumn    the unique column to match existing rows on
+     * @param values       the values
+     * @param nativeUpsert true to use INSERT ... ON CONFLICT DO UPDATE, which requires a unique index on the key column,
+     *                     false to update and insert if no row was updated
+     * @return the row id
+     */
+    synchronized long upsert(CupboardProviderDatabase db, String table, String keyColumn, ContentValues values, boolean nativeUpsert) {
+        Object key = values.get(keyColumn);
+        if (key == null || values.getAsLong(BaseColumns._ID) != null) {
+            return insert(db, table, values);
+        }
+        String[] columns = sortedColumns(values);
+        if (nativeUpsert) {
+            CompiledStatement statement = getStatement(db, UPSERT, table, keyColumn, columns, 1);
+            statement.clearBindings();
+            bindRow(statement, 1, values, columns);
+            statement.executeInsert();
+        } else {
+            CompiledStatement statement = getStatement(db, UPDATE, table, keyColumn, columns, 1);
+            statement.clearBindings();
+            bindRow(statement, 1, values, columns);
+            bind(statement, columns.length + 1, key);
+            if (statement.executeUpdateDelete() == 0) {
+                return insert(db, table, values);
+            }
+        }
+        // last_insert_rowid() isn't set when an existing row is updated
+        CompiledStatement selectId = getStatement(db, SELECT_ID, table, keyColumn, new String[0], 1);
+        selectId.clearBindings();
+        bind(selectId, 1, key);
+        return selectId.simpleQueryForLong();
+    }
+
+    /**
+     * Insert or replace a range of rows in the given table, using multi-row VALUES statements for consecutive rows that
+     * have the same set of columns. This requires SQLite 3.7.11 or later.
+     *
+     * @param db           the database
+     * @param table        the table
+     * @param values       the values
+     * @param offset       the index of the first row to insert
+     * @param count        the number of rows to insert
+     * @param maxVariables the maximum number of bound variables per statement
+     */
+    synchronized void insert(CupboardProviderDatabase db, String table, ContentValues[] values, int offset, int count, int maxVariables) {
+        insertRows(db, table, null, values, offset, count, maxVariables);
+    }
+
+    /**
+     * Upsert a range of rows in the given table, see {@link #upsert(CupboardProviderDatabase, String, String, ContentValues, boolean)}.
+     * Native upserts use multi-row VALUES statements like {@link #insert(CupboardProviderDatabase, String, ContentValues[], int, int, int)}.
+     */
+    synchronized void upsert(CupboardProviderDatabase db, String table, String keyColumn, ContentValues[] values, int offset, int count,
+                             int maxVariables, boolean nativeUpsert) {
+        if (nativeUpsert) {
+            insertRows(db, table, keyColumn, values, offset, count, maxVariables);
+        } else {
+            for (int i = offset; i < offset + count; i++) {
+                upsert(db, table, keyColumn, values[i], false);
+            }
+        }
+    }
+
+    private void insertRows(CupboardProviderDatabase db, String table, String upsertColumn, ContentValues[] values, int offset, int count, int maxVariables) {
+        int end = offset + count;
+        int start = offset;
+        while (start < end) {
+            ContentValues first = values[start];
+            char type = getInsertType(first, upsertColumn);
+            int maxRows = first.size() == 0 ? 1 : Math.min(MAX_ROWS_PER_STATEMENT, Math.max(1, maxVariables / first.size()));
+            int rows = 1;
+            while (start + rows < end && rows < maxRows
+                    && getInsertType(values[start + rows], upsertColumn) == type
+                    && first.keySet().equals(values[start + rows].keySet())) {
+                rows++;
+            }
+            String[] columns = sortedColumns(first);
+            CompiledStatement statement = getStatement(db, type, table, upsertColumn, columns, rows);
+            statement.clearBindings();
+            int index = 1;
+            for (int row = start; row < start + rows; row++) {
+                index = bindRow(statement, index, values[row], columns);
+            }
+            statement.executeInsert();
+            start += rows;
+        }
+    }
+
+    private static char getInsertType(ContentValues values, String upsertColumn) {
+        if (values.getAsLong(BaseColumns._ID) != null) {
+            return REPLACE;
+        }
+        return upsertColumn != null && values.get(upsertColumn) != null ? UPSERT : INSERT;
+    }
+
+    /**
+     * Check if a SQLite version supports INSERT ... ON CONFLICT DO UPDATE
+     *
+     * @param version the version as returned by sqlite_version()
+     * @return true if upserts are supported
+     */
+    static boolean isUpsertSupported(String version) {
+        String[] parts = version.split("\\.");
+        for (int i = 0; i < UPSERT_VERSION.length; i++) {
+            int part;
+            try {
+                part = i < parts.length ? Integer.parseInt(parts[i]) : 0;
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            if (part != UPSERT_VERSION[i]) {
+                return part > UPSERT_VERSION[i];
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Close and remove all cached statements
+     */
+    synchronized void clear() {
+        mStatements.evictAll();
+        mDatabase = null;
+    }
+
+    static String[] sortedColumns(ContentValues values) {
+        String[] columns = values.keySet().toArray(new String[values.size()]);
+        Arrays.sort(columns);
+        return columns;
+    }
+
+    private CompiledStatement getStatement(CupboardProviderDatabase db, char type, String table, String keyColumn, String[] columns, int rows) {
+        if (db != mDatabase) {
+            mStatements.evictAll();
+            mDatabase = db;
+        }
+        String key = key(type, table, keyColumn, columns, rows);
+        CompiledStatement statement = mStatements.get(key);
+        if (statement == null) {
+            statement = db.compileStatement(buildSql(type, table, keyColumn, columns, rows));
+            mStatements.put(key, statement);
+        }
+        return statement;
+    }
+
+    private static String key(char type, String table, String keyColumn, String[] columns, int rows) {
+        StringBuilder sb = new StringBuilder(table.length() + columns.length * 12);
+        sb.append(type).append(rows).append(':').append(table);
+        if (type != INSERT && type != REPLACE) {
+            sb.append(':').append(keyColumn);
+        }
+        for (String column : columns) {
+            sb.append(',').append(column);
+        }
+        return sb.toString();
+    }
+
+    private static String buildSql(char type, String table, String keyColumn, String[] columns, int rows) {
+        switch (type) {
+            case INSERT:
+                return buildInsertSql(table, false, columns, rows);
+            case REPLACE:
+                return buildInsertSql(table, true, columns, rows);
+            case UPSERT:
+                return buildUpsertSql(table, keyColumn, columns, rows);
+            case UPDATE:
+                return buildUpdateSql(table, keyColumn, columns);
+            default:
+                return buildSelectIdSql(table, keyColumn);
+        }
+    }
+
+    static String buildInsertSql(String table, boolean replace, String[] columns, int rows) {
+        StringBuilder sql = new StringBuilder(32 + columns.length * 16 + rows * columns.length * 2);
+        sql.append(replace ? "INSERT OR REPLACE INTO " : "INSERT INTO ");
+        appendQuoted(sql, table);
+        if (columns.length == 0) {
+            return sql.append(" DEFAULT VALUES").toString();
+        }
+        sql.append(" (");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            appendQuoted(sql, columns[i]);
+        }
+        sql.append(") VALUES ");
+        for (int row = 0; row < rows; row++) {
+            sql.append(row > 0 ? ",(" : "(");
+            for (int i = 0; i < columns.length; i++) {
+                sql.append(i > 0 ? ",?" : "?");
+            }
+            sql.append(')');
+        }
+        return sql.toString();
+    }
+
+    static String buildUpsertSql(String table, String keyColumn, String[] columns, int rows) {
+        StringBuilder sql = new StringBuilder(buildInsertSql(table, false, columns, rows));
+        sql.append(" ON CONFLICT(");
+        appendQuoted(sql, keyColumn);
+        sql.append(") DO ");
+        boolean first = true;
+        for (String column : columns) {
+            if (column.equals(keyColumn)) {
+                continue;
+            }
+            sql.append(first ? "UPDATE SET " : ",");
+            appendQuoted(sql, column);
+            sql.append("=excluded.");
+            appendQuoted(sql, column);
+            first = false;
+        }
+        if (first) {
+            sql.append("NOTHING");
+        }
+        return sql.toString();
+    }
+
+    static String buildUpdateSql(String table, String keyColumn, String[] columns) {
+        StringBuilder sql = new StringBuilder(32 + columns.length * 16);
+        sql.append("UPDATE ");
+        appendQuoted(sql, table);
+        sql.append(" SET ");
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                sql.append(',');
+            }
+            appendQuoted(sql, columns[i]);
+            sql.append("=?");
+        }
+        sql.append(" WHERE ");
+        appendQuoted(sql, keyColumn);
+        return sql.append("=?").toString();
+    }
+
+    static String buildSelectIdSql(String table, String keyColumn) {
+        StringBuilder sql = new StringBuilder("SELECT ").append(BaseColumns._ID).append(" FROM ");
+        appendQuoted(sql, table);
+        sql.append(" WHERE ");
+        appendQuoted(sql, keyColumn);
+        return sql.append("=?").toString();
+    }
+
+    static void appendQuoted(StringBuilder sb, String identifier) {
+        sb.append('"').append(identifier.replace("\"", "\"\"")).append('"');
+    }
+
+    private static int bindRow(CompiledStatement statement, int index, ContentValues values, String[] columns) {
+        for (String column : columns) {
+            bind(statement, index++, values.get(column));
+        }
+        return index;
+    }
+
+    /**
+     * Bind a value from {@link ContentValues} using the same type mapping as {@link android.database.sqlite.SQLiteDatabase#insert}
+     */
+    static void bind(CompiledStatement statement, int index, Object value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else if (value instanceof String) {
+            statement.bindString(index, (String) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            statement.bindLong(index, ((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.bindDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            statement.bindLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.bindBlob(index, (byte[]) value);
+        } else {
+            statement.bindString(index, value.toString());
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+/**
+ * Receives metrics of the operations of a {@link SQLiteContentProvider}, see {@link SQLiteContentProvider#getMetricsListener()}.
+ * Methods are called on the thread that executed the operation, right after it completed, so implementations should be
+ * thread safe and fast. {@link ProviderMetrics} is a default implementation that aggregates the metrics in memory.
+ */
+public interface MetricsListener {
+    int OPERATION_QUERY = 0;
+    int OPERATION_INSERT = 1;
+    int OPERATION_BULK_INSERT = 2;
+    int OPERATION_UPDATE = 3;
+    int OPERATION_DELETE = 4;
+    /**
+     * The number of operation types
+     */
+    int OPERATION_COUNT = 5;
+
+    /**
+     * Called when an operation completed successfully
+     *
+     * @param key           the metrics key of the uri, see {@link SQLiteContentProvider#getMetricsKey(android.net.Uri)}
+     * @param operation     one of the OPERATION_ constants
+     * @param durationNanos the duration of the operation, including the transaction if it wasn't part of a batch
+     * @param rows          the number of rows that were returned, inserted, updated or deleted
+     */
+    void onOperation(String key, int operation, long durationNanos, int rows);
+
+    /**
+     * Called when a transaction is committed
+     *
+     * @param durationNanos the time from the start of the transaction until it was committed
+     */
+    void onTransaction(long durationNanos);
+
+    /**
+     * Called when a batch of operations was applied
+     *
+     * @param operations    the number of operations in the batch
+     * @param yields        the number of times the transaction yielded to other threads
+     * @param durationNanos the duration of the batch
+     */
+    void onBatch(int operations, int yields, long durationNanos);
+
+    /**
+     * Called when a transaction with changes has ended. The changes are notified right away, or later if notifications
+     * are suspended or delayed.
+     *
+     * @param uris the number of changed uris that are notified, 1 when the base uri is notified
+     */
+    void onNotify(int uris);
+}
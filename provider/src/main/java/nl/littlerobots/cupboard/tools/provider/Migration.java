@@ -0,0 +1,75 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import nl.qbusict.cupboard.CupboardDatabase;
+
+/**
+ * A data migration of the table of an entity that runs in the background, in chunks, after the database has been opened.
+ * See {@link CupboardContentProvider#getMigrations()}.
+ * <p/>
+ * Every chunk is migrated in its own transaction, together with the resume token that is returned from
+ * {@link #migrateChunk(CupboardDatabase, String, int)}. If the process dies, the migration continues from the last
+ * committed token the next time the database is opened. Migrations run once per database, also on a newly created
+ * database, so they should be written in a way that leaves already migrated rows alone.
+ */
+public abstract class Migration {
+    /**
+     * Default maximum number of rows in a chunk
+     */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private final Class<?> mEntityClass;
+    private final int mVersion;
+
+    /**
+     * @param entityClass the entity class that is migrated. Queries and writes on this entity wait for the migration
+     *                    to complete, other entities are available while the migration runs.
+     * @param version     the database version this migration belongs to. Migrations of an entity run in order of their
+     *                    version and only when the database is at least at this version.
+     */
+    protected Migration(Class<?> entityClass, int version) {
+        mEntityClass = entityClass;
+        mVersion = version;
+    }
+
+    public Class<?> getEntityClass() {
+        return mEntityClass;
+    }
+
+    public int getVersion() {
+        return mVersion;
+    }
+
+    /**
+     * @return the maximum number of rows that should be migrated in a single chunk
+     */
+    public int getChunkSize() {
+        return DEFAULT_CHUNK_SIZE;
+    }
+
+    /**
+     * Migrate the next chunk of rows. This is called in a transaction on a background thread.
+     *
+     * @param db          the database
+     * @param resumeToken the token returned from the previous chunk, for example the last migrated id, or null for the
+     *                    first chunk
+     * @param chunkSize   the maximum number of rows to migrate
+     * @return the token to resume from for the next chunk, or null if the migration is complete
+     */
+    public abstract String migrateChunk(CupboardDatabase db, String resumeToken, int chunkSize);
+}
@@ -0,0 +1,104 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import nl.qbusict.cupboard.CupboardDatabase;
+
+/**
+ * Runs {@link Migration}s chunk by chunk, keeping track of their progress in a bookkeeping table so that they can be resumed.
+ */
+final class MigrationRunner {
+    /**
+     * Table with a row per started migration, with the resume token and whether the migration is done
+     */
+    static final String TABLE = ExternalKeys.INDEX_PREFIX + "migrations";
+    static final String COLUMN_NAME = "name";
+    static final String COLUMN_TOKEN = "token";
+    static final String COLUMN_DONE = "done";
+
+    private MigrationRunner() {
+    }
+
+    static void createTable(CupboardDatabase db) {
+        db.execSQL("CREATE TABLE IF NOT EXISTS " + TABLE + " (" + COLUMN_NAME + " TEXT PRIMARY KEY, "
+                + COLUMN_TOKEN + " TEXT, " + COLUMN_DONE + " INTEGER NOT NULL DEFAULT 0)");
+    }
+
+    /**
+     * Load the state of the migrations that were started before
+     *
+     * @param db   the database
+     * @param done receives the names of the completed migrations
+     * @return the resume token by migration name, for the migrations that are not done
+     */
+    static Map<String, String> loadProgress(CupboardDatabase db, Set<String> done) {
+        Map<String, String> tokens = new HashMap<String, String>();
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_NAME + ", " + COLUMN_TOKEN + ", " + COLUMN_DONE + " FROM " + TABLE, null);
+        try {
+            while (cursor.moveToNext()) {
+                if (cursor.getInt(2) != 0) {
+                    done.add(cursor.getString(0));
+                } else {
+                    tokens.put(cursor.getString(0), cursor.getString(1));
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+        return tokens;
+    }
+
+    /**
+     * Run a migration to completion, one chunk per transaction
+     *
+     * @param db          the database
+     * @param name        the name of the migration in the bookkeeping table
+     * @param migration   the migration
+     * @param resumeToken the token to resume from, or null to start the migration
+     * @return the number of migrated chunks
+     */
+    static int run(CupboardDatabase db, String name, Migration migration, String resumeToken) {
+        int chunkSize = Math.max(1, migration.getChunkSize());
+        String token = resumeToken;
+        int chunks = 0;
+        boolean done = false;
+        while (!done) {
+            db.beginTransaction();
+            try {
+                token = migration.migrateChunk(db, token, chunkSize);
+                done = token == null;
+                ContentValues values = new ContentValues(3);
+                values.put(COLUMN_NAME, name);
+                values.put(COLUMN_TOKEN, token);
+                values.put(COLUMN_DONE, done ? 1 : 0);
+                db.replaceOrThrow(TABLE, null, values);
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            chunks++;
+        }
+        return chunks;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.util.Base64;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+
+import nl.qbusict.cupboard.convert.EntityConverter.ColumnType;
+
+/**
+ * Newline delimited JSON (NDJSON) encoding of database rows: every row is written as a JSON object on a single line,
+ * with a property for each column. Integers and reals are written as numbers and blobs as base64 encoded strings.
+ * When reading, the column types of the entity are used to decode blobs and to tell integers from reals.
+ */
+final class NdJson {
+    /**
+     * Mime type of NDJSON streams
+     */
+    static final String MIME_TYPE = "application/x-ndjson";
+
+    private NdJson() {
+    }
+
+    /**
+     * Write the current row of the cursor as a single line
+     *
+     * @param writer  the writer to write to
+     * @param columns the column names of the cursor
+     * @param cursor  the cursor, positioned on the row to write
+     */
+    static void writeRow(Writer writer, String[] columns, Cursor cursor) throws IOException {
+        // JsonWriter only accepts a single top level value
+        JsonWriter json = new JsonWriter(writer);
+        json.setLenient(true);
+        json.beginObject();
+        for (int i = 0; i < columns.length; i++) {
+            json.name(columns[i]);
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    json.value(cursor.getLong(i));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    json.value(cursor.getDouble(i));
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    json.value(cursor.getString(i));
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    json.value(Base64.encodeToString(cursor.getBlob(i), Base64.NO_WRAP));
+                    break;
+                default:
+                    json.nullValue();
+                    break;
+            }
+        }
+        json.endObject();
+        writer.write('\n');
+    }
+
+    /**
+     * Read the next row. Properties that are not a column of the entity are skipped.
+     *
+     * @param reader  a lenient reader
+     * @param columns the column types of the entity, by column name
+     * @param values  the values to read the row into
+     * @return true if a row was read, false at the end of the stream
+     */
+    static boolean readRow(JsonReader reader, Map<String, ColumnType> columns, ContentValues values) throws IOException {
+        if (reader.peek() == JsonToken.END_DOCUMENT) {
+            return false;
+        }
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            ColumnType type = columns.get(name);
+            if (type == null) {
+                reader.skipValue();
+                continue;
+            }
+            switch (reader.peek()) {
+                case NULL:
+                    reader.nextNull();
+                    values.putNull(name);
+                    break;
+                case BOOLEAN:
+                    values.put(name, reader.nextBoolean() ? 1L : 0L);
+                    break;
+                case NUMBER:
+                    putNumber(values, name, type, reader.nextString());
+                    break;
+                case STRING:
+                    String value = reader.nextString();
+                    if (type == ColumnType.BLOB) {
+                        values.put(name, Base64.decode(value, Base64.DEFAULT));
+                    } else {
+                        values.put(name, value);
+                    }
+                    break;
+                default:
+                    reader.skipValue();
+                    break;
+            }
+        }
+        reader.endObject();
+        return true;
+    }
+
+    private static void putNumber(ContentValues values, String name, ColumnType type, String number) {
+        if (type == ColumnType.TEXT) {
+            values.put(name, number);
+            return;
+        }
+        if (type != ColumnType.REAL) {
+            try {
+                values.put(name, Long.parseLong(number));
+                return;
+            } catch (NumberFormatException e) {
+                // not an integer
+            }
+        }
+        values.put(name, Double.parseDouble(number));
+    }
+}
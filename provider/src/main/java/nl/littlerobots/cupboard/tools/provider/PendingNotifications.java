@@ -0,0 +1,79 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import android.net.Uri;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Notifications that are held back while notifications are suspended or delayed. Changes to the same uri are merged
+ * into a single notification, which is synced to the network if any of the merged changes requested that.
+ */
+final class PendingNotifications {
+    private final Map<Uri, Boolean> mUris = new LinkedHashMap<Uri, Boolean>();
+    private boolean mNotifyAll;
+    private boolean mNotifyAllSyncToNetwork;
+
+    /**
+     * Add the changes of a transaction
+     *
+     * @param uris          the changed uris, if empty {@link SQLiteContentProvider#notifyChange(boolean)} will be called
+     * @param syncToNetwork true if the changes should be synced to the network
+     */
+    synchronized void add(Collection<Uri> uris, boolean syncToNetwork) {
+        if (uris.isEmpty()) {
+            mNotifyAll = true;
+            mNotifyAllSyncToNetwork |= syncToNetwork;
+            return;
+        }
+        for (Uri uri : uris) {
+            Boolean pendingSync = mUris.get(uri);
+            mUris.put(uri, syncToNetwork || (pendingSync != null && pendingSync));
+        }
+    }
+
+    /**
+     * Notify and clear all pending changes
+     *
+     * @param provider the provider to notify the changes on
+     */
+    void deliver(SQLiteContentProvider provider) {
+        Map<Uri, Boolean> uris;
+        boolean notifyAll;
+        boolean notifyAllSyncToNetwork;
+        synchronized (this) {
+            if (mUris.isEmpty() && !mNotifyAll) {
+                return;
+            }
+            uris = new LinkedHashMap<Uri, Boolean>(mUris);
+            notifyAll = mNotifyAll;
+            notifyAllSyncToNetwork = mNotifyAllSyncToNetwork;
+            mUris.clear();
+            mNotifyAll = false;
+            mNotifyAllSyncToNetwork = false;
+        }
+        for (Map.Entry<Uri, Boolean> entry : uris.entrySet()) {
+            provider.notifyChange(entry.getKey(), entry.getValue());
+        }
+        if (notifyAll) {
+            provider.notifyChange(notifyAllSyncToNetwork);
+        }
+    }
+}
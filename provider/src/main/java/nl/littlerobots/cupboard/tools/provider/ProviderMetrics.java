@@ -0,0 +1,242 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link MetricsListener} that aggregates counters and latency histograms per metrics key and operation in memory.
+ * Counters are allocated when a key is first seen, recording a metric doesn't allocate. Latencies are kept in a histogram
+ * with power of two buckets in microseconds, so percentiles are reported as an upper bound.
+ * <p/>
+ * The metrics can be read with {@link #dump()}, or using {@link SQLiteContentProvider#METHOD_DUMP_METRICS} when this is the
+ * metrics listener of a provider.
+ */
+public class ProviderMetrics implements MetricsListener {
+    /**
+     * Default threshold of a slow operation
+     */
+    public static final long DEFAULT_SLOW_OPERATION_MILLIS = 100;
+    private static final String[] OPERATION_NAMES = {"query", "insert", "bulkInsert", "update", "delete"};
+
+    private final long mSlowOperationNanos;
+    private final ConcurrentMap<String, Stats[]> mOperations = new ConcurrentHashMap<String, Stats[]>();
+    private final Stats mTransactions = new Stats();
+    private final Stats mBatches = new Stats();
+    private final Stats mNotifications = new Stats();
+
+    public ProviderMetrics() {
+        this(DEFAULT_SLOW_OPERATION_MILLIS);
+    }
+
+    /**
+     * @param slowOperationMillis operations and transactions that take at least this long are counted as slow
+     */
+    public ProviderMetrics(long slowOperationMillis) {
+        mSlowOperationNanos = slowOperationMillis * 1000000L;
+    }
+
+    @Override
+    public void onOperation(String key, int operation, long durationNanos, int rows) {
+        Stats[] stats = mOperations.get(key);
+        if (stats == null) {
+            stats = new Stats[OPERATION_COUNT];
+            for (int i = 0; i < stats.length; i++) {
+                stats[i] = new Stats();
+            }
+            Stats[] existing = mOperations.putIfAbsent(key, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        stats[operation].record(durationNanos, rows, mSlowOperationNanos);
+    }
+
+    @Override
+    public void onTransaction(long durationNanos) {
+        mTransactions.record(durationNanos, 0, mSlowOperationNanos);
+    }
+
+    @Override
+    public void onBatch(int operations, int yields, long durationNanos) {
+        // for batches, the rows are the number of operations and the extra value the number of yields
+        mBatches.record(durationNanos, operations, mSlowOperationNanos);
+        mBatches.mValues.addAndGet(Stats.EXTRA, yields);
+    }
+
+    @Override
+    public void onNotify(int uris) {
+        // for notifications, the rows are the number of notified uris and the extra value the maximum fan-out
+        mNotifications.record(0, uris, Long.MAX_VALUE);
+        Stats.updateMax(mNotifications.mValues, Stats.EXTRA, uris);
+    }
+
+    /**
+     * @return the number of completed operations for a key, or 0 if there are none
+     */
+    public long getCount(String key, int operation) {
+        Stats[] stats = mOperations.get(key);
+        return stats != null ? stats[operation].mValues.get(Stats.COUNT) : 0;
+    }
+
+    /**
+     * @return the number of rows affected by or returned from the operations for a key
+     */
+    public long getRows(String key, int operation) {
+        Stats[] stats = mOperations.get(key);
+        return stats != null ? stats[operation].mValues.get(Stats.ROWS) : 0;
+    }
+
+    /**
+     * @return the number of slow operations for a key
+     */
+    public long getSlowCount(String key, int operation) {
+        Stats[] stats = mOperations.get(key);
+        return stats != null ? stats[operation].mValues.get(Stats.SLOW) : 0;
+    }
+
+    /**
+     * @return the number of committed transactions
+     */
+    public long getTransactionCount() {
+        return mTransactions.mValues.get(Stats.COUNT);
+    }
+
+    /**
+     * @return the total number of yields in batches
+     */
+    public long getBatchYields() {
+        return mBatches.mValues.get(Stats.EXTRA);
+    }
+
+    /**
+     * @return the total number of notified uris
+     */
+    public long getNotifiedUris() {
+        return mNotifications.mValues.get(Stats.ROWS);
+    }
+
+    /**
+     * Reset all metrics
+     */
+    public void reset() {
+        mOperations.clear();
+        mTransactions.reset();
+        mBatches.reset();
+        mNotifications.reset();
+    }
+
+    /**
+     * @return a human readable summary of the metrics, one line per key and operation
+     */
+    public String dump() {
+        StringBuilder sb = new StringBuilder(1024);
+        for (Map.Entry<String, Stats[]> entry : new TreeMap<String, Stats[]>(mOperations).entrySet()) {
+            Stats[] stats = entry.getValue();
+            for (int i = 0; i < stats.length; i++) {
+                if (stats[i].mValues.get(Stats.COUNT) > 0) {
+                    sb.append(entry.getKey()).append(' ').append(OPERATION_NAMES[i]).append(':');
+                    stats[i].appendTo(sb);
+                    sb.append(" rows=").append(stats[i].mValues.get(Stats.ROWS)).append('\n');
+                }
+            }
+        }
+        sb.append("transactions:");
+        mTransactions.appendTo(sb);
+        sb.append('\n').append("batches:");
+        mBatches.appendTo(sb);
+        sb.append(" operations=").append(mBatches.mValues.get(Stats.ROWS)).append(" yields=").append(mBatches.mValues.get(Stats.EXTRA));
+        sb.append('\n').append("notifications: count=").append(mNotifications.mValues.get(Stats.COUNT))
+                .append(" uris=").append(mNotifications.mValues.get(Stats.ROWS))
+                .append(" maxUris=").append(mNotifications.mValues.get(Stats.EXTRA)).append('\n');
+        return sb.toString();
+    }
+
+    private static final class Stats {
+        static final int COUNT = 0;
+        static final int TOTAL_NANOS = 1;
+        static final int MAX_NANOS = 2;
+        static final int ROWS = 3;
+        static final int SLOW = 4;
+        static final int EXTRA = 5;
+        static final int BUCKETS = 6;
+        /**
+         * Bucket i counts durations of less than 2^i microseconds that didn't fit in bucket i - 1
+         */
+        static final int HISTOGRAM_BUCKETS = 32;
+
+        final AtomicLongArray mValues = new AtomicLongArray(BUCKETS + HISTOGRAM_BUCKETS);
+
+        void record(long nanos, long rows, long slowNanos) {
+            mValues.incrementAndGet(COUNT);
+            mValues.addAndGet(TOTAL_NANOS, nanos);
+            mValues.addAndGet(ROWS, rows);
+            updateMax(mValues, MAX_NANOS, nanos);
+            if (nanos >= slowNanos) {
+                mValues.incrementAndGet(SLOW);
+            }
+            int bucket = Math.min(HISTOGRAM_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos / 1000));
+            mValues.incrementAndGet(BUCKETS + bucket);
+        }
+
+        static void updateMax(AtomicLongArray values, int index, long value) {
+            long max = values.get(index);
+            while (value > max && !values.compareAndSet(index, max, value)) {
+                max = values.get(index);
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < mValues.length(); i++) {
+                mValues.set(i, 0);
+            }
+        }
+
+        /**
+         * @return the upper bound of the duration of the given fraction of the operations, in microseconds
+         */
+        long percentileMicros(double fraction) {
+            long count = mValues.get(COUNT);
+            long target = (long) Math.ceil(count * fraction);
+            long seen = 0;
+            for (int i = 0; i < HISTOGRAM_BUCKETS; i++) {
+                seen += mValues.get(BUCKETS + i);
+                if (seen >= target) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (HISTOGRAM_BUCKETS - 1);
+        }
+
+        void appendTo(StringBuilder sb) {
+            long count = mValues.get(COUNT);
+            sb.append(" count=").append(count);
+            if (count > 0) {
+                sb.append(" mean=").append(mValues.get(TOTAL_NANOS) / count / 1000).append("us")
+                        .append(" p50<").append(percentileMicros(0.5)).append("us")
+                        .append(" p90<").append(percentileMicros(0.9)).append("us")
+                        .append(" p99<").append(percentileMicros(0.99)).append("us")
+                        .append(" max=").append(mValues.get(MAX_NANOS) / 1000).append("us");
+            }
+            sb.append(" slow=").append(mValues.get(SLOW));
+        }
+    }
+}
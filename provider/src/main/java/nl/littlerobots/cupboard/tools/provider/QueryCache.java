@@ -0,0 +1,215 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Memory bounded cache of small query results. Results are materialized and every hit returns a new cursor. Entries are
+ * invalidated per entity class, or per entity for queries on a single entity.
+ * <p/>
+ * To prevent a result that was queried before a change was committed from being cached after it was invalidated, every
+ * entity class has a generation that is incremented on invalidation. Results are only cached if the generation is the
+ * same as before the query.
+ */
+final class QueryCache {
+    private static final char SEPARATOR = '\u0000';
+    private static final int ROW_OVERHEAD = 16;
+    private static final int VALUE_OVERHEAD = 16;
+
+    private final int mMaxRows;
+    private final LruCache<String, Entry> mEntries;
+    private final Map<Class<?>, Long> mGenerations = new HashMap<Class<?>, Long>();
+    private long mGeneration;
+
+    QueryCache(int maxSizeBytes, int maxRows) {
+        mMaxRows = maxRows;
+        mEntries = new LruCache<String, Entry>(maxSizeBytes) {
+            @Override
+            protected int sizeOf(String key, Entry value) {
+                return value.mSize;
+            }
+        };
+    }
+
+    static String key(Uri uri, String[] projection, String selection, String[] selectionArgs, String sortOrder) {
+        StringBuilder sb = new StringBuilder(128);
+        sb.append(uri.toString()).append(SEPARATOR);
+        if (projection != null) {
+            for (String column : projection) {
+                sb.append(column).append(',');
+            }
+        }
+        sb.append(SEPARATOR).append(selection).append(SEPARATOR);
+        if (selectionArgs != null) {
+            for (String arg : selectionArgs) {
+                sb.append(arg).append(SEPARATOR);
+            }
+        }
+        return sb.append(SEPARATOR).append(sortOrder).toString();
+    }
+
+    /**
+     * @return a new cursor for the cached result, or null if there is no cached result
+     */
+    Cursor get(String key) {
+        Entry entry = mEntries.get(key);
+        return entry != null ? entry.newCursor() : null;
+    }
+
+    /**
+     * @return the current generation of an entity class, to be passed to {@link #put(String, Class, long, long, Cursor)}
+     */
+    synchronized long getGeneration(Class<?> entityClass) {
+        Long generation = mGenerations.get(entityClass);
+        if (generation == null) {
+            generation = mGeneration;
+            mGenerations.put(entityClass, generation);
+        }
+        return generation;
+    }
+
+    /**
+     * Cache a query result if it has no more than the maximum number of rows
+     *
+     * @param key         the key, as returned by {@link #key(Uri, String[], String, String[], String)}
+     * @param entityClass the queried entity class
+     * @param id          the queried id, or {@link UriMatch#NO_ID} for a collection
+     * @param generation  the generation of the entity class before the query was executed
+     * @param cursor      the query result
+     * @return the cursor to return to the caller, which is a copy if the result was cached
+     */
+    Cursor put(String key, Class<?> entityClass, long id, long generation, Cursor cursor) {
+        if (cursor == null || cursor.getCount() > mMaxRows) {
+            return cursor;
+        }
+        Entry entry;
+        try {
+            entry = new Entry(entityClass, id, cursor);
+        } finally {
+            cursor.close();
+        }
+        synchronized (this) {
+            if (getGeneration(entityClass) == generation) {
+                mEntries.put(key, entry);
+            }
+        }
+        return entry.newCursor();
+    }
+
+    /**
+     * Invalidate the cached results for an entity class
+     *
+     * @param entityClass the entity class
+     * @param id          the id of the changed entity, or {@link UriMatch#NO_ID} if any entity may have changed
+     */
+    synchronized void invalidate(Class<?> entityClass, long id) {
+        mGenerations.put(entityClass, ++mGeneration);
+        for (Map.Entry<String, Entry> cached : mEntries.snapshot().entrySet()) {
+            Entry entry = cached.getValue();
+            if (entry.mEntityClass == entityClass && (id == UriMatch.NO_ID || entry.mId == UriMatch.NO_ID || entry.mId == id)) {
+                mEntries.remove(cached.getKey());
+            }
+        }
+    }
+
+    /**
+     * Invalidate all cached results
+     */
+    synchronized void invalidateAll() {
+        mGenerations.clear();
+        mGeneration++;
+        mEntries.evictAll();
+    }
+
+    private static final class Entry {
+        final Class<?> mEntityClass;
+        final long mId;
+        final String[] mColumns;
+        final Object[][] mRows;
+        final int mSize;
+
+        Entry(Class<?> entityClass, long id, Cursor cursor) {
+            mEntityClass = entityClass;
+            mId = id;
+            mColumns = cursor.getColumnNames();
+            mRows = new Object[cursor.getCount()][];
+            int size = ROW_OVERHEAD;
+            for (String column : mColumns) {
+                size += VALUE_OVERHEAD + column.length() * 2;
+            }
+            cursor.moveToPosition(-1);
+            int row = 0;
+            while (cursor.moveToNext() && row < mRows.length) {
+                Object[] values = new Object[mColumns.length];
+                size += ROW_OVERHEAD;
+                for (int i = 0; i < values.length; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            values[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_FLOAT:
+                            values[i] = cursor.getDouble(i);
+                            break;
+                        case Cursor.FIELD_TYPE_STRING:
+                            String value = cursor.getString(i);
+                            values[i] = value;
+                            size += value.length() * 2;
+                            break;
+                        case Cursor.FIELD_TYPE_BLOB:
+                            byte[] blob = cursor.getBlob(i);
+                            values[i] = blob;
+                            size += blob.length;
+                            break;
+                        default:
+                            break;
+                    }
+                    size += VALUE_OVERHEAD;
+                }
+                mRows[row++] = values;
+            }
+            mSize = size;
+        }
+
+        Cursor newCursor() {
+            MatrixCursor cursor = new MatrixCursor(mColumns, mRows.length);
+            for (Object[] row : mRows) {
+                if (row == null) {
+                    break;
+                }
+                Object[] values = row;
+                for (int i = 0; i < row.length; i++) {
+                    if (row[i] instanceof byte[]) {
+                        // blobs are mutable, don't share them with the caller
+                        if (values == row) {
+                            values = row.clone();
+                        }
+                        values[i] = ((byte[]) row[i]).clone();
+                    }
+                }
+                cursor.addRow(values);
+            }
+            return cursor;
+        }
+    }
+}
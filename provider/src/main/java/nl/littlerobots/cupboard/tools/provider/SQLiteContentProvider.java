@@ -24,10 +24,23 @@ import android.content.OperationApplicationException;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.database.sqlite.SQLiteTransactionListener;
 import android.net.Uri;
+import android.os.Binder;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import nl.qbusict.cupboard.CupboardDatabase;
 
@@ -37,18 +50,108 @@ import nl.qbusict.cupboard.CupboardDatabase;
 public abstract class SQLiteContentProvider extends ContentProvider
         implements TransactionListener {
 
+    /**
+     * Method for {@link #call(String, String, Bundle)} that suspends notifications like {@link #suspendNotifications()}.
+     * Requires the write permission of the provider. The suspension belongs to the calling uid and is only resumed by
+     * {@link #METHOD_RESUME_NOTIFICATIONS} from the same uid. A suspension that is not resumed within
+     * {@link #getMaxNotificationSuspendMillis()}, for example because the client crashed, expires.
+     */
+    public static final String METHOD_SUSPEND_NOTIFICATIONS = "suspendNotifications";
+    /**
+     * Method for {@link #call(String, String, Bundle)} that resumes the notifications suspended by the calling uid with
+     * {@link #METHOD_SUSPEND_NOTIFICATIONS}. Requires the write permission of the provider. Ignored if the calling uid
+     * has not suspended notifications.
+     */
+    public static final String METHOD_RESUME_NOTIFICATIONS = "resumeNotifications";
+    /**
+     * Method for {@link #call(String, String, Bundle)} that returns the metrics collected by the {@link ProviderMetrics}
+     * returned from {@link #getMetricsListener()} as {@link #EXTRA_METRICS}. Requires the read permission of the provider.
+     */
+    public static final String METHOD_DUMP_METRICS = "metrics";
+    /**
+     * Result extra of {@link #METHOD_DUMP_METRICS}: a human readable summary of the metrics
+     */
+    public static final String EXTRA_METRICS = "metrics";
+
     private static final String TAG = "SQLiteContentProvider";
     private static final int SLEEP_AFTER_YIELD_DELAY = 4000;
     /**
      * Maximum number of operations allowed in a batch between yield points.
      */
     private static final int MAX_OPERATIONS_PER_YIELD_POINT = 500;
+    /**
+     * Maximum number of bound variables in a single statement, SQLITE_MAX_VARIABLE_NUMBER on SQLite versions before 3.32.0
+     */
+    private static final int MAX_VARIABLES_PER_STATEMENT = 999;
+    /**
+     * Maximum time notifications are held back when notifications are suspended
+     */
+    private static final int MAX_NOTIFICATION_SUSPEND_MILLIS = 30000;
+    /**
+     * Target duration of a chunk of operations between automatic yield points
+     */
+    private static final int AUTO_YIELD_TARGET_MILLIS = 50;
+    private static final int MIN_OPERATIONS_PER_AUTO_YIELD = 10;
+    /**
+     * Number of read-only connections used for queries when write-ahead logging is enabled
+     */
+    private static final int READ_CONNECTION_POOL_SIZE = 2;
+    /**
+     * Queries that are run on every connection when pre-warming the database
+     */
+    private static final String[] PREWARM_QUERIES = {"SELECT count(*) FROM sqlite_master"};
+    /**
+     * Maximum number of writes that are committed in a single transaction when group commit is enabled
+     */
+    private static final int MAX_WRITES_PER_GROUP_COMMIT = 64;
+    /**
+     * Time to wait for more writes before committing a group
+     */
+    private static final int GROUP_COMMIT_WINDOW_MILLIS = 2;
     private final ThreadLocal<Boolean> mApplyingBatch = new ThreadLocal<Boolean>();
+    private final ThreadLocal<Boolean> mInTransaction = new ThreadLocal<Boolean>();
     protected CupboardProviderDatabase mDb;
     private SQLiteOpenHelper mOpenHelper;
     private volatile boolean mNotifyChange;
     private volatile boolean mSyncToNetwork;
+    private final ChangedUris mChangedUris = new ChangedUris();
+    private final PendingNotifications mPendingNotifications = new PendingNotifications();
+    private final Object mNotificationLock = new Object();
+    /**
+     * Notification suspensions by owner, the calling uid for {@link #call(String, String, Bundle)} or
+     * {@link #mLocalSuspensionOwner} for {@link #suspendNotifications()}, guarded by mNotificationLock
+     */
+    private final Map<Object, Suspension> mNotificationSuspensions = new HashMap<Object, Suspension>();
+    private final Object mLocalSuspensionOwner = new Object();
+    private boolean mNotificationFlushScheduled;
+    private Handler mNotificationHandler;
+    private AdaptiveChunkSize mAutoYieldChunkSize;
+    private GroupCommitQueue mGroupCommitQueue;
+    private final Runnable mFlushNotifications = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (mNotificationLock) {
+                mNotificationFlushScheduled = false;
+                expireNotificationSuspensionsLocked();
+            }
+            mPendingNotifications.deliver(SQLiteContentProvider.this);
+        }
+    };
     private volatile CupboardProviderDatabase mDatabase;
+    /**
+     * True if write-ahead logging is enabled on the current database, so that queries can use the read-only connections
+     */
+    private volatile boolean mWriteAheadLogging;
+    private final Object mOpenLock = new Object();
+    /**
+     * The database that is being set up by {@link #onDatabaseOpened(CupboardProviderDatabase)}, guarded by mOpenLock
+     */
+    private CupboardProviderDatabase mOpeningDatabase;
+    private final Object mReadDatabaseLock = new Object();
+    private CupboardProviderDatabase[] mReadDatabases;
+    private int mNextReadDatabase;
+    private MetricsListener mMetricsListener;
+    private volatile long mTransactionStartNanos;
 
     public interface CupboardProviderDatabase extends CupboardDatabase {
         void beginTransactionWithListener(nl.littlerobots.cupboard.tools.provider.TransactionListener listener);
@@ -59,6 +162,24 @@ public abstract class SQLiteContentProvider extends ContentProvider
          */
         boolean isClosed();
         boolean yieldIfContendedSafely(int sleepAfterYieldDelay);
+
+        /**
+         * Compile a statement for repeated execution on this database
+         * @param sql the sql, using ? for arguments
+         * @return the compiled statement
+         */
+        CompiledStatement compileStatement(String sql);
+
+        /**
+         * Enable write-ahead logging on this database, allowing reads on other connections while a transaction is in progress.
+         * @return true if write-ahead logging is enabled
+         */
+        boolean enableWriteAheadLogging();
+
+        /**
+         * Close the database connection
+         */
+        void close();
     }
 
     /**
@@ -68,13 +189,264 @@ public abstract class SQLiteContentProvider extends ContentProvider
         return MAX_OPERATIONS_PER_YIELD_POINT;
     }
 
+    /**
+     * @return Maximum number of bound variables that is used for a single statement.
+     */
+    public int getMaxVariablesPerStatement() {
+        return MAX_VARIABLES_PER_STATEMENT;
+    }
+
+    /**
+     * Whether {@link #bulkInsert(Uri, ContentValues[])} should insert batches of values at once using
+     * {@link #bulkInsertInTransaction(Uri, ContentValues[], int, int)}. Batches consist of consecutive values that have the
+     * same set of keys and yield points are placed between batches instead of between rows.
+     * <p/>
+     * Multi-row inserts require SQLite 3.7.11 or later, which is available on API 16 or when using a bundled SQLite
+     * implementation.
+     *
+     * @return true to enable batched inserts, false by default
+     */
+    protected boolean isBulkInsertBatchingEnabled() {
+        return false;
+    }
+
+    /**
+     * Delay for change notifications. All changes within this period are merged into a single notification for each
+     * changed uri.
+     *
+     * @return the delay in milliseconds, 0 by default to notify at the end of every transaction.
+     */
+    protected int getNotificationDelayMillis() {
+        return 0;
+    }
+
+    /**
+     * @return Maximum time in milliseconds that notifications are held back while notifications are suspended, or 0 to hold
+     * notifications until {@link #resumeNotifications()} is called. Suspensions of clients in other processes that are not
+     * resumed within this time expire.
+     */
+    protected int getMaxNotificationSuspendMillis() {
+        return MAX_NOTIFICATION_SUSPEND_MILLIS;
+    }
+
+    /**
+     * Whether {@link #applyBatch(ArrayList)} should add yield points when operations are applied without a yield point,
+     * instead of failing when more than {@link #getMaxOperationsPerYield()} operations are applied. The number of operations
+     * between automatic yield points adapts to the time it takes to apply them and is reduced when other threads are
+     * waiting for the database. Note that, like with regular yield points, the batch is no longer applied atomically
+     * when another thread acquires the database at a yield point.
+     *
+     * @return true to add automatic yield points, false by default
+     */
+    protected boolean isAutoYieldEnabled() {
+        return false;
+    }
+
+    /**
+     * @return the target time in milliseconds between automatic yield points.
+     * @see #isAutoYieldEnabled()
+     */
+    protected int getAutoYieldTargetMillis() {
+        return AUTO_YIELD_TARGET_MILLIS;
+    }
+
+    /**
+     * Whether the database should use write-ahead logging. With write-ahead logging enabled, queries from {@link #getReadableDatabase()}
+     * use a pool of read-only connections, so that they are not blocked by a transaction on the writable database.
+     * <p/>
+     * When overriding {@link #openDatabase()} to use a different SQLite implementation, {@link #openReadOnlyDatabase()} should be
+     * overridden as well.
+     *
+     * @return true to enable write-ahead logging, false by default
+     */
+    protected boolean isWriteAheadLoggingEnabled() {
+        return false;
+    }
+
+    /**
+     * Whether the database should be opened on a background thread right after {@link #onCreate()}, so that the first
+     * query doesn't pay for opening the database, upgrading the schema and filling the page cache. The pre-warm thread
+     * opens the writable database and, with write-ahead logging, the read-only connections, then calls
+     * {@link #onPrewarm(CupboardProviderDatabase)}. A query that arrives while the database is being opened waits for
+     * the open to complete instead of opening the database again.
+     * <p/>
+     * Note that pre-warming starts from {@link #onCreate()}, so subclasses that override {@link #onCreate()} should
+     * finish their initialization before calling through to super.
+     *
+     * @return true to pre-warm the database, false by default
+     */
+    protected boolean isPrewarmEnabled() {
+        return false;
+    }
+
+    /**
+     * @return queries that are run on every connection when pre-warming, to load the schema and the pages that the first
+     * queries need into the cache. The default is a query on sqlite_master, which loads the schema.
+     * @see #isPrewarmEnabled()
+     */
+    protected String[] getPrewarmQueries() {
+        return PREWARM_QUERIES;
+    }
+
+    /**
+     * @return the number of read-only connections used when write-ahead logging is enabled, or 0 to run queries on the
+     * writable database.
+     * @see #isWriteAheadLoggingEnabled()
+     */
+    protected int getReadConnectionPoolSize() {
+        return READ_CONNECTION_POOL_SIZE;
+    }
+
+    /**
+     * Whether single inserts, updates and deletes from concurrent threads should be committed together in a single transaction,
+     * instead of a transaction per write. Writes that arrive while another write is committed are queued. The next thread
+     * to write then waits up to {@link #getGroupCommitWindowMillis()} for more threads to write, commits the queued writes
+     * at once and sends the change notifications for the group. A write without other writes waiting is committed right
+     * away, without waiting for the window. Each caller still gets its own result. If any of the writes fails, the group
+     * is rolled back and each write is retried in its own transaction, so that a failing write doesn't affect the others.
+     * <p/>
+     * Writes from other processes are grouped as well. The writes of a group are applied on the binder thread of one of
+     * the callers, with the calling identity ({@link android.os.Binder#getCallingUid()} and
+     * {@link android.os.Binder#getCallingPid()}) of the caller that made the write. {@link #getCallingPackage()} is not
+     * carried over to the thread that applies the group, so don't use it in {@link #insertInTransaction(Uri, ContentValues)},
+     * {@link #updateInTransaction(Uri, ContentValues, String, String[])} or {@link #deleteInTransaction(Uri, String, String[])}
+     * when group commit is enabled.
+     *
+     * @return true to enable group commit, false by default
+     */
+    protected boolean isGroupCommitEnabled() {
+        return false;
+    }
+
+    /**
+     * @return the maximum number of writes in a group commit
+     * @see #isGroupCommitEnabled()
+     */
+    protected int getMaxWritesPerGroupCommit() {
+        return MAX_WRITES_PER_GROUP_COMMIT;
+    }
+
+    /**
+     * @return the time in milliseconds to wait for more writes before a group is committed when other writes are already
+     * waiting, or 0 to only group the writes that arrive while the previous group is committed.
+     * @see #isGroupCommitEnabled()
+     */
+    protected int getGroupCommitWindowMillis() {
+        return GROUP_COMMIT_WINDOW_MILLIS;
+    }
+
+    private synchronized GroupCommitQueue getGroupCommitQueue() {
+        if (mGroupCommitQueue == null) {
+            mGroupCommitQueue = new GroupCommitQueue(new GroupCommitQueue.GroupWriter() {
+                @Override
+                public void applyGroup(List<GroupCommitQueue.Request> requests) {
+                    applyWriteGroup(requests);
+                }
+            }, getMaxWritesPerGroupCommit(), getGroupCommitWindowMillis());
+        }
+        return mGroupCommitQueue;
+    }
+
+    private synchronized AdaptiveChunkSize getAutoYieldChunkSize() {
+        if (mAutoYieldChunkSize == null) {
+            int maxOperations = getMaxOperationsPerYield();
+            mAutoYieldChunkSize = new AdaptiveChunkSize(Math.min(MIN_OPERATIONS_PER_AUTO_YIELD, maxOperations), maxOperations,
+                    getAutoYieldTargetMillis() * 1000000L);
+        }
+        return mAutoYieldChunkSize;
+    }
+
     @Override
     public boolean onCreate() {
         Context context = getContext();
         mOpenHelper = getDatabaseHelper(context);
+        mMetricsListener = getMetricsListener();
+        if (isPrewarmEnabled()) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    prewarm();
+                }
+            }, "CupboardPrewarm");
+            thread.start();
+        }
         return true;
     }
 
+    private void prewarm() {
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        long start = System.nanoTime();
+        try {
+            List<CupboardProviderDatabase> connections = new ArrayList<CupboardProviderDatabase>();
+            CupboardProviderDatabase db = getWritableDatabase();
+            connections.add(db);
+            if (mWriteAheadLogging) {
+                // opens every connection of the pool once, in the order they are handed out
+                for (int i = getReadConnectionPoolSize(); i > 0; i--) {
+                    CupboardProviderDatabase readDatabase = getReadableDatabase();
+                    if (!connections.contains(readDatabase)) {
+                        connections.add(readDatabase);
+                    }
+                }
+            }
+            for (String sql : getPrewarmQueries()) {
+                for (CupboardProviderDatabase connection : connections) {
+                    Cursor cursor = connection.rawQuery(sql, null);
+                    try {
+                        cursor.getCount();
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            }
+            onPrewarm(db);
+            Log.i(TAG, "Pre-warmed " + connections.size() + " connections in " + (System.nanoTime() - start) / 1000000 + "ms");
+        } catch (RuntimeException e) {
+            // the first query opens the database again and reports the error
+            Log.w(TAG, "Pre-warming the database failed", e);
+        }
+    }
+
+    /**
+     * Called on the pre-warm thread after the connections have been opened and the {@link #getPrewarmQueries() warm-up
+     * queries} have run, to prepare anything else that the first operations need, like compiled statements.
+     * The default implementation does nothing.
+     *
+     * @param db the writable database
+     * @see #isPrewarmEnabled()
+     */
+    protected void onPrewarm(CupboardProviderDatabase db) {
+    }
+
+    /**
+     * Return a listener that receives latency and row count metrics of the operations of this provider. Called once from
+     * {@link #onCreate()}. The default implementation returns null and no metrics are collected.
+     *
+     * @return the metrics listener, for example a {@link ProviderMetrics}, or null
+     */
+    protected MetricsListener getMetricsListener() {
+        return null;
+    }
+
+    /**
+     * Return the key metrics of operations on a uri are aggregated under. Keys should not contain ids or other
+     * parameters, so that the number of keys stays bounded. The default implementation returns the first path segment.
+     *
+     * @param uri the uri of the operation
+     * @return the key
+     */
+    protected String getMetricsKey(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        return segments.isEmpty() ? "" : segments.get(0);
+    }
+
+    /**
+     * @return the metrics listener of this provider, or null if metrics are not collected
+     */
+    final MetricsListener metrics() {
+        return mMetricsListener;
+    }
+
     protected abstract SQLiteOpenHelper getDatabaseHelper(Context context);
 
     /**
@@ -93,22 +465,188 @@ public abstract class SQLiteContentProvider extends ContentProvider
      */
     protected abstract int deleteInTransaction(Uri uri, String selection, String[] selectionArgs);
 
+    /**
+     * Insert a batch of values, invoked within a transaction when {@link #isBulkInsertBatchingEnabled()} returns true.
+     * All values in the batch have the same set of keys. The default implementation calls {@link #insertInTransaction(Uri, ContentValues)}
+     * for each of the values.
+     *
+     * @param uri    the uri
+     * @param values the values
+     * @param offset the index of the first value of the batch
+     * @param count  the number of values in the batch
+     * @return the number of inserted rows
+     */
+    protected int bulkInsertInTransaction(Uri uri, ContentValues[] values, int offset, int count) {
+        int inserted = 0;
+        for (int i = offset; i < offset + count; i++) {
+            if (insertInTransaction(uri, values[i]) != null) {
+                inserted++;
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Notify a change without any specific changed uris, for example after {@link #setSyncToNetwork()} was called in a
+     * transaction that didn't change any rows.
+     * <p/>
+     * This is only called when no changed uris were collected. Changes to uris are notified through
+     * {@link #notifyChange(Uri, boolean)} instead, so a subclass that wants to see every change should override that
+     * method as well.
+     *
+     * @param syncToNetwork true if the change should be synced to the network
+     */
     protected abstract void notifyChange(boolean syncToNetwork);
 
+    /**
+     * Notify a change for a uri that was changed in a transaction. The default implementation notifies the
+     * content resolver.
+     *
+     * @param uri           the changed uri
+     * @param syncToNetwork true if the change should be synced to the network
+     */
+    protected void notifyChange(Uri uri, boolean syncToNetwork) {
+        getContext().getContentResolver().notifyChange(uri, null, syncToNetwork);
+    }
+
+    /**
+     * Record a uri that changed in the current transaction. Changed uris are notified using {@link #notifyChange(Uri, boolean)}
+     * when the transaction ends. The uris that are passed to or returned from the insert, update and delete methods
+     * are recorded automatically.
+     *
+     * @param uri the changed uri
+     */
+    protected void addChangedUri(Uri uri) {
+        mChangedUris.add(uri);
+        mNotifyChange = true;
+    }
+
     public SQLiteOpenHelper getDatabaseHelper() {
         return mOpenHelper;
     }
 
     /**
      * Get a writeable database. This will return the cached instance from {@link #openDatabase()}, checking
-     * that the database connection is still valid.
+     * that the database connection is still valid. When another thread is opening the database, for example when
+     * {@link #isPrewarmEnabled() pre-warming}, this waits for that thread instead of opening the database again. A newly
+     * opened database is only returned to other threads after {@link #onDatabaseOpened(CupboardProviderDatabase)} has
+     * completed.
      * @return the database
      */
     final protected CupboardProviderDatabase getWritableDatabase() {
-        if (mDatabase == null || mDatabase.isClosed()) {
-            mDatabase = openDatabase();
+        CupboardProviderDatabase database = mDatabase;
+        if (database != null && !database.isClosed()) {
+            return database;
+        }
+        synchronized (mOpenLock) {
+            if (mOpeningDatabase != null) {
+                // called from onDatabaseOpened() on the thread that is opening the database
+                return mOpeningDatabase;
+            }
+            if (mDatabase == null || mDatabase.isClosed()) {
+                closeReadDatabases();
+                CupboardProviderDatabase db = openDatabase();
+                mWriteAheadLogging = isWriteAheadLoggingEnabled() && db.enableWriteAheadLogging();
+                if (isWriteAheadLoggingEnabled() && !mWriteAheadLogging) {
+                    Log.w(TAG, "Write-ahead logging could not be enabled, queries will use the writable database");
+                }
+                // other threads wait for the lock until the database is set up, since the fast path doesn't lock
+                mOpeningDatabase = db;
+                boolean opened = false;
+                try {
+                    onDatabaseOpened(db);
+                    opened = true;
+                } finally {
+                    mOpeningDatabase = null;
+                    if (!opened) {
+                        db.close();
+                    }
+                }
+                mDatabase = db;
+            }
+            return mDatabase;
+        }
+    }
+
+    /**
+     * Get a database for queries. When write-ahead logging is enabled this returns one of the read-only connections, opened
+     * with {@link #openReadOnlyDatabase()}. Otherwise, including when the database could not switch to write-ahead logging,
+     * for example an in-memory database, or when called from within a transaction of this provider so that
+     * uncommitted changes are visible, this returns {@link #getWritableDatabase()}.
+     *
+     * @return the database
+     */
+    final protected CupboardProviderDatabase getReadableDatabase() {
+        CupboardProviderDatabase writableDatabase = getWritableDatabase();
+        if (!mWriteAheadLogging || inTransaction()) {
+            return writableDatabase;
+        }
+        synchronized (mReadDatabaseLock) {
+            if (mReadDatabases == null) {
+                int poolSize = getReadConnectionPoolSize();
+                if (poolSize <= 0) {
+                    return writableDatabase;
+                }
+                mReadDatabases = new CupboardProviderDatabase[poolSize];
+            }
+            int index = mNextReadDatabase;
+            mNextReadDatabase = (index + 1) % mReadDatabases.length;
+            CupboardProviderDatabase db = mReadDatabases[index];
+            if (db == null || db.isClosed()) {
+                db = openReadOnlyDatabase();
+                if (db == null) {
+                    return writableDatabase;
+                }
+                mReadDatabases[index] = db;
+            }
+            return db;
         }
-        return mDatabase;
+    }
+
+    /**
+     * Open a read-only connection to the database, used by {@link #getReadableDatabase()} when write-ahead logging is enabled.
+     * This is called after the database has been opened for writing. The default implementation opens the database of
+     * the {@link SQLiteOpenHelper} using the platform SQLite implementation.
+     *
+     * @return the database, or null if read-only connections are not supported, for example for an in-memory database.
+     */
+    protected CupboardProviderDatabase openReadOnlyDatabase() {
+        String name = getDatabaseHelper().getDatabaseName();
+        if (name == null) {
+            return null;
+        }
+        File path = getContext().getDatabasePath(name);
+        return new PlatformSqliteCupboardProviderDatabase(SQLiteDatabase.openDatabase(path.getPath(), null, SQLiteDatabase.OPEN_READONLY));
+    }
+
+    private void closeReadDatabases() {
+        synchronized (mReadDatabaseLock) {
+            if (mReadDatabases == null) {
+                return;
+            }
+            for (int i = 0; i < mReadDatabases.length; i++) {
+                if (mReadDatabases[i] != null) {
+                    mReadDatabases[i].close();
+                    mReadDatabases[i] = null;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        closeReadDatabases();
+        super.shutdown();
+    }
+
+    /**
+     * Called when {@link #getWritableDatabase()} has (re)opened the database. Anything that is tied to the previous
+     * connection, like compiled statements, should be released here. Other threads that need the database wait until this
+     * method returns, calls to {@link #getWritableDatabase()} from this method return the new database.
+     *
+     * @param db the newly opened database
+     */
+    protected void onDatabaseOpened(CupboardProviderDatabase db) {
     }
 
     /**
@@ -124,17 +662,59 @@ public abstract class SQLiteContentProvider extends ContentProvider
         return mApplyingBatch.get() != null && mApplyingBatch.get();
     }
 
+    /**
+     * @return true if the current thread is in a transaction of this provider
+     */
+    boolean inTransaction() {
+        return mInTransaction.get() != null && mInTransaction.get();
+    }
+
     @Override
     public Uri insert(Uri uri, ContentValues values) {
+        if (!applyingBatch()) {
+            beforeWrite(uri);
+        }
+        MetricsListener metrics = mMetricsListener;
+        if (metrics == null) {
+            return insertInternal(uri, values);
+        }
+        long start = System.nanoTime();
+        Uri result = insertInternal(uri, values);
+        metrics.onOperation(getMetricsKey(uri), MetricsListener.OPERATION_INSERT, System.nanoTime() - start, result != null ? 1 : 0);
+        return result;
+    }
+
+    /**
+     * Called before a write on a uri starts its transaction, or for every operation before a batch starts its transaction.
+     * Implementations may block here, for example until the table of the uri is ready, but not while holding a transaction.
+     * The default implementation does nothing.
+     *
+     * @param uri the uri that will be written to
+     */
+    protected void beforeWrite(Uri uri) {
+    }
+
+    private Uri insertInternal(final Uri uri, final ContentValues values) {
         Uri result = null;
         boolean applyingBatch = applyingBatch();
-        if (!applyingBatch) {
+        if (!applyingBatch && isGroupCommitEnabled()) {
+            return (Uri) submitGroupWrite(new GroupCommitQueue.Write() {
+                @Override
+                public Object apply() {
+                    Uri result = insertInTransaction(uri, values);
+                    if (result != null) {
+                        addChangedUri(result);
+                    }
+                    return result;
+                }
+            });
+        } else if (!applyingBatch) {
             mDb = getWritableDatabase();
             mDb.beginTransactionWithListener(this);
             try {
                 result = insertInTransaction(uri, values);
                 if (result != null) {
-                    mNotifyChange = true;
+                    addChangedUri(result);
                 }
                 mDb.setTransactionSuccessful();
             } finally {
@@ -145,7 +725,7 @@ public abstract class SQLiteContentProvider extends ContentProvider
         } else {
             result = insertInTransaction(uri, values);
             if (result != null) {
-                mNotifyChange = true;
+                addChangedUri(result);
             }
         }
         return result;
@@ -153,20 +733,50 @@ public abstract class SQLiteContentProvider extends ContentProvider
 
     @Override
     public int bulkInsert(Uri uri, ContentValues[] values) {
+        if (!applyingBatch()) {
+            beforeWrite(uri);
+        }
+        MetricsListener metrics = mMetricsListener;
+        if (metrics == null) {
+            return bulkInsertInternal(uri, values);
+        }
+        long start = System.nanoTime();
+        int count = bulkInsertInternal(uri, values);
+        metrics.onOperation(getMetricsKey(uri), MetricsListener.OPERATION_BULK_INSERT, System.nanoTime() - start, count);
+        return count;
+    }
+
+    private int bulkInsertInternal(Uri uri, ContentValues[] values) {
         int numValues = values.length;
         mDb = getWritableDatabase();
         mDb.beginTransactionWithListener(this);
         try {
-            for (int i = 0; i < numValues; i++) {
-                Uri result = insertInTransaction(uri, values[i]);
-                if (result != null) {
-                    mNotifyChange = true;
+            if (isBulkInsertBatchingEnabled()) {
+                int offset = 0;
+                while (offset < numValues) {
+                    int count = getBulkInsertBatchSize(values, offset);
+                    if (bulkInsertInTransaction(uri, values, offset, count) > 0) {
+                        addChangedUri(uri);
+                    }
+                    offset += count;
+                    boolean savedNotifyChange = mNotifyChange;
+                    CupboardProviderDatabase savedDb = mDb;
+                    mDb.yieldIfContendedSafely();
+                    mDb = savedDb;
+                    mNotifyChange = savedNotifyChange;
+                }
+            } else {
+                for (int i = 0; i < numValues; i++) {
+                    Uri result = insertInTransaction(uri, values[i]);
+                    if (result != null) {
+                        addChangedUri(result);
+                    }
+                    boolean savedNotifyChange = mNotifyChange;
+                    CupboardProviderDatabase savedDb = mDb;
+                    mDb.yieldIfContendedSafely();
+                    mDb = savedDb;
+                    mNotifyChange = savedNotifyChange;
                 }
-                boolean savedNotifyChange = mNotifyChange;
-                CupboardProviderDatabase savedDb = mDb;
-                mDb.yieldIfContendedSafely();
-                mDb = savedDb;
-                mNotifyChange = savedNotifyChange;
             }
             mDb.setTransactionSuccessful();
         } finally {
@@ -177,17 +787,57 @@ public abstract class SQLiteContentProvider extends ContentProvider
         return numValues;
     }
 
+    /**
+     * Get the number of consecutive values starting at offset that have the same keys, limited by the maximum number of
+     * variables per statement.
+     */
+    private int getBulkInsertBatchSize(ContentValues[] values, int offset) {
+        ContentValues first = values[offset];
+        int maxRows = Math.max(1, getMaxVariablesPerStatement() / Math.max(1, first.size()));
+        int end = Math.min(values.length, offset + maxRows);
+        int i = offset + 1;
+        while (i < end && first.keySet().equals(values[i].keySet())) {
+            i++;
+        }
+        return i - offset;
+    }
+
     @Override
     public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        if (!applyingBatch()) {
+            beforeWrite(uri);
+        }
+        MetricsListener metrics = mMetricsListener;
+        if (metrics == null) {
+            return updateInternal(uri, values, selection, selectionArgs);
+        }
+        long start = System.nanoTime();
+        int count = updateInternal(uri, values, selection, selectionArgs);
+        metrics.onOperation(getMetricsKey(uri), MetricsListener.OPERATION_UPDATE, System.nanoTime() - start, count);
+        return count;
+    }
+
+    private int updateInternal(final Uri uri, final ContentValues values, final String selection, final String[] selectionArgs) {
         int count = 0;
         boolean applyingBatch = applyingBatch();
-        if (!applyingBatch) {
+        if (!applyingBatch && isGroupCommitEnabled()) {
+            return (Integer) submitGroupWrite(new GroupCommitQueue.Write() {
+                @Override
+                public Object apply() {
+                    int count = updateInTransaction(uri, values, selection, selectionArgs);
+                    if (count > 0) {
+                        addChangedUri(uri);
+                    }
+                    return count;
+                }
+            });
+        } else if (!applyingBatch) {
             mDb = getWritableDatabase();
             mDb.beginTransactionWithListener(this);
             try {
                 count = updateInTransaction(uri, values, selection, selectionArgs);
                 if (count > 0) {
-                    mNotifyChange = true;
+                    addChangedUri(uri);
                 }
                 mDb.setTransactionSuccessful();
             } finally {
@@ -198,7 +848,7 @@ public abstract class SQLiteContentProvider extends ContentProvider
         } else {
             count = updateInTransaction(uri, values, selection, selectionArgs);
             if (count > 0) {
-                mNotifyChange = true;
+                addChangedUri(uri);
             }
         }
 
@@ -207,15 +857,40 @@ public abstract class SQLiteContentProvider extends ContentProvider
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        if (!applyingBatch()) {
+            beforeWrite(uri);
+        }
+        MetricsListener metrics = mMetricsListener;
+        if (metrics == null) {
+            return deleteInternal(uri, selection, selectionArgs);
+        }
+        long start = System.nanoTime();
+        int count = deleteInternal(uri, selection, selectionArgs);
+        metrics.onOperation(getMetricsKey(uri), MetricsListener.OPERATION_DELETE, System.nanoTime() - start, count);
+        return count;
+    }
+
+    private int deleteInternal(final Uri uri, final String selection, final String[] selectionArgs) {
         int count = 0;
         boolean applyingBatch = applyingBatch();
-        if (!applyingBatch) {
+        if (!applyingBatch && isGroupCommitEnabled()) {
+            return (Integer) submitGroupWrite(new GroupCommitQueue.Write() {
+                @Override
+                public Object apply() {
+                    int count = deleteInTransaction(uri, selection, selectionArgs);
+                    if (count > 0) {
+                        addChangedUri(uri);
+                    }
+                    return count;
+                }
+            });
+        } else if (!applyingBatch) {
             mDb = getWritableDatabase();
             mDb.beginTransactionWithListener(this);
             try {
                 count = deleteInTransaction(uri, selection, selectionArgs);
                 if (count > 0) {
-                    mNotifyChange = true;
+                    addChangedUri(uri);
                 }
                 mDb.setTransactionSuccessful();
             } finally {
@@ -226,17 +901,96 @@ public abstract class SQLiteContentProvider extends ContentProvider
         } else {
             count = deleteInTransaction(uri, selection, selectionArgs);
             if (count > 0) {
-                mNotifyChange = true;
+                addChangedUri(uri);
             }
         }
         return count;
     }
 
+    /**
+     * @return true if a write that is not part of a batch should go through the group commit queue
+     */
+    /**
+     * Submit a write for group commit. The group may be applied on the thread of another caller, so the write is applied
+     * with the calling identity of this thread. Permissions have already been checked on this thread by the framework.
+     */
+    private Object submitGroupWrite(final GroupCommitQueue.Write write) {
+        final long callingIdentity = Binder.clearCallingIdentity();
+        Binder.restoreCallingIdentity(callingIdentity);
+        return getGroupCommitQueue().submit(new GroupCommitQueue.Write() {
+            @Override
+            public Object apply() {
+                long applyingIdentity = Binder.clearCallingIdentity();
+                Binder.restoreCallingIdentity(callingIdentity);
+                try {
+                    return write.apply();
+                } finally {
+                    Binder.restoreCallingIdentity(applyingIdentity);
+                }
+            }
+        });
+    }
+
+    /**
+     * Apply a group of writes from the group commit queue in a single transaction. Writes that are made from within a
+     * write, for example an insert that calls {@link #update(Uri, ContentValues, String, String[])}, are applied directly
+     * as they would be in a batch.
+     */
+    private void applyWriteGroup(List<GroupCommitQueue.Request> requests) {
+        mApplyingBatch.set(true);
+        try {
+            if (requests.size() > 1 && applyGroupInTransaction(requests)) {
+                return;
+            }
+            for (GroupCommitQueue.Request request : requests) {
+                applyGroupInTransaction(Collections.singletonList(request));
+            }
+        } finally {
+            mApplyingBatch.set(false);
+        }
+    }
+
+    /**
+     * @return true if the transaction was committed. If a single request was applied, its error is set instead.
+     */
+    private boolean applyGroupInTransaction(List<GroupCommitQueue.Request> requests) {
+        boolean committed = false;
+        try {
+            mDb = getWritableDatabase();
+            mDb.beginTransactionWithListener(this);
+            try {
+                for (GroupCommitQueue.Request request : requests) {
+                    request.mResult = request.mWrite.apply();
+                }
+                mDb.setTransactionSuccessful();
+                committed = true;
+            } finally {
+                mDb.endTransaction();
+            }
+        } catch (RuntimeException e) {
+            committed = false;
+            if (requests.size() == 1) {
+                requests.get(0).mError = e;
+            }
+        }
+        if (committed || requests.size() == 1) {
+            onEndTransaction();
+        }
+        return committed;
+    }
+
     @Override
     public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
             throws OperationApplicationException {
         int ypCount = 0;
         int opCount = 0;
+        AdaptiveChunkSize autoYieldChunkSize = isAutoYieldEnabled() ? getAutoYieldChunkSize() : null;
+        long chunkStart = System.nanoTime();
+        long batchStart = chunkStart;
+        boolean successful = false;
+        for (ContentProviderOperation operation : operations) {
+            beforeWrite(operation.getUri());
+        }
         mDb = getWritableDatabase();
         mDb.beginTransactionWithListener(this);
         try {
@@ -244,47 +998,70 @@ public abstract class SQLiteContentProvider extends ContentProvider
             final int numOperations = operations.size();
             final ContentProviderResult[] results = new ContentProviderResult[numOperations];
             for (int i = 0; i < numOperations; i++) {
-                if (++opCount > getMaxOperationsPerYield()) {
+                boolean autoYieldPoint = autoYieldChunkSize != null && i > 0 && opCount >= autoYieldChunkSize.get();
+                if (++opCount > getMaxOperationsPerYield() && !autoYieldPoint) {
                     throw new OperationApplicationException(
                             "Too many content provider operations between yield points. "
                                     + "The maximum number of operations per yield point is "
                                     + MAX_OPERATIONS_PER_YIELD_POINT, ypCount);
                 }
                 final ContentProviderOperation operation = operations.get(i);
-                if (i > 0 && operation.isYieldAllowed()) {
+                if (i > 0 && (autoYieldPoint || operation.isYieldAllowed())) {
+                    int chunkOperations = opCount - 1;
+                    long chunkNanos = System.nanoTime() - chunkStart;
                     opCount = 0;
                     boolean savedNotifyChange = mNotifyChange;
-                    if (mDb.yieldIfContendedSafely(SLEEP_AFTER_YIELD_DELAY)) {
+                    boolean yielded = mDb.yieldIfContendedSafely(SLEEP_AFTER_YIELD_DELAY);
+                    if (yielded) {
                         mDb = getWritableDatabase();
                         mNotifyChange = savedNotifyChange;
                         ypCount++;
                     }
+                    if (autoYieldChunkSize != null) {
+                        autoYieldChunkSize.update(chunkOperations, chunkNanos, yielded);
+                        chunkStart = System.nanoTime();
+                    }
                 }
 
                 results[i] = operation.apply(this, results, i);
             }
             mDb.setTransactionSuccessful();
+            successful = true;
             return results;
         } finally {
             mApplyingBatch.set(false);
             mDb.endTransaction();
             onEndTransaction();
+            MetricsListener metrics = mMetricsListener;
+            if (successful && metrics != null) {
+                metrics.onBatch(operations.size(), ypCount, System.nanoTime() - batchStart);
+            }
         }
     }
 
     @Override
     public void onBegin() {
+        mInTransaction.set(true);
+        if (mMetricsListener != null) {
+            mTransactionStartNanos = System.nanoTime();
+        }
         onBeginTransaction();
     }
 
     @Override
     public void onCommit() {
         beforeTransactionCommit();
+        mInTransaction.set(false);
+        MetricsListener metrics = mMetricsListener;
+        if (metrics != null) {
+            // write transactions are serialized by the database, so a single start time is sufficient
+            metrics.onTransaction(System.nanoTime() - mTransactionStartNanos);
+        }
     }
 
     @Override
     public void onRollback() {
-        // not used
+        mInTransaction.set(false);
     }
 
     protected void onBeginTransaction() {
@@ -298,7 +1075,193 @@ public abstract class SQLiteContentProvider extends ContentProvider
             mNotifyChange = false;
             boolean sync = mSyncToNetwork;
             mSyncToNetwork = false;
-            notifyChange(sync);
+            List<Uri> changedUris = mChangedUris.drain();
+            onChanged(changedUris);
+            MetricsListener metrics = mMetricsListener;
+            if (metrics != null) {
+                metrics.onNotify(changedUris.isEmpty() ? 1 : changedUris.size());
+            }
+            boolean expired;
+            boolean held;
+            synchronized (mNotificationLock) {
+                expired = expireNotificationSuspensionsLocked();
+                boolean suspended = !mNotificationSuspensions.isEmpty();
+                int delay = suspended ? getMaxNotificationSuspendMillis() : getNotificationDelayMillis();
+                held = suspended || delay > 0;
+                if (held) {
+                    mPendingNotifications.add(changedUris, sync);
+                    if (delay > 0) {
+                        scheduleNotificationFlushLocked(delay);
+                    }
+                }
+            }
+            if (expired) {
+                // the last suspension expired, deliver what it held back
+                mPendingNotifications.deliver(this);
+            }
+            if (held) {
+                return;
+            }
+            if (changedUris.isEmpty()) {
+                notifyChange(sync);
+            } else {
+                for (Uri uri : changedUris) {
+                    notifyChange(uri, sync);
+                }
+            }
+        }
+    }
+
+    /**
+     * Called at the end of a transaction that changed data, before change notifications are sent or held back. This is
+     * called even if notifications are suspended or delayed.
+     *
+     * @param changedUris the uris that changed, or an empty list if the changed uris are not known
+     */
+    protected void onChanged(List<Uri> changedUris) {
+    }
+
+    /**
+     * Suspend change notifications until {@link #resumeNotifications()} is called. Changes made in the meantime are merged
+     * into a single notification per changed uri. Calls can be nested, notifications are resumed when every call to
+     * this method is matched by a call to {@link #resumeNotifications()}. To protect against clients that never resume,
+     * pending notifications are delivered after {@link #getMaxNotificationSuspendMillis()}.
+     * <p/>
+     * Calls of this method are shared by all callers in the provider's process. Clients in other processes suspend
+     * notifications with {@link #METHOD_SUSPEND_NOTIFICATIONS}, which is tracked per calling uid.
+     */
+    public void suspendNotifications() {
+        suspendNotifications(mLocalSuspensionOwner);
+    }
+
+    /**
+     * Resume change notifications that were suspended with {@link #suspendNotifications()}, delivering any pending notifications.
+     * Notifications stay suspended while a client that used {@link #METHOD_SUSPEND_NOTIFICATIONS} hasn't resumed.
+     *
+     * @throws IllegalStateException if notifications are not suspended
+     */
+    public void resumeNotifications() {
+        if (!resumeNotifications(mLocalSuspensionOwner)) {
+            throw new IllegalStateException("Notifications are not suspended");
+        }
+    }
+
+    private void suspendNotifications(Object owner) {
+        synchronized (mNotificationLock) {
+            Suspension suspension = mNotificationSuspensions.get(owner);
+            if (suspension == null) {
+                suspension = new Suspension(System.nanoTime());
+                mNotificationSuspensions.put(owner, suspension);
+            }
+            suspension.mCount++;
+        }
+    }
+
+    /**
+     * @return false if the owner has not suspended notifications
+     */
+    private boolean resumeNotifications(Object owner) {
+        synchronized (mNotificationLock) {
+            Suspension suspension = mNotificationSuspensions.get(owner);
+            if (suspension == null) {
+                return false;
+            }
+            if (--suspension.mCount > 0) {
+                return true;
+            }
+            mNotificationSuspensions.remove(owner);
+            if (!mNotificationSuspensions.isEmpty()) {
+                return true;
+            }
+            if (mNotificationFlushScheduled) {
+                mNotificationHandler.removeCallbacks(mFlushNotifications);
+                mNotificationFlushScheduled = false;
+            }
+        }
+        mPendingNotifications.deliver(this);
+        return true;
+    }
+
+    /**
+     * Drop the suspensions of clients in other processes that were not resumed within {@link #getMaxNotificationSuspendMillis()}.
+     * Suspensions in this process are always resumed by the code that suspended them.
+     *
+     * @return true if notifications were suspended and no suspensions are left
+     */
+    private boolean expireNotificationSuspensionsLocked() {
+        int maxSuspendMillis = getMaxNotificationSuspendMillis();
+        if (maxSuspendMillis <= 0 || mNotificationSuspensions.isEmpty()) {
+            return false;
+        }
+        long now = System.nanoTime();
+        Iterator<Map.Entry<Object, Suspension>> iterator = mNotificationSuspensions.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Object, Suspension> entry = iterator.next();
+            if (entry.getKey() != mLocalSuspensionOwner && now - entry.getValue().mStartNanos >= maxSuspendMillis * 1000000L) {
+                Log.w(TAG, "Notifications suspended by uid " + entry.getKey() + " were not resumed within " + maxSuspendMillis + "ms");
+                iterator.remove();
+            }
+        }
+        return mNotificationSuspensions.isEmpty();
+    }
+
+    private void scheduleNotificationFlushLocked(int delay) {
+        if (mNotificationFlushScheduled) {
+            return;
+        }
+        if (mNotificationHandler == null) {
+            HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+            thread.start();
+            mNotificationHandler = new Handler(thread.getLooper());
+        }
+        mNotificationHandler.postDelayed(mFlushNotifications, delay);
+        mNotificationFlushScheduled = true;
+    }
+
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        if (METHOD_SUSPEND_NOTIFICATIONS.equals(method)) {
+            enforceWritePermission();
+            suspendNotifications(Binder.getCallingUid());
+            return null;
+        } else if (METHOD_RESUME_NOTIFICATIONS.equals(method)) {
+            enforceWritePermission();
+            int uid = Binder.getCallingUid();
+            if (!resumeNotifications(uid)) {
+                Log.w(TAG, "Notifications are not suspended by uid " + uid);
+            }
+            return null;
+        } else if (METHOD_DUMP_METRICS.equals(method)) {
+            enforceReadPermission();
+            if (!(mMetricsListener instanceof ProviderMetrics)) {
+                return null;
+            }
+            Bundle result = new Bundle(1);
+            result.putString(EXTRA_METRICS, ((ProviderMetrics) mMetricsListener).dump());
+            return result;
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Enforce the read permission of this provider for methods invoked through {@link #call(String, String, Bundle)},
+     * which are not checked by the framework.
+     */
+    protected void enforceReadPermission() {
+        String permission = getReadPermission();
+        if (permission != null) {
+            getContext().enforceCallingOrSelfPermission(permission, "Reading from this provider requires " + permission);
+        }
+    }
+
+    /**
+     * Enforce the write permission of this provider for methods invoked through {@link #call(String, String, Bundle)},
+     * which are not checked by the framework.
+     */
+    protected void enforceWritePermission() {
+        String permission = getWritePermission();
+        if (permission != null) {
+            getContext().enforceCallingOrSelfPermission(permission, "Writing to this provider requires " + permission);
         }
     }
 
@@ -307,6 +1270,15 @@ public abstract class SQLiteContentProvider extends ContentProvider
         mNotifyChange = true;
     }
 
+    private static final class Suspension {
+        final long mStartNanos;
+        int mCount;
+
+        Suspension(long startNanos) {
+            mStartNanos = startNanos;
+        }
+    }
+
     private static class PlatformSqliteCupboardProviderDatabase implements CupboardProviderDatabase {
         private final SQLiteDatabase mDatabase;
 
@@ -403,5 +1375,78 @@ public abstract class SQLiteContentProvider extends ContentProvider
         public void execSQL(String sql) {
             mDatabase.execSQL(sql);
         }
+
+        @Override
+        public CompiledStatement compileStatement(String sql) {
+            return new PlatformCompiledStatement(mDatabase.compileStatement(sql));
+        }
+
+        @Override
+        public boolean enableWriteAheadLogging() {
+            return mDatabase.enableWriteAheadLogging();
+        }
+
+        @Override
+        public void close() {
+            mDatabase.close();
+        }
+    }
+
+    private static class PlatformCompiledStatement implements CompiledStatement {
+        private final SQLiteStatement mStatement;
+
+        public PlatformCompiledStatement(SQLiteStatement statement) {
+            mStatement = statement;
+        }
+
+        @Override
+        public void bindNull(int index) {
+            mStatement.bindNull(index);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            mStatement.bindLong(index, value);
+        }
+
+        @Override
+        public void bindDouble(int index, double value) {
+            mStatement.bindDouble(index, value);
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            mStatement.bindString(index, value);
+        }
+
+        @Override
+        public void bindBlob(int index, byte[] value) {
+            mStatement.bindBlob(index, value);
+        }
+
+        @Override
+        public void clearBindings() {
+            mStatement.clearBindings();
+        }
+
+        @Override
+        public long executeInsert() {
+            return mStatement.executeInsert();
+        }
+
+        @Override
+        public int executeUpdateDelete() {
+            return mStatement.executeUpdateDelete();
+        }
+
+        @Override
+        public long simpleQueryForLong() {
+            return mStatement.simpleQueryForLong();
+        }
+
+        @Override
+        public void close() {
+            mStatement.close();
+        }
     }
 }
\ No newline at end of file
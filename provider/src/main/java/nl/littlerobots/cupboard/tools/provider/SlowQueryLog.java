@@ -0,0 +1,173 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Bounded log of slow statements. Statements are grouped by their shape: the sql with literals replaced by ? and lists
+ * of arguments collapsed, so that the log isn't flooded by the same statement with different values. When the log is
+ * full, the shape that was seen least recently is dropped.
+ */
+final class SlowQueryLog {
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern ARGUMENT_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+    private static final Pattern INTEGER = Pattern.compile("-?\\d+");
+    private static final Pattern REAL = Pattern.compile("-?\\d*\\.\\d+(?:[eE][-+]?\\d+)?");
+
+    private final LinkedHashMap<String, Entry> mEntries;
+
+    SlowQueryLog(final int maxEntries) {
+        mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @return the shape of a statement, the sql without literal values
+     */
+    static String shape(String sql) {
+        String shape = STRING_LITERAL.matcher(sql).replaceAll("?");
+        shape = NUMBER_LITERAL.matcher(shape).replaceAll("?");
+        return ARGUMENT_LIST.matcher(shape).replaceAll("?, ...");
+    }
+
+    /**
+     * @return the shape of the arguments, the type each argument would be compared as without the value
+     */
+    static String argumentShape(String[] args) {
+        if (args == null || args.length == 0) {
+            return "[]";
+        }
+        StringBuilder sb = new StringBuilder(args.length * 9);
+        sb.append('[');
+        for (int i = 0; i < args.length; i++) {
+            if (i > 0) {
+                sb.append(", ");
+            }
+            String arg = args[i];
+            if (arg == null) {
+                sb.append("null");
+            } else if (INTEGER.matcher(arg).matches()) {
+                sb.append("integer");
+            } else if (REAL.matcher(arg).matches()) {
+                sb.append("real");
+            } else {
+                sb.append("text");
+            }
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * Record a slow statement
+     *
+     * @param sql           the sql of the statement
+     * @param args          the bound arguments
+     * @param durationNanos the duration of the statement
+     * @return true if this is the first time the shape of the statement is recorded and its plan should be captured
+     * using {@link #setPlan(String, String)}
+     */
+    synchronized boolean record(String sql, String[] args, long durationNanos) {
+        String shape = shape(sql);
+        Entry entry = mEntries.get(shape);
+        boolean added = entry == null;
+        if (added) {
+            entry = new Entry(shape);
+            mEntries.put(shape, entry);
+        }
+        entry.mCount++;
+        entry.mLastNanos = durationNanos;
+        entry.mMaxNanos = Math.max(entry.mMaxNanos, durationNanos);
+        entry.mArgumentShape = argumentShape(args);
+        return added;
+    }
+
+    /**
+     * Set the query plan of a statement, as returned by {@code EXPLAIN QUERY PLAN}
+     */
+    synchronized void setPlan(String sql, String plan) {
+        Entry entry = mEntries.get(shape(sql));
+        if (entry != null) {
+            entry.mPlan = plan;
+        }
+    }
+
+    /**
+     * @return true if the query plan contains a scan of a table without an index
+     */
+    static boolean isFullScan(String plan) {
+        for (String line : plan.split("\n")) {
+            String detail = line.trim();
+            if (detail.startsWith("SCAN") && !detail.contains(" USING ")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    synchronized int size() {
+        return mEntries.size();
+    }
+
+    synchronized void clear() {
+        mEntries.clear();
+    }
+
+    /**
+     * @return a human readable summary of the logged statements, least recently seen first
+     */
+    synchronized String dump() {
+        StringBuilder sb = new StringBuilder(mEntries.size() * 256);
+        for (Entry entry : mEntries.values()) {
+            sb.append(entry.mShape).append('\n');
+            sb.append("  count=").append(entry.mCount)
+                    .append(" last=").append(entry.mLastNanos / 1000000).append("ms")
+                    .append(" max=").append(entry.mMaxNanos / 1000000).append("ms")
+                    .append(" args=").append(entry.mArgumentShape);
+            if (entry.mPlan != null && isFullScan(entry.mPlan)) {
+                sb.append(" FULL SCAN");
+            }
+            sb.append('\n');
+            if (entry.mPlan != null) {
+                for (String line : entry.mPlan.split("\n")) {
+                    sb.append("  ").append(line).append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static final class Entry {
+        final String mShape;
+        String mArgumentShape;
+        String mPlan;
+        int mCount;
+        long mLastNanos;
+        long mMaxNanos;
+
+        Entry(String shape) {
+            mShape = shape;
+        }
+    }
+}
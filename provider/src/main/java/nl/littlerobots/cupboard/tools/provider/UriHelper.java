@@ -17,12 +17,15 @@
 package nl.littlerobots.cupboard.tools.provider;
 
 import android.annotation.SuppressLint;
-import android.content.UriMatcher;
 import android.net.Uri;
+import android.util.LruCache;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 
 import nl.qbusict.cupboard.Cupboard;
 
@@ -32,17 +35,34 @@ import static nl.qbusict.cupboard.CupboardFactory.cupboard;
  * Helper to create canonical {@link android.net.Uri}s for registered entities
  */
 public class UriHelper {
-    private final UriMatcher mMatcher;
+    /**
+     * Aggregate for {@link #getCountUri(Class)}
+     */
+    public static final String AGGREGATE_COUNT = "count";
+    /**
+     * Aggregate for {@link #getAggregateUri(Class, String, String)}: the minimum value of a column
+     */
+    public static final String AGGREGATE_MIN = "min";
+    /**
+     * Aggregate for {@link #getAggregateUri(Class, String, String)}: the maximum value of a column
+     */
+    public static final String AGGREGATE_MAX = "max";
+    /**
+     * Aggregate for {@link #getAggregateUri(Class, String, String)}: the sum of the values of a column
+     */
+    public static final String AGGREGATE_SUM = "sum";
+    private static final int NO_MATCH = -1;
+    private static final int MAX_CACHED_MATCHES = 128;
     private final String mAuthority;
     private final List<Class<?>> mEntities = new ArrayList<Class<?>>(20);
-    private final List<String> mPaths = new ArrayList<String>(20);
+    private final Map<Class<?>, Uri> mUris = new IdentityHashMap<Class<?>, Uri>(20);
+    private final Map<String, Integer> mPathIndex = new HashMap<String, Integer>(20);
     private final Uri mBaseUri;
-    private int mRuleCount = 0;
+    private final LruCache<String, UriMatch> mMatches = new LruCache<String, UriMatch>(MAX_CACHED_MATCHES);
 
 
     private UriHelper(Uri baseUri, List<Class<?>> entities) {
         mAuthority = baseUri.getAuthority();
-        mMatcher = new UriMatcher(UriMatcher.NO_MATCH);
         mBaseUri = baseUri;
         addAll(entities);
     }
@@ -106,14 +126,105 @@ public class UriHelper {
     }
 
     private void add(Class<?> clz, String path) {
-        int index = mEntities.indexOf(clz);
-        if (index > -1) {
+        if (mUris.containsKey(clz)) {
             throw new IllegalStateException("Entity "+clz + " already added.");
         }
-        mMatcher.addURI(mAuthority, path, mRuleCount++);
-        mMatcher.addURI(mAuthority, path + "/#", mRuleCount++);
+        mPathIndex.put(path, mEntities.size());
         mEntities.add(clz);
-        mPaths.add(path);
+        mUris.put(clz, Uri.parse("content://" + mAuthority + "/" + path));
+    }
+
+    /**
+     * Match the uri against the registered paths, equivalent to a {@link android.content.UriMatcher} with a "path" and "path/#"
+     * rule for each entity.
+     *
+     * @return the entity index times two for collection uris, plus one for item uris, or {@link #NO_MATCH}
+     */
+    private int match(Uri uri) {
+        if (!mAuthority.equals(uri.getAuthority())) {
+            return NO_MATCH;
+        }
+        List<String> segments = uri.getPathSegments();
+        int size = segments.size();
+        if (size == 0 || size > 2) {
+            return NO_MATCH;
+        }
+        Integer index = mPathIndex.get(segments.get(0));
+        if (index == null) {
+            return NO_MATCH;
+        }
+        if (size == 1) {
+            return index * 2;
+        }
+        return isNumber(segments.get(1)) ? index * 2 + 1 : NO_MATCH;
+    }
+
+    /**
+     * Match an aggregate uri, "path/count" or "path/aggregate/column"
+     *
+     * @return the match, or null if the uri isn't an aggregate uri
+     */
+    private UriMatch matchAggregate(Uri uri) {
+        if (!mAuthority.equals(uri.getAuthority())) {
+            return null;
+        }
+        List<String> segments = uri.getPathSegments();
+        int size = segments.size();
+        if (size < 2 || size > 3) {
+            return null;
+        }
+        Integer index = mPathIndex.get(segments.get(0));
+        if (index == null) {
+            return null;
+        }
+        String aggregate = segments.get(1);
+        if (size == 2 ? !AGGREGATE_COUNT.equals(aggregate) : !isColumnAggregate(aggregate)) {
+            return null;
+        }
+        Class<?> clz = mEntities.get(index);
+        return new UriMatch(clz, mUris.get(clz), UriMatch.NO_ID, aggregate, size == 3 ? segments.get(2) : null, uri);
+    }
+
+    private static boolean isColumnAggregate(String aggregate) {
+        return AGGREGATE_MIN.equals(aggregate) || AGGREGATE_MAX.equals(aggregate) || AGGREGATE_SUM.equals(aggregate);
+    }
+
+    private static boolean isNumber(String segment) {
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resolve the uri to the matching entity class, the id and the query parameters in a single pass. Results are cached
+     * by uri, so resolving the same uri again is cheap. Unlike {@link #matches(Uri)}, this also matches the aggregate uris
+     * returned by {@link #getCountUri(Class)} and {@link #getAggregateUri(Class, String, String)}.
+     *
+     * @param uri the uri
+     * @return the match, or null if the uri doesn't match any entity class
+     */
+    public UriMatch resolve(Uri uri) {
+        String key = uri.toString();
+        UriMatch match = mMatches.get(key);
+        if (match == null) {
+            int index = match(uri);
+            if (index == NO_MATCH) {
+                match = matchAggregate(uri);
+                if (match == null) {
+                    return null;
+                }
+            } else {
+                Class<?> clz = mEntities.get(index / 2);
+                long id = (index % 2) == 0 ? UriMatch.NO_ID : Long.parseLong(uri.getPathSegments().get(1));
+                match = new UriMatch(clz, mUris.get(clz), id, uri);
+            }
+            mMatches.put(key, match);
+        }
+        return match;
     }
 
     /**
@@ -123,8 +234,8 @@ public class UriHelper {
      * @throws java.lang.IllegalArgumentException if the uri doesn't match any entity class
      */
     public Class<?> getMatchedClass(Uri uri) {
-        int index = mMatcher.match(uri);
-        if (index > UriMatcher.NO_MATCH) {
+        int index = match(uri);
+        if (index > NO_MATCH) {
             return mEntities.get(index / 2);
         }
         throw new IllegalArgumentException("Uri " + uri.toString()+" does not match any class");
@@ -137,20 +248,57 @@ public class UriHelper {
      * @throws java.lang.IllegalArgumentException if the entity class doest not map to an uri
      */
     public Uri getUri(Class<?> clz) {
-        int index = mEntities.indexOf(clz);
-        if (index > -1) {
-            return Uri.parse("content://" + mAuthority + "/" + mPaths.get(index));
+        Uri uri = mUris.get(clz);
+        if (uri != null) {
+            return uri;
         }
         throw new IllegalArgumentException("Class " + clz.getName()+" cannot be mapped to an uri");
     }
 
+    /**
+     * Get the uri that counts the entities of a given class. Querying this uri returns a single row with the number
+     * of entities that match the selection.
+     * @param clz the entity class
+     * @return the uri
+     * @throws java.lang.IllegalArgumentException if the entity class doest not map to an uri
+     */
+    public Uri getCountUri(Class<?> clz) {
+        return getUri(clz).buildUpon().appendPath(AGGREGATE_COUNT).build();
+    }
+
+    /**
+     * Get the uri that aggregates a column of the entities of a given class. Querying this uri returns a single row with
+     * the aggregated value of the entities that match the selection.
+     * @param clz       the entity class
+     * @param aggregate one of {@link #AGGREGATE_MIN}, {@link #AGGREGATE_MAX} or {@link #AGGREGATE_SUM}
+     * @param column    the column to aggregate
+     * @return the uri
+     * @throws java.lang.IllegalArgumentException if the entity class doest not map to an uri or the aggregate is not supported
+     */
+    public Uri getAggregateUri(Class<?> clz, String aggregate, String column) {
+        if (!isColumnAggregate(aggregate)) {
+            throw new IllegalArgumentException("Unsupported aggregate " + aggregate);
+        }
+        return getUri(clz).buildUpon().appendPath(aggregate).appendPath(column).build();
+    }
+
+    /**
+     * Get the entity class for a path
+     * @param path the path of the entity uri, without leading slash
+     * @return the entity class or null if the path doesn't map to an entity class
+     */
+    Class<?> getClassForPath(String path) {
+        Integer index = mPathIndex.get(path);
+        return index != null ? mEntities.get(index) : null;
+    }
+
     /**
      * Test if the uri matches any entity classes
      * @param uri the uri to check
      * @return true if the uri matches, false otherwise
      */
     public boolean matches(Uri uri) {
-        return mMatcher.match(uri) > UriMatcher.NO_MATCH;
+        return match(uri) > NO_MATCH;
     }
 
     /**
@@ -159,8 +307,8 @@ public class UriHelper {
      * @return true if this uri represents a collection of entities, false otherwise
      */
     public boolean isCollection(Uri uri) {
-        int index = mMatcher.match(uri);
-        if (index > UriMatcher.NO_MATCH) {
+        int index = match(uri);
+        if (index > NO_MATCH) {
             return (index % 2) == 0;
         }
         return false;
@@ -0,0 +1,130 @@
+/*
+ *    Copyright 2015 Little Robots
+ *
+ *    Licensed under the Apache License, Version 2.0 (the "License");
+ *    you may not use this file except in compliance with the License.
+ *    You may obtain a copy of the License at
+ *
+ *        http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *    Unless required by applicable law or agreed to in writing, software
+ *    distributed under the License is distributed on an "AS IS" BASIS,
+ *    WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *    See the License for the specific language governing permissions and
+ *    limitations under the License.
+ */
+
+package nl.littlerobots.cupboard.tools.provider;
+
+import android.content.ContentUris;
+import android.net.Uri;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The result of matching a uri with {@link UriHelper#resolve(Uri)}. Instances are immutable and may be shared between
+ * calls for the same uri.
+ */
+public final class UriMatch {
+    /**
+     * Id returned by {@link #getId()} for collection uris
+     */
+    public static final long NO_ID = -1;
+    private final Class<?> mEntityClass;
+    private final Uri mEntityUri;
+    private final Uri mNotificationUri;
+    private final long mId;
+    private final String mAggregate;
+    private final String mAggregateColumn;
+    private final Map<String, String> mParameters;
+
+    UriMatch(Class<?> entityClass, Uri entityUri, long id, Uri uri) {
+        this(entityClass, entityUri, id, null, null, uri);
+    }
+
+    UriMatch(Class<?> entityClass, Uri entityUri, long id, String aggregate, String aggregateColumn, Uri uri) {
+        mEntityClass = entityClass;
+        mEntityUri = entityUri;
+        mId = id;
+        mAggregate = aggregate;
+        mAggregateColumn = aggregateColumn;
+        mNotificationUri = id == NO_ID ? entityUri : ContentUris.withAppendedId(entityUri, id);
+        mParameters = parseParameters(uri);
+    }
+
+    private static Map<String, String> parseParameters(Uri uri) {
+        if (uri.getEncodedQuery() == null) {
+            return Collections.emptyMap();
+        }
+        Set<String> names = uri.getQueryParameterNames();
+        Map<String, String> parameters = new HashMap<String, String>(names.size() * 2);
+        for (String name : names) {
+            parameters.put(name, uri.getQueryParameter(name));
+        }
+        return parameters;
+    }
+
+    /**
+     * @return the matched entity class
+     */
+    public Class<?> getEntityClass() {
+        return mEntityClass;
+    }
+
+    /**
+     * @return the canonical uri of the entity class, as returned by {@link UriHelper#getUri(Class)}
+     */
+    public Uri getEntityUri() {
+        return mEntityUri;
+    }
+
+    /**
+     * @return the uri that cursors for this uri should be notified on, the entity uri for collections or the entity uri
+     * with the id appended for a single entity
+     */
+    public Uri getNotificationUri() {
+        return mNotificationUri;
+    }
+
+    /**
+     * @return true if the uri represents a collection of entities, false if it represents a single entity. Aggregate
+     * uris represent a collection.
+     */
+    public boolean isCollection() {
+        return mId == NO_ID;
+    }
+
+    /**
+     * @return the id of the entity, or {@link #NO_ID} for a collection
+     */
+    public long getId() {
+        return mId;
+    }
+
+    /**
+     * @return the aggregate of an aggregate uri, like {@link UriHelper#AGGREGATE_COUNT}, or null if the uri is not an aggregate uri
+     */
+    public String getAggregate() {
+        return mAggregate;
+    }
+
+    /**
+     * @return the aggregated column of an aggregate uri, or null if the uri is not an aggregate uri or counts the entities
+     */
+    public String getAggregateColumn() {
+        return mAggregateColumn;
+    }
+
+    /**
+     * Get a query parameter of the matched uri. Parameters are parsed once per uri.
+     *
+     * @param name the name of the parameter
+     * @return the decoded value of the first parameter with the given name, or null if not present
+     */
+    public String getQueryParameter(String name) {
+        return mParameters.get(name);
+    }
+}
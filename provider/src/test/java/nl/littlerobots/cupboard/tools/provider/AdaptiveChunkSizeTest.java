@@ -0,0 +1,47 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class AdaptiveChunkSizeTest {
+    private static final long TARGET_NANOS = 50000000L;
+
+    @Test
+    public void testInitialSize() {
+        AdaptiveChunkSize chunkSize = new AdaptiveChunkSize(10, 500, TARGET_NANOS);
+        assertEquals(125, chunkSize.get());
+    }
+
+    @Test
+    public void testHalvesWhenContended() {
+        AdaptiveChunkSize chunkSize = new AdaptiveChunkSize(10, 500, TARGET_NANOS);
+        chunkSize.update(125, TARGET_NANOS, true);
+        assertEquals(62, chunkSize.get());
+        for (int i = 0; i < 10; i++) {
+            chunkSize.update(chunkSize.get(), TARGET_NANOS, true);
+        }
+        assertEquals(10, chunkSize.get());
+    }
+
+    @Test
+    public void testGrowsTowardsTargetWhenFast() {
+        AdaptiveChunkSize chunkSize = new AdaptiveChunkSize(10, 500, TARGET_NANOS);
+        // 125 operations in a fifth of the target time, so 625 operations would fit
+        chunkSize.update(125, TARGET_NANOS / 5, false);
+        assertEquals(313, chunkSize.get());
+        for (int i = 0; i < 20; i++) {
+            chunkSize.update(chunkSize.get(), TARGET_NANOS / 5, false);
+        }
+        assertEquals(500, chunkSize.get());
+    }
+
+    @Test
+    public void testShrinksWhenSlow() {
+        AdaptiveChunkSize chunkSize = new AdaptiveChunkSize(10, 500, TARGET_NANOS);
+        chunkSize.update(125, TARGET_NANOS * 5, false);
+        assertEquals(75, chunkSize.get());
+        assertTrue(chunkSize.get() >= 10);
+    }
+}
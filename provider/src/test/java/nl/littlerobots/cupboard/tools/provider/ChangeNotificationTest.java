@@ -0,0 +1,276 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.pm.ProviderInfo;
+import android.database.ContentObserver;
+import android.net.Uri;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+import static nl.littlerobots.cupboard.tools.provider.SQLiteContentProvider.METHOD_RESUME_NOTIFICATIONS;
+import static nl.littlerobots.cupboard.tools.provider.SQLiteContentProvider.METHOD_SUSPEND_NOTIFICATIONS;
+import static nl.littlerobots.cupboard.tools.provider.TestProvider.CHEESE_URI;
+import static nl.littlerobots.cupboard.tools.provider.TestProvider.cheese;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class ChangeNotificationTest {
+    private static final Uri ITEM_URI = ContentUris.withAppendedId(CHEESE_URI, 1);
+
+    private TestProvider mProvider;
+    private CountingObserver mBaseObserver;
+    private CountingObserver mEntityObserver;
+    private CountingObserver mItemObserver;
+
+    @Before
+    public void setUp() {
+        mProvider = TestProvider.attach(new TestProvider());
+        mBaseObserver = new CountingObserver();
+        mEntityObserver = new CountingObserver();
+        mItemObserver = new CountingObserver();
+        // observers only see notifications for their own uri, so each level is checked separately
+        ContentResolver resolver = RuntimeEnvironment.application.getContentResolver();
+        resolver.registerContentObserver(TestProvider.URIS.getBaseUri(), false, mBaseObserver);
+        resolver.registerContentObserver(CHEESE_URI, false, mEntityObserver);
+        resolver.registerContentObserver(ITEM_URI, false, mItemObserver);
+    }
+
+    @After
+    public void tearDown() {
+        ContentResolver resolver = RuntimeEnvironment.application.getContentResolver();
+        resolver.unregisterContentObserver(mBaseObserver);
+        resolver.unregisterContentObserver(mEntityObserver);
+        resolver.unregisterContentObserver(mItemObserver);
+        mProvider.close();
+    }
+
+    @Test
+    public void testInsertNotifiesItemUri() {
+        mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12));
+        assertEquals(Collections.singletonList(ITEM_URI.toString()), mProvider.mNotifications);
+        assertEquals(1, mItemObserver.mChanges);
+        assertEquals(0, mEntityObserver.mChanges);
+        assertEquals(0, mBaseObserver.mChanges);
+    }
+
+    @Test
+    public void testUpdateNotifiesUpdatedUri() {
+        mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12));
+        mProvider.mNotifications.clear();
+        mItemObserver.mChanges = 0;
+
+        ContentValues values = new ContentValues();
+        values.put("age", 13);
+        assertEquals(1, mProvider.update(CHEESE_URI, values, "name = ?", new String[]{"Gouda"}));
+        assertEquals(1, mEntityObserver.mChanges);
+        assertEquals(0, mItemObserver.mChanges);
+
+        assertEquals(1, mProvider.update(ITEM_URI, values, null, null));
+        assertEquals(1, mEntityObserver.mChanges);
+        assertEquals(1, mItemObserver.mChanges);
+        assertEquals(0, mBaseObserver.mChanges);
+        assertEquals(Arrays.asList(CHEESE_URI.toString(), ITEM_URI.toString()), mProvider.mNotifications);
+    }
+
+    @Test
+    public void testUpdateWithoutChangesDoesNotNotify() {
+        ContentValues values = new ContentValues();
+        values.put("age", 13);
+        assertEquals(0, mProvider.update(CHEESE_URI, values, null, null));
+        assertEquals(0, mProvider.mNotifications.size());
+        assertEquals(0, mEntityObserver.mChanges);
+    }
+
+    @Test
+    public void testFewItemUrisAreNotifiedSeparately() {
+        mProvider.bulkInsert(CHEESE_URI, createCheeses(3));
+        assertEquals(Arrays.asList(ITEM_URI.toString(), CHEESE_URI + "/2", CHEESE_URI + "/3"), mProvider.mNotifications);
+        assertEquals(1, mItemObserver.mChanges);
+        assertEquals(0, mEntityObserver.mChanges);
+    }
+
+    @Test
+    public void testManyItemUrisAreCollapsed() {
+        mProvider.bulkInsert(CHEESE_URI, createCheeses(ChangedUris.MAX_URIS + 5));
+        // the collection uri also notifies the item observers on a device, so the first item uris are dropped as well
+        assertEquals(Collections.singletonList(CHEESE_URI.toString()), mProvider.mNotifications);
+        assertEquals(1, mEntityObserver.mChanges);
+        assertEquals(0, mItemObserver.mChanges);
+        assertEquals(0, mBaseObserver.mChanges);
+    }
+
+    @Test
+    public void testSyncWithoutChangedUrisNotifiesBaseUri() {
+        mProvider.mSyncToNetworkOnUpdate = true;
+        ContentValues values = new ContentValues();
+        values.put("age", 13);
+        assertEquals(0, mProvider.update(CHEESE_URI, values, null, null));
+        assertEquals(Collections.singletonList("all sync"), mProvider.mNotifications);
+        assertEquals(1, mBaseObserver.mChanges);
+        assertEquals(0, mEntityObserver.mChanges);
+    }
+
+    @Test
+    public void testSyncWithChangedUrisOnlyNotifiesChangedUris() {
+        mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12));
+        mProvider.mNotifications.clear();
+        mProvider.mSyncToNetworkOnUpdate = true;
+        ContentValues values = new ContentValues();
+        values.put("age", 13);
+        assertEquals(1, mProvider.update(CHEESE_URI, values, null, null));
+        // notifyChange(boolean) is not called when there are changed uris
+        assertEquals(Collections.singletonList(CHEESE_URI + " sync"), mProvider.mNotifications);
+        assertEquals(1, mEntityObserver.mChanges);
+        assertEquals(0, mBaseObserver.mChanges);
+    }
+
+    @Test
+    public void testSuspendedNotificationsAreMerged() {
+        mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12));
+        mProvider.mNotifications.clear();
+        mItemObserver.mChanges = 0;
+
+        mProvider.suspendNotifications();
+        ContentValues values = new ContentValues();
+        values.put("age", 13);
+        mProvider.update(CHEESE_URI, values, null, null);
+        mProvider.update(ITEM_URI, values, null, null);
+        mProvider.insert(CHEESE_URI, cheese("Brie", 6.5, 2));
+        mProvider.mSyncToNetworkOnUpdate = true;
+        assertEquals(0, mProvider.update(CHEESE_URI, values, "name = ?", new String[]{"Edammer"}));
+        assertEquals(0, mProvider.update(CHEESE_URI, values, "name = ?", new String[]{"Edammer"}));
+        mProvider.update(CHEESE_URI, values, null, null);
+        assertEquals(0, mProvider.mNotifications.size());
+        assertEquals(0, mEntityObserver.mChanges + mItemObserver.mChanges + mBaseObserver.mChanges);
+
+        mProvider.resumeNotifications();
+        // one notification per uri, synced if any of the merged changes was synced
+        assertEquals(Arrays.asList(CHEESE_URI + " sync", ITEM_URI.toString(), CHEESE_URI + "/2", "all sync"),
+                mProvider.mNotifications);
+        assertEquals(1, mEntityObserver.mChanges);
+        assertEquals(1, mItemObserver.mChanges);
+        assertEquals(1, mBaseObserver.mChanges);
+    }
+
+    @Test
+    public void testNestedSuspendNotifications() {
+        mProvider.suspendNotifications();
+        mProvider.suspendNotifications();
+        mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12));
+        mProvider.resumeNotifications();
+        assertEquals(0, mProvider.mNotifications.size());
+        mProvider.insert(CHEESE_URI, cheese("Brie", 6.5, 2));
+        mProvider.resumeNotifications();
+        assertEquals(Arrays.asList(ITEM_URI.toString(), CHEESE_URI + "/2"), mProvider.mNotifications);
+        try {
+            mProvider.resumeNotifications();
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+        mProvider.insert(CHEESE_URI, cheese("Edammer", 3.5, 4));
+        assertEquals(3, mProvider.mNotifications.size());
+    }
+
+    @Test
+    public void testDelayedNotificationsAreMerged() {
+        mProvider.mNotificationDelayMillis = 60000;
+        mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12));
+        ContentValues values = new ContentValues();
+        values.put("age", 13);
+        mProvider.update(ITEM_URI, values, null, null);
+        mProvider.update(ITEM_URI, values, null, null);
+        mProvider.mSyncToNetworkOnUpdate = true;
+        mProvider.update(CHEESE_URI, values, null, null);
+        assertEquals(0, mProvider.mNotifications.size());
+        assertEquals(0, mItemObserver.mChanges);
+
+        // resuming delivers the pending notifications without waiting for the delay
+        mProvider.suspendNotifications();
+        mProvider.resumeNotifications();
+        assertEquals(Arrays.asList(ITEM_URI.toString(), CHEESE_URI + " sync"), mProvider.mNotifications);
+        assertEquals(1, mItemObserver.mChanges);
+        assertEquals(1, mEntityObserver.mChanges);
+    }
+
+    @Test
+    public void testClientSuspensionThatIsNeverResumedExpires() throws InterruptedException {
+        mProvider.mMaxNotificationSuspendMillis = 50;
+        mProvider.call(METHOD_SUSPEND_NOTIFICATIONS, null, null);
+        mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12));
+        assertEquals(0, mProvider.mNotifications.size());
+
+        Thread.sleep(100);
+        // the client never resumes, the next write ends its suspension
+        mProvider.insert(CHEESE_URI, cheese("Brie", 6.5, 2));
+        assertEquals(Arrays.asList(ITEM_URI.toString(), CHEESE_URI + "/2"), mProvider.mNotifications);
+        mProvider.insert(CHEESE_URI, cheese("Edammer", 3.5, 4));
+        assertEquals(Arrays.asList(ITEM_URI.toString(), CHEESE_URI + "/2", CHEESE_URI + "/3"), mProvider.mNotifications);
+    }
+
+    @Test
+    public void testClientResumeOnlyResumesItsOwnSuspension() {
+        mProvider.suspendNotifications();
+        // not suspended by the client, ignored instead of throwing
+        mProvider.call(METHOD_RESUME_NOTIFICATIONS, null, null);
+        mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12));
+        assertEquals(0, mProvider.mNotifications.size());
+
+        mProvider.call(METHOD_SUSPEND_NOTIFICATIONS, null, null);
+        mProvider.call(METHOD_SUSPEND_NOTIFICATIONS, null, null);
+        mProvider.resumeNotifications();
+        mProvider.call(METHOD_RESUME_NOTIFICATIONS, null, null);
+        assertEquals(0, mProvider.mNotifications.size());
+        mProvider.call(METHOD_RESUME_NOTIFICATIONS, null, null);
+        assertEquals(Collections.singletonList(ITEM_URI.toString()), mProvider.mNotifications);
+    }
+
+    @Test
+    public void testSuspendRequiresWritePermission() {
+        TestProvider provider = new TestProvider();
+        ProviderInfo info = new ProviderInfo();
+        info.authority = TestProvider.AUTHORITY;
+        info.writePermission = "nl.littlerobots.cupboard.tools.provider.test.WRITE";
+        provider.attachInfo(RuntimeEnvironment.application, info);
+        try {
+            provider.call(METHOD_SUSPEND_NOTIFICATIONS, null, null);
+            fail("Expected SecurityException");
+        } catch (SecurityException expected) {
+        } finally {
+            provider.close();
+        }
+    }
+
+    private static ContentValues[] createCheeses(int count) {
+        ContentValues[] values = new ContentValues[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = cheese("Cheese " + i, 4.95, i);
+        }
+        return values;
+    }
+
+    private static class CountingObserver extends ContentObserver {
+        int mChanges;
+
+        CountingObserver() {
+            super(null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            mChanges++;
+        }
+    }
+}
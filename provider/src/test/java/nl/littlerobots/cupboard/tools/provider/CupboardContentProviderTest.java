@@ -0,0 +1,423 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+import android.os.ResultReceiver;
+import android.provider.BaseColumns;
+import android.util.JsonReader;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import nl.littlerobots.cupboard.tools.provider.TestProvider.Cheese;
+import nl.qbusict.cupboard.convert.EntityConverter.ColumnType;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static nl.littlerobots.cupboard.tools.provider.CupboardContentProvider.AFTER_ID_PARAMETER;
+import static nl.littlerobots.cupboard.tools.provider.CupboardContentProvider.AFTER_VALUE_PARAMETER;
+import static nl.littlerobots.cupboard.tools.provider.CupboardContentProvider.AGGREGATE_VALUE_COLUMN;
+import static nl.littlerobots.cupboard.tools.provider.CupboardContentProvider.EXTRA_FILE_DESCRIPTOR;
+import static nl.littlerobots.cupboard.tools.provider.CupboardContentProvider.EXTRA_IMPORTED_COUNT;
+import static nl.littlerobots.cupboard.tools.provider.CupboardContentProvider.EXTRA_NEXT_PAGE_URI;
+import static nl.littlerobots.cupboard.tools.provider.CupboardContentProvider.EXTRA_PROGRESS_RECEIVER;
+import static nl.littlerobots.cupboard.tools.provider.CupboardContentProvider.LIMIT_PARAMETER;
+import static nl.littlerobots.cupboard.tools.provider.CupboardContentProvider.METHOD_IMPORT;
+import static nl.littlerobots.cupboard.tools.provider.CupboardContentProvider.SEEK_COLUMN_PARAMETER;
+import static nl.littlerobots.cupboard.tools.provider.CupboardContentProvider.SEEK_DESCENDING_PARAMETER;
+import static nl.littlerobots.cupboard.tools.provider.TestProvider.CHEESE_URI;
+import static nl.littlerobots.cupboard.tools.provider.TestProvider.cheese;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class CupboardContentProviderTest {
+    private static final String INSERT_SQL = "INSERT INTO \"Cheese\" ";
+
+    private TestProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = TestProvider.attach(new TestProvider());
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.close();
+    }
+
+    @Test
+    public void testInsertStatementsAreCached() {
+        for (int i = 0; i < 3; i++) {
+            assertNotNull(mProvider.insert(CHEESE_URI, cheese("Gouda " + i, 4.95, i)));
+        }
+        assertEquals(1, mProvider.countCompiled(INSERT_SQL));
+        assertEquals(3, mProvider.countExecuted(INSERT_SQL));
+
+        // a different set of columns needs its own statement
+        ContentValues nameOnly = new ContentValues();
+        nameOnly.put("name", "Brie");
+        mProvider.insert(CHEESE_URI, nameOnly);
+        mProvider.insert(CHEESE_URI, cheese("Edammer", 3.5, 4));
+        assertEquals(2, mProvider.countCompiled(INSERT_SQL));
+        assertEquals(5, mProvider.count(CHEESE_URI));
+    }
+
+    @Test
+    public void testInsertStatementsAreCompiledAgainAfterReopen() {
+        mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12));
+        assertEquals(1, mProvider.countCompiled(INSERT_SQL));
+
+        // the statements of the closed connection can't be used anymore
+        mProvider.getDatabaseHelper().close();
+        mProvider.insert(CHEESE_URI, cheese("Brie", 6.5, 2));
+        assertEquals(2, mProvider.mOpenCount.get());
+        assertEquals(2, mProvider.countCompiled(INSERT_SQL));
+        mProvider.insert(CHEESE_URI, cheese("Edammer", 3.5, 4));
+        assertEquals(2, mProvider.countCompiled(INSERT_SQL));
+        assertEquals(3, mProvider.count(CHEESE_URI));
+    }
+
+    @Test
+    public void testBatchedBulkInsertIsChunkedByVariables() {
+        mProvider.mBulkInsertBatching = true;
+        ContentValues[] values = new ContentValues[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = cheese("Cheese " + i, i / 10d, i % 36);
+        }
+        assertEquals(1000, mProvider.bulkInsert(CHEESE_URI, values));
+        // 999 variables fit 333 rows of 3 columns, the last row is inserted on its own
+        assertEquals(Arrays.asList(333, 333, 333, 1), getExecutedInsertRows());
+        assertEquals(1000, mProvider.count(CHEESE_URI));
+        assertEquals(1, mProvider.mTransactionCount.get());
+    }
+
+    @Test
+    public void testBatchedBulkInsertIsChunkedByRows() {
+        mProvider.mBulkInsertBatching = true;
+        ContentValues[] values = new ContentValues[1200];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new ContentValues();
+            values[i].put("name", "Cheese " + i);
+        }
+        assertEquals(1200, mProvider.bulkInsert(CHEESE_URI, values));
+        // a batch of 999 single column rows is split at 500 rows per statement, followed by the remaining 201 rows
+        assertEquals(Arrays.asList(500, 499, 201), getExecutedInsertRows());
+        assertEquals(1200, mProvider.count(CHEESE_URI));
+    }
+
+    @Test
+    public void testFailedBatchedBulkInsertIsRolledBack() {
+        mProvider.mBulkInsertBatching = true;
+        mProvider.getDatabaseHelper().getWritableDatabase().execSQL("CREATE UNIQUE INDEX cheese_name ON Cheese (name)");
+        ContentValues[] values = new ContentValues[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = cheese("Cheese " + (i == 700 ? 10 : i), 4.95, 1);
+        }
+        try {
+            mProvider.bulkInsert(CHEESE_URI, values);
+            fail("Expected constraint violation");
+        } catch (SQLException expected) {
+        }
+        // the third statement fails on the duplicate name, the rows of the first two are not committed either
+        assertEquals(Arrays.asList(333, 333, 333), getExecutedInsertRows());
+        assertEquals(0, mProvider.count(CHEESE_URI));
+    }
+
+    @Test
+    public void testKeysetPaginationWithTies() {
+        insertAges(2, 1, 3, 1, 2, 3, 1);
+        Uri uri = CHEESE_URI.buildUpon().appendQueryParameter(SEEK_COLUMN_PARAMETER, "age")
+                .appendQueryParameter(LIMIT_PARAMETER, "2").build();
+        Cursor cursor = mProvider.query(uri, null, null, null, null);
+        assertEquals(2, cursor.getCount());
+        Uri nextPage = Uri.parse(cursor.getExtras().getString(EXTRA_NEXT_PAGE_URI));
+        cursor.close();
+        // the page ends halfway the rows with age 1, the next page continues after the _id of the last row
+        assertEquals("age", nextPage.getQueryParameter(SEEK_COLUMN_PARAMETER));
+        assertEquals("2", nextPage.getQueryParameter(LIMIT_PARAMETER));
+        assertEquals("4", nextPage.getQueryParameter(AFTER_ID_PARAMETER));
+        assertEquals("1", nextPage.getQueryParameter(AFTER_VALUE_PARAMETER));
+
+        assertEquals(Arrays.asList(2L, 4L, 7L, 1L, 5L, 3L, 6L), queryPages(uri, 4));
+    }
+
+    @Test
+    public void testKeysetPaginationDescending() {
+        insertAges(2, 1, 3, 1, 2, 3, 1);
+        Uri uri = CHEESE_URI.buildUpon().appendQueryParameter(SEEK_COLUMN_PARAMETER, "age")
+                .appendQueryParameter(SEEK_DESCENDING_PARAMETER, "true")
+                .appendQueryParameter(LIMIT_PARAMETER, "2").build();
+        assertEquals(Arrays.asList(6L, 3L, 5L, 1L, 7L, 4L, 2L), queryPages(uri, 4));
+
+        Uri byId = CHEESE_URI.buildUpon().appendQueryParameter(SEEK_DESCENDING_PARAMETER, "true")
+                .appendQueryParameter(LIMIT_PARAMETER, "3").build();
+        assertEquals(Arrays.asList(7L, 6L, 5L, 4L, 3L, 2L, 1L), queryPages(byId, 3));
+    }
+
+    @Test
+    public void testKeysetPaginationRejectsUnknownSeekColumn() {
+        insertAges(1, 2);
+        try {
+            mProvider.query(CHEESE_URI.buildUpon().appendQueryParameter(SEEK_COLUMN_PARAMETER, "age) OR (1").build(),
+                    null, null, null, null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            mProvider.query(CHEESE_URI.buildUpon().appendQueryParameter(SEEK_COLUMN_PARAMETER, "age")
+                    .appendQueryParameter(AFTER_ID_PARAMETER, "1").build(), null, null, null, null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void testUpsertUpdatesExistingRowsInPlace() {
+        mProvider.getWritableDatabase().execSQL("CREATE UNIQUE INDEX cheese_name ON Cheese (name)");
+        mProvider.mUpsertColumn = "name";
+        mProvider.mBulkInsertBatching = true;
+        long gouda = ContentUris.parseId(mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12)));
+        long brie = ContentUris.parseId(mProvider.insert(CHEESE_URI, cheese("Brie", 6.5, 2)));
+        // the id of an updated row is looked up, last_insert_rowid() would return the id of Brie
+        assertEquals(CHEESE_URI + "/" + gouda, mProvider.insert(CHEESE_URI, cheese("Gouda", 5.25, 13)).toString());
+
+        assertEquals(3, mProvider.bulkInsert(CHEESE_URI, new ContentValues[]{
+                cheese("Brie", 6.75, 3), cheese("Edammer", 3.5, 4), cheese("Gouda", 5.5, 14)}));
+        assertEquals(3, mProvider.count(CHEESE_URI));
+        assertEquals(Arrays.asList(gouda, 14L), queryIdAndAge("Gouda"));
+        assertEquals(Arrays.asList(brie, 3L), queryIdAndAge("Brie"));
+        long edammer = queryIdAndAge("Edammer").get(0);
+        assertTrue(edammer != gouda && edammer != brie);
+
+        // a new key after an existing one returns the id of the inserted row
+        Uri leerdammer = mProvider.insert(CHEESE_URI, cheese("Leerdammer", 4.25, 6));
+        assertEquals((long) queryIdAndAge("Leerdammer").get(0), ContentUris.parseId(leerdammer));
+        assertEquals(4, mProvider.count(CHEESE_URI));
+    }
+
+    @Test
+    public void testAggregateQueries() {
+        mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12));
+        mProvider.insert(CHEESE_URI, cheese("Brie", 6.5, 2));
+        mProvider.insert(CHEESE_URI, cheese("Edammer", 3.5, 4));
+        UriHelper uris = TestProvider.URIS;
+        assertEquals(3, queryAggregate(uris.getCountUri(Cheese.class), BaseColumns._COUNT, null), 0);
+        assertEquals(2, queryAggregate(uris.getCountUri(Cheese.class), BaseColumns._COUNT, "age > ?", "3"), 0);
+        assertEquals(3.5, queryAggregate(uris.getAggregateUri(Cheese.class, UriHelper.AGGREGATE_MIN, "price"),
+                AGGREGATE_VALUE_COLUMN, null), 0.001);
+        assertEquals(12, queryAggregate(uris.getAggregateUri(Cheese.class, UriHelper.AGGREGATE_MAX, "age"),
+                AGGREGATE_VALUE_COLUMN, null), 0);
+        assertEquals(14.95, queryAggregate(uris.getAggregateUri(Cheese.class, UriHelper.AGGREGATE_SUM, "price"),
+                AGGREGATE_VALUE_COLUMN, null), 0.001);
+        assertEquals(16, queryAggregate(uris.getAggregateUri(Cheese.class, UriHelper.AGGREGATE_SUM, "age"),
+                AGGREGATE_VALUE_COLUMN, "name != ?", "Brie"), 0);
+    }
+
+    @Test
+    public void testAggregateQueryRejectsUnknownColumn() {
+        try {
+            mProvider.query(TestProvider.URIS.getAggregateUri(Cheese.class, UriHelper.AGGREGATE_SUM, "weight"), null, null, null, null);
+            fail("Expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    /**
+     * @return the id and age of the only cheese with the name
+     */
+    private List<Long> queryIdAndAge(String name) {
+        Cursor cursor = mProvider.query(CHEESE_URI, new String[]{BaseColumns._ID, "age"}, "name = ?", new String[]{name}, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            cursor.moveToFirst();
+            return Arrays.asList(cursor.getLong(0), cursor.getLong(1));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Query an aggregate uri, which returns a single row
+     */
+    private double queryAggregate(Uri uri, String column, String selection, String... selectionArgs) {
+        Cursor cursor = mProvider.query(uri, null, selection, selectionArgs, null);
+        try {
+            assertEquals(1, cursor.getCount());
+            assertTrue(cursor.moveToFirst());
+            return cursor.getDouble(cursor.getColumnIndexOrThrow(column));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void testExportIsPaged() throws Exception {
+        mProvider.mBulkInsertBatching = true;
+        ContentValues[] values = new ContentValues[2500];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = cheese("Cheese " + i, i / 10d, i % 36);
+        }
+        mProvider.bulkInsert(CHEESE_URI, values);
+
+        Map<String, ColumnType> columns = new HashMap<>();
+        columns.put("_id", ColumnType.INTEGER);
+        columns.put("name", ColumnType.TEXT);
+        ParcelFileDescriptor file = mProvider.openFile(CHEESE_URI, "r");
+        JsonReader reader = new JsonReader(new InputStreamReader(new ParcelFileDescriptor.AutoCloseInputStream(file), "UTF-8"));
+        reader.setLenient(true);
+        int rows = 0;
+        try {
+            ContentValues row = new ContentValues();
+            while (NdJson.readRow(reader, columns, row)) {
+                // the pages of 1000 rows follow each other without gaps or duplicates
+                assertEquals(rows + 1, (long) row.getAsLong("_id"));
+                assertEquals("Cheese " + rows, row.getAsString("name"));
+                row.clear();
+                rows++;
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(2500, rows);
+    }
+
+    @Test
+    public void testExportCanOnlyBeOpenedForReading() {
+        try {
+            mProvider.openFile(CHEESE_URI, "w");
+            fail("Expected FileNotFoundException");
+        } catch (FileNotFoundException expected) {
+        }
+    }
+
+    @Test
+    public void testImportIsCommittedInChunks() throws IOException {
+        mProvider.mImportChunkSize = 3;
+        final List<Integer> progress = new ArrayList<>();
+        Bundle extras = new Bundle();
+        extras.putParcelable(EXTRA_FILE_DESCRIPTOR, writeFile("{\"name\":\"Gouda\",\"age\":12}", "{\"name\":\"Brie\"}",
+                "{\"name\":\"Edammer\"}", "{\"name\":\"Roquefort\"}", "{\"name\":\"Camembert\"}",
+                "{\"name\":\"Stilton\"}", "{\"name\":\"Feta\"}"));
+        extras.putParcelable(EXTRA_PROGRESS_RECEIVER, new ResultReceiver(null) {
+            @Override
+            protected void onReceiveResult(int resultCode, Bundle resultData) {
+                progress.add(resultData.getInt(EXTRA_IMPORTED_COUNT));
+            }
+        });
+
+        Bundle result = mProvider.call(METHOD_IMPORT, CHEESE_URI.toString(), extras);
+        assertEquals(7, result.getInt(EXTRA_IMPORTED_COUNT));
+        assertEquals(Arrays.asList(3, 6, 7), progress);
+        assertEquals(3, mProvider.mTransactionCount.get());
+        assertEquals(7, mProvider.count(CHEESE_URI));
+        // notifications were merged while importing, one for every inserted row
+        assertEquals(7, mProvider.mNotifications.size());
+    }
+
+    @Test
+    public void testFailedImportResumesNotifications() throws IOException {
+        mProvider.mImportChunkSize = 3;
+        Bundle extras = new Bundle();
+        extras.putParcelable(EXTRA_FILE_DESCRIPTOR, writeFile("{\"name\":\"Gouda\"}", "{\"name\":\"Brie\"}",
+                "{\"name\":\"Edammer\"}", "{\"name\":\"Roquefort\"}", "{\"name\": ]", "{\"name\":\"Feta\"}"));
+        try {
+            mProvider.call(METHOD_IMPORT, CHEESE_URI.toString(), extras);
+            fail("Expected IllegalStateException");
+        } catch (IllegalStateException expected) {
+        }
+        // the first chunk is committed, the row in the incomplete chunk is not
+        assertEquals(3, mProvider.count(CHEESE_URI));
+        assertEquals(3, mProvider.mNotifications.size());
+        try {
+            mProvider.resumeNotifications();
+            fail("Expected notifications to be resumed already");
+        } catch (IllegalStateException expected) {
+        }
+        mProvider.insert(CHEESE_URI, cheese("Stilton", 8.5, 6));
+        assertEquals(4, mProvider.mNotifications.size());
+    }
+
+    private static ParcelFileDescriptor writeFile(String... lines) throws IOException {
+        File file = File.createTempFile("import", null, RuntimeEnvironment.application.getCacheDir());
+        file.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    private void insertAges(int... ages) {
+        for (int i = 0; i < ages.length; i++) {
+            mProvider.insert(CHEESE_URI, cheese("Cheese " + i, 4.95, ages[i]));
+        }
+    }
+
+    /**
+     * Query all pages by following the {@link CupboardContentProvider#EXTRA_NEXT_PAGE_URI} of each page
+     *
+     * @return the _id of every row, in order
+     */
+    private List<Long> queryPages(Uri uri, int expectedPages) {
+        List<Long> ids = new ArrayList<>();
+        int pages = 0;
+        while (uri != null) {
+            Cursor cursor = mProvider.query(uri, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    ids.add(cursor.getLong(cursor.getColumnIndexOrThrow("_id")));
+                }
+                String nextPage = cursor.getExtras().getString(EXTRA_NEXT_PAGE_URI);
+                uri = nextPage != null ? Uri.parse(nextPage) : null;
+            } finally {
+                cursor.close();
+            }
+            pages++;
+        }
+        assertEquals(expectedPages, pages);
+        return ids;
+    }
+
+    /**
+     * @return the number of rows of each executed insert statement, in order
+     */
+    private List<Integer> getExecutedInsertRows() {
+        List<Integer> rows = new ArrayList<>();
+        for (String sql : mProvider.mExecutedSql) {
+            if (sql.startsWith(INSERT_SQL)) {
+                rows.add(sql.split("\\),\\(").length);
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,208 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.Cursor;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import nl.qbusict.cupboard.CupboardDatabase;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+import static nl.littlerobots.cupboard.tools.provider.TestProvider.CHEESE_URI;
+import static nl.littlerobots.cupboard.tools.provider.TestProvider.cheese;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class DatabaseOpenTest {
+    private static final String INSERT_SQL = "INSERT INTO \"Cheese\" ";
+
+    private TestProvider mProvider;
+
+    @Before
+    public void setUp() {
+        mProvider = TestProvider.attach(new TestProvider());
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.close();
+    }
+
+    @Test
+    public void testOpenIsSerialized() throws Exception {
+        mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12));
+        mProvider.getDatabaseHelper().close();
+
+        final Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mProvider.insert(CHEESE_URI, cheese("Brie", 6.5, 2));
+            }
+        });
+        final AtomicReference<Thread.State> writerState = new AtomicReference<>();
+        mProvider.mOnDatabaseOpened = new Runnable() {
+            @Override
+            public void run() {
+                writer.start();
+                awaitBlockedOrDone(writer);
+                writerState.set(writer.getState());
+            }
+        };
+        mProvider.getWritableDatabase();
+        writer.join(5000);
+        // the writer only got the database after the statements of the old connection were released
+        assertEquals(Thread.State.BLOCKED, writerState.get());
+        assertEquals(2, mProvider.count(CHEESE_URI));
+        assertEquals(2, mProvider.mOpenCount.get());
+    }
+
+    @Test
+    public void testPrewarmCompilesInsertStatement() throws Exception {
+        mProvider.close();
+        mProvider = attachPrewarmProvider();
+        assertTrue(mProvider.mPrewarmed.await(5, TimeUnit.SECONDS));
+        assertEquals(1, mProvider.countCompiled(INSERT_SQL));
+
+        mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12));
+        assertEquals(1, mProvider.countCompiled(INSERT_SQL));
+        assertEquals(1, mProvider.countExecuted(INSERT_SQL));
+        assertEquals(1, mProvider.mOpenCount.get());
+    }
+
+    @Test
+    public void testQueryWaitsForPrewarmOpen() throws Exception {
+        final Thread queryThread = Thread.currentThread();
+        final CountDownLatch opening = new CountDownLatch(1);
+        mProvider.close();
+        mProvider = new TestProvider();
+        mProvider.mPrewarm = true;
+        mProvider.mOnDatabaseOpened = new Runnable() {
+            @Override
+            public void run() {
+                // runs on the pre-warm thread, the query must wait for the database to be set up
+                opening.countDown();
+                awaitBlockedOrDone(queryThread);
+            }
+        };
+        TestProvider.attach(mProvider);
+        assertTrue(opening.await(5, TimeUnit.SECONDS));
+        assertEquals(0, mProvider.count(CHEESE_URI));
+        assertEquals(1, mProvider.mOpenCount.get());
+
+        assertTrue(mProvider.mPrewarmed.await(5, TimeUnit.SECONDS));
+        mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12));
+        assertEquals(1, mProvider.countCompiled(INSERT_SQL));
+        assertEquals(1, mProvider.mOpenCount.get());
+    }
+
+    @Test
+    public void testQueryRacingOpenWaitsForMigration() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            mProvider.insert(CHEESE_URI, cheese("Gouda " + i, 4.95, 0));
+        }
+        mProvider.getDatabaseHelper().close();
+        mProvider.mMigrations = Collections.<Migration>singletonList(new AgeMigration(200));
+
+        final AtomicInteger racingCount = new AtomicInteger(-1);
+        final Thread racer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                racingCount.set(countMigrated());
+            }
+        });
+        mProvider.mOnDatabaseOpened = new Runnable() {
+            @Override
+            public void run() {
+                // the database is opened but its migrations aren't scheduled yet, the racing query must not get it
+                racer.start();
+                awaitBlockedOrDone(racer);
+            }
+        };
+        assertEquals(3, countMigrated());
+        racer.join(5000);
+        assertEquals(3, racingCount.get());
+        assertEquals(2, mProvider.mOpenCount.get());
+    }
+
+    @Test
+    public void testDatabaseIsAvailableFromOnDatabaseOpened() {
+        mProvider.insert(CHEESE_URI, cheese("Gouda", 4.95, 12));
+        mProvider.getDatabaseHelper().close();
+        final AtomicInteger count = new AtomicInteger(-1);
+        mProvider.mOnDatabaseOpened = new Runnable() {
+            @Override
+            public void run() {
+                count.set(mProvider.count(CHEESE_URI));
+            }
+        };
+        assertEquals(1, mProvider.count(CHEESE_URI));
+        assertEquals(1, count.get());
+        // the query from onDatabaseOpened() used the database that was being opened instead of opening it again
+        assertEquals(2, mProvider.mOpenCount.get());
+    }
+
+    private static TestProvider attachPrewarmProvider() {
+        TestProvider provider = new TestProvider();
+        provider.mPrewarm = true;
+        return TestProvider.attach(provider);
+    }
+
+    private int countMigrated() {
+        Cursor cursor = mProvider.query(CHEESE_URI, null, "age = 1", null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Wait until the thread is waiting for a lock, or has completed
+     */
+    static void awaitBlockedOrDone(Thread thread) {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            Thread.State state = thread.getState();
+            if (state == Thread.State.BLOCKED || state == Thread.State.TERMINATED) {
+                return;
+            }
+            Thread.yield();
+        }
+        fail("Thread didn't block");
+    }
+
+    /**
+     * Sets the age of all cheeses to 1 in a single, slow chunk
+     */
+    private static class AgeMigration extends Migration {
+        private final long mDelayMillis;
+
+        AgeMigration(long delayMillis) {
+            super(TestProvider.Cheese.class, 1);
+            mDelayMillis = delayMillis;
+        }
+
+        @Override
+        public String migrateChunk(CupboardDatabase db, String resumeToken, int chunkSize) {
+            try {
+                Thread.sleep(mDelayMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            db.execSQL("UPDATE Cheese SET age = 1");
+            return null;
+        }
+    }
+}
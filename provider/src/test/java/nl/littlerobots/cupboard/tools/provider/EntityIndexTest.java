@@ -0,0 +1,55 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.fail;
+
+public class EntityIndexTest {
+
+    @Test
+    public void testCompositeIndex() {
+        EntityIndex index = EntityIndex.on(String.class).column("origin").descending("age").build();
+        assertEquals("cupboard_tools_idx_Cheese_origin_age", index.getName("Cheese"));
+        assertEquals("CREATE INDEX \"cupboard_tools_idx_Cheese_origin_age\" ON \"Cheese\" (\"origin\", \"age\" DESC)",
+                index.getCreateSql("Cheese"));
+    }
+
+    @Test
+    public void testPartialUniqueIndex() {
+        EntityIndex index = EntityIndex.on(String.class).column("code").unique().where("deleted = 0").name("active_codes").build();
+        assertEquals("cupboard_tools_idx_active_codes", index.getName("Cheese"));
+        assertEquals("CREATE UNIQUE INDEX \"cupboard_tools_idx_active_codes\" ON \"Cheese\" (\"code\") WHERE deleted = 0",
+                index.getCreateSql("Cheese"));
+    }
+
+    @Test
+    public void testPartialCoveringIndex() {
+        EntityIndex index = EntityIndex.on(String.class).column("code").include("name", "price").where("deleted = 0").build();
+        assertEquals("CREATE INDEX \"cupboard_tools_idx_Cheese_code_name_price\" ON \"Cheese\" (\"code\", \"name\", \"price\") WHERE deleted = 0",
+                index.getCreateSql("Cheese"));
+    }
+
+    @Test
+    public void testUniqueIndexCantIncludeColumns() {
+        try {
+            EntityIndex.on(String.class).column("code").include("name").unique().build();
+            fail("Expected exception");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testIndexWithoutColumns() {
+        try {
+            EntityIndex.on(String.class).build();
+            fail("Expected exception");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void testNormalize() {
+        assertEquals("CREATE INDEX \"a\" ON \"b\" (\"c\")", IndexManager.normalize(" CREATE INDEX \"a\"\n  ON \"b\" (\"c\")"));
+    }
+}
@@ -0,0 +1,44 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentValues;
+
+import static junit.framework.Assert.assertEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class ExternalKeysTest {
+
+    @Test
+    public void testBuildLookupSql() {
+        assertEquals("SELECT _id, \"remoteId\" FROM \"Cheese\" WHERE \"remoteId\" IN (?,?,?)",
+                ExternalKeys.buildLookupSql("Cheese", "remoteId", 3));
+    }
+
+    @Test
+    public void testFindRepeatedKey() {
+        ContentValues[] values = {row(null, "a"), row(null, "b"), row(5L, "a"), row(null, "c"), row(null, "b"), row(null, "d")};
+        // the row with an id replaces the existing row, so only the second "b" row is a repeat
+        assertEquals(4, ExternalKeys.findRepeatedKey(values, 0, values.length, "remoteId"));
+        assertEquals(6, ExternalKeys.findRepeatedKey(values, 4, 2, "remoteId"));
+    }
+
+    @Test
+    public void testFindRepeatedKeyIgnoresNullKeys() {
+        ContentValues[] values = {row(null, null), row(null, null)};
+        assertEquals(2, ExternalKeys.findRepeatedKey(values, 0, values.length, "remoteId"));
+    }
+
+    private static ContentValues row(Long id, String key) {
+        ContentValues values = new ContentValues();
+        if (id != null) {
+            values.put("_id", id);
+        }
+        values.put("remoteId", key);
+        return values;
+    }
+}
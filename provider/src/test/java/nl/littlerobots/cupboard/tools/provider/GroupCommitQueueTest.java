@@ -0,0 +1,126 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class GroupCommitQueueTest {
+    private static final int THREADS = 16;
+    private static final int WRITES_PER_THREAD = 50;
+
+    @Test
+    public void testConcurrentWritesAreGrouped() throws Exception {
+        final AtomicInteger groups = new AtomicInteger();
+        final GroupCommitQueue queue = new GroupCommitQueue(new GroupCommitQueue.GroupWriter() {
+            @Override
+            public void applyGroup(List<GroupCommitQueue.Request> requests) {
+                groups.incrementAndGet();
+                for (GroupCommitQueue.Request request : requests) {
+                    request.mResult = request.mWrite.apply();
+                }
+            }
+        }, 32, 5);
+        final AtomicInteger mismatches = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            final int thread = t;
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < WRITES_PER_THREAD; i++) {
+                        final int value = thread * WRITES_PER_THREAD + i;
+                        Object result = queue.submit(new GroupCommitQueue.Write() {
+                            @Override
+                            public Object apply() {
+                                return value;
+                            }
+                        });
+                        if (!Integer.valueOf(value).equals(result)) {
+                            mismatches.incrementAndGet();
+                        }
+                    }
+                }
+            });
+            threads.add(writer);
+            writer.start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, mismatches.get());
+        assertTrue("Expected fewer groups than writes, got " + groups.get(), groups.get() < THREADS * WRITES_PER_THREAD);
+    }
+
+    @Test
+    public void testErrorIsThrownToCaller() {
+        GroupCommitQueue queue = new GroupCommitQueue(new GroupCommitQueue.GroupWriter() {
+            @Override
+            public void applyGroup(List<GroupCommitQueue.Request> requests) {
+                for (GroupCommitQueue.Request request : requests) {
+                    try {
+                        request.mResult = request.mWrite.apply();
+                    } catch (RuntimeException e) {
+                        request.mError = e;
+                    }
+                }
+            }
+        }, 32, 0);
+        try {
+            queue.submit(new GroupCommitQueue.Write() {
+                @Override
+                public Object apply() {
+                    throw new IllegalArgumentException("Unknown uri");
+                }
+            });
+            fail("Expected exception");
+        } catch (IllegalArgumentException expected) {
+        }
+        assertEquals("ok", queue.submit(new GroupCommitQueue.Write() {
+            @Override
+            public Object apply() {
+                return "ok";
+            }
+        }));
+    }
+
+    @Test
+    public void testSingleWriteDoesNotWaitForWindow() {
+        final AtomicInteger groups = new AtomicInteger();
+        GroupCommitQueue queue = new GroupCommitQueue(new GroupCommitQueue.GroupWriter() {
+            @Override
+            public void applyGroup(List<GroupCommitQueue.Request> requests) {
+                groups.incrementAndGet();
+                for (GroupCommitQueue.Request request : requests) {
+                    request.mResult = request.mWrite.apply();
+                }
+            }
+        }, 32, 10000);
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            final int value = i;
+            assertEquals(value, queue.submit(new GroupCommitQueue.Write() {
+                @Override
+                public Object apply() {
+                    return value;
+                }
+            }));
+        }
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        assertTrue("Writes without contention waited " + elapsedMillis + "ms", elapsedMillis < 5000);
+        assertEquals(3, groups.get());
+    }
+}
@@ -0,0 +1,76 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+public class IdSelectionTest {
+
+    @Test
+    public void testIdsAreSortedDedupedAndChunked() {
+        List<IdSelection> selections = IdSelection.build(new long[]{5, 3, 1, 3, 4, 2}, null, 3);
+        assertEquals(2, selections.size());
+        assertEquals("_id IN (?,?,?)", selections.get(0).mSelection);
+        assertTrue(Arrays.equals(new String[]{"1", "2", "3"}, selections.get(0).mSelectionArgs));
+        assertEquals("_id IN (?,?)", selections.get(1).mSelection);
+        assertTrue(Arrays.equals(new String[]{"4", "5"}, selections.get(1).mSelectionArgs));
+    }
+
+    @Test
+    public void testRangesAreChunked() {
+        List<IdSelection> selections = IdSelection.build(new long[]{100}, new long[]{1, 10, 20, 30, 40, 40}, 5);
+        assertEquals(3, selections.size());
+        assertEquals("_id IN (?)", selections.get(0).mSelection);
+        assertEquals("(_id BETWEEN ? AND ?) OR (_id BETWEEN ? AND ?)", selections.get(1).mSelection);
+        assertTrue(Arrays.equals(new String[]{"1", "10", "20", "30"}, selections.get(1).mSelectionArgs));
+        assertEquals("(_id BETWEEN ? AND ?)", selections.get(2).mSelection);
+        assertTrue(Arrays.equals(new String[]{"40", "40"}, selections.get(2).mSelectionArgs));
+    }
+
+    @Test
+    public void testOverlappingRangesAreMerged() {
+        List<IdSelection> selections = IdSelection.build(null, new long[]{20, 30, 1, 10, 5, 15, 31, 35, 40, 40, 8, 9}, 999);
+        assertEquals(1, selections.size());
+        assertEquals("(_id BETWEEN ? AND ?) OR (_id BETWEEN ? AND ?) OR (_id BETWEEN ? AND ?)", selections.get(0).mSelection);
+        // 1 - 10, 5 - 15 and 8 - 9 overlap, 20 - 30 and 31 - 35 are adjacent
+        assertTrue(Arrays.equals(new String[]{"1", "15", "20", "35", "40", "40"}, selections.get(0).mSelectionArgs));
+    }
+
+    @Test
+    public void testIdsWithinRangesAreLeftOut() {
+        List<IdSelection> selections = IdSelection.build(new long[]{50, 5, 12, 40, 12, 1}, new long[]{40, 50, 1, 10}, 999);
+        assertEquals(2, selections.size());
+        assertEquals("_id IN (?)", selections.get(0).mSelection);
+        assertTrue(Arrays.equals(new String[]{"12"}, selections.get(0).mSelectionArgs));
+        assertTrue(Arrays.equals(new String[]{"1", "10", "40", "50"}, selections.get(1).mSelectionArgs));
+
+        selections = IdSelection.build(new long[]{3, 2}, new long[]{1, 3}, 999);
+        assertEquals(1, selections.size());
+        assertEquals("(_id BETWEEN ? AND ?)", selections.get(0).mSelection);
+    }
+
+    @Test
+    public void testEmpty() {
+        assertTrue(IdSelection.build(null, null, 999).isEmpty());
+        assertTrue(IdSelection.build(new long[0], new long[0], 999).isEmpty());
+    }
+
+    @Test
+    public void testInvalidRanges() {
+        try {
+            IdSelection.build(null, new long[]{1, 2, 3}, 999);
+            fail("Expected exception");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            IdSelection.build(null, new long[]{2, 1}, 999);
+            fail("Expected exception");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
@@ -0,0 +1,21 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static junit.framework.Assert.assertEquals;
+
+public class IndexAdvisorTest {
+    private static final List<String> COLUMNS = Arrays.asList("_id", "name", "origin", "age", "price");
+
+    @Test
+    public void testReferencedColumns() {
+        assertEquals(Arrays.asList("origin", "age", "name"),
+                IndexAdvisor.referencedColumns("origin = ? AND (age > 12 OR name = 'price') AND _id > ? AND origin != 'NL'", COLUMNS));
+        assertEquals(Arrays.asList("price", "name"), IndexAdvisor.referencedColumns("\"price\" DESC, name COLLATE NOCASE", COLUMNS));
+        assertEquals(0, IndexAdvisor.referencedColumns(null, COLUMNS).size());
+        assertEquals(0, IndexAdvisor.referencedColumns("unknown = 1", COLUMNS).size());
+    }
+}
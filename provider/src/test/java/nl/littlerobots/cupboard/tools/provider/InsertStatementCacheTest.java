@@ -0,0 +1,38 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class InsertStatementCacheTest {
+
+    @Test
+    public void testBuildUpsertSql() {
+        assertEquals("INSERT INTO \"Cheese\" (\"name\",\"remoteId\") VALUES (?,?),(?,?) ON CONFLICT(\"remoteId\") DO UPDATE SET \"name\"=excluded.\"name\"",
+                InsertStatementCache.buildUpsertSql("Cheese", "remoteId", new String[]{"name", "remoteId"}, 2));
+    }
+
+    @Test
+    public void testBuildUpsertSqlKeyOnly() {
+        assertEquals("INSERT INTO \"Cheese\" (\"remoteId\") VALUES (?) ON CONFLICT(\"remoteId\") DO NOTHING",
+                InsertStatementCache.buildUpsertSql("Cheese", "remoteId", new String[]{"remoteId"}, 1));
+    }
+
+    @Test
+    public void testBuildUpdateSql() {
+        assertEquals("UPDATE \"Cheese\" SET \"name\"=?,\"remoteId\"=? WHERE \"remoteId\"=?",
+                InsertStatementCache.buildUpdateSql("Cheese", "remoteId", new String[]{"name", "remoteId"}));
+    }
+
+    @Test
+    public void testIsUpsertSupported() {
+        assertFalse(InsertStatementCache.isUpsertSupported("3.8.10.2"));
+        assertFalse(InsertStatementCache.isUpsertSupported("3.22.0"));
+        assertTrue(InsertStatementCache.isUpsertSupported("3.24.0"));
+        assertTrue(InsertStatementCache.isUpsertSupported("3.32.2"));
+        assertTrue(InsertStatementCache.isUpsertSupported("4.0"));
+        assertFalse(InsertStatementCache.isUpsertSupported("unknown"));
+    }
+}
@@ -0,0 +1,155 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.qbusict.cupboard.CupboardDatabase;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class MigrationRunnerTest {
+
+    @Test
+    public void testMigrationIsResumedFromToken() {
+        RecordingDatabase db = new RecordingDatabase();
+        IdMigration migration = new IdMigration(25);
+        assertEquals(2, MigrationRunner.run(db, "Cheese_2", migration, "10"));
+        assertEquals(2, db.mCommits);
+        assertEquals(2, db.mProgress.size());
+        assertEquals("20", db.mProgress.get(0).getAsString(MigrationRunner.COLUMN_TOKEN));
+        assertEquals(0, (int) db.mProgress.get(0).getAsInteger(MigrationRunner.COLUMN_DONE));
+        assertNull(db.mProgress.get(1).getAsString(MigrationRunner.COLUMN_TOKEN));
+        assertEquals(1, (int) db.mProgress.get(1).getAsInteger(MigrationRunner.COLUMN_DONE));
+        assertEquals("Cheese_2", db.mProgress.get(1).getAsString(MigrationRunner.COLUMN_NAME));
+    }
+
+    @Test
+    public void testFailedChunkIsNotCommitted() {
+        RecordingDatabase db = new RecordingDatabase();
+        IdMigration migration = new IdMigration(25);
+        migration.mFailAt = 10;
+        try {
+            MigrationRunner.run(db, "Cheese_2", migration, null);
+            fail("Expected exception");
+        } catch (IllegalStateException expected) {
+        }
+        assertEquals(1, db.mCommits);
+        assertEquals(1, db.mRollbacks);
+    }
+
+    /**
+     * Migrates ids in chunks of 10, using the last migrated id as the token
+     */
+    private static class IdMigration extends Migration {
+        final int mRows;
+        int mFailAt = -1;
+
+        IdMigration(int rows) {
+            super(String.class, 2);
+            mRows = rows;
+        }
+
+        @Override
+        public int getChunkSize() {
+            return 10;
+        }
+
+        @Override
+        public String migrateChunk(CupboardDatabase db, String resumeToken, int chunkSize) {
+            int from = resumeToken == null ? 0 : Integer.parseInt(resumeToken);
+            if (from == mFailAt) {
+                throw new IllegalStateException("Failed");
+            }
+            int to = Math.min(mRows, from + chunkSize);
+            return to == mRows ? null : String.valueOf(to);
+        }
+    }
+
+    private static class RecordingDatabase implements CupboardDatabase {
+        final List<ContentValues> mProgress = new ArrayList<>();
+        int mCommits;
+        int mRollbacks;
+        private boolean mSuccessful;
+        private List<ContentValues> mPending = new ArrayList<>();
+
+        @Override
+        public long replaceOrThrow(String table, String nullColumnHack, ContentValues values) {
+            assertEquals(MigrationRunner.TABLE, table);
+            mPending.add(new ContentValues(values));
+            return 1;
+        }
+
+        @Override
+        public void beginTransaction() {
+            mSuccessful = false;
+            mPending = new ArrayList<>();
+        }
+
+        @Override
+        public void setTransactionSuccessful() {
+            mSuccessful = true;
+        }
+
+        @Override
+        public void endTransaction() {
+            if (mSuccessful) {
+                mProgress.addAll(mPending);
+                mCommits++;
+            } else {
+                mRollbacks++;
+            }
+        }
+
+        @Override
+        public long insertOrThrow(String table, String nullColumnHack, ContentValues values) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int update(String table, ContentValues values, String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Cursor query(boolean distinct, String table, String[] columns, String selection, String[] selectionArgs,
+                            String groupBy, String having, String orderBy, String limit) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Cursor rawQuery(String sql, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int delete(String table, String selection, String[] selectionArgs) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean inTransaction() {
+            return false;
+        }
+
+        @Override
+        public void yieldIfContendedSafely() {
+        }
+
+        @Override
+        public void execSQL(String sql) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
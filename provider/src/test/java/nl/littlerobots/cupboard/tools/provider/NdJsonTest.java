@@ -0,0 +1,71 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+import android.util.JsonReader;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import nl.qbusict.cupboard.convert.EntityConverter.ColumnType;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class NdJsonTest {
+
+    @Test
+    public void testWriteRows() throws Exception {
+        String[] columns = {"_id", "name", "price", "image", "origin"};
+        MatrixCursor cursor = new MatrixCursor(columns);
+        cursor.addRow(new Object[]{1L, "Gouda \"Oud\"", 12.5, new byte[]{1, 2, 3}, null});
+        cursor.addRow(new Object[]{2L, "Brie\n", 8L, null, "FR"});
+        StringWriter writer = new StringWriter();
+        while (cursor.moveToNext()) {
+            NdJson.writeRow(writer, columns, cursor);
+        }
+        assertEquals("{\"_id\":1,\"name\":\"Gouda \\\"Oud\\\"\",\"price\":12.5,\"image\":\"AQID\",\"origin\":null}\n"
+                + "{\"_id\":2,\"name\":\"Brie\\n\",\"price\":8,\"image\":null,\"origin\":\"FR\"}\n", writer.toString());
+    }
+
+    @Test
+    public void testReadRows() throws Exception {
+        Map<String, ColumnType> columns = new HashMap<>();
+        columns.put("_id", ColumnType.INTEGER);
+        columns.put("name", ColumnType.TEXT);
+        columns.put("price", ColumnType.REAL);
+        columns.put("image", ColumnType.BLOB);
+        columns.put("origin", ColumnType.TEXT);
+        JsonReader reader = new JsonReader(new StringReader("{\"_id\":1,\"name\":\"Gouda\",\"price\":8,\"image\":\"AQID\",\"origin\":null}\n"
+                + "{\"name\":\"Brie\",\"unknown\":{\"a\":[1]},\"origin\":33}\n"));
+        reader.setLenient(true);
+
+        ContentValues values = new ContentValues();
+        assertTrue(NdJson.readRow(reader, columns, values));
+        assertEquals(1L, values.get("_id"));
+        assertEquals("Gouda", values.get("name"));
+        assertEquals(8.0, values.get("price"));
+        assertEquals(3, values.getAsByteArray("image").length);
+        assertTrue(values.containsKey("origin"));
+        assertNull(values.get("origin"));
+
+        values = new ContentValues();
+        assertTrue(NdJson.readRow(reader, columns, values));
+        assertEquals(2, values.size());
+        assertEquals("Brie", values.get("name"));
+        assertEquals("33", values.get("origin"));
+
+        assertFalse(NdJson.readRow(reader, columns, new ContentValues()));
+    }
+}
@@ -0,0 +1,50 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertTrue;
+
+public class ProviderMetricsTest {
+
+    @Test
+    public void testOperationsAreAggregatedPerKey() {
+        ProviderMetrics metrics = new ProviderMetrics(10);
+        metrics.onOperation("Cheese", MetricsListener.OPERATION_QUERY, 1500000, 20);
+        metrics.onOperation("Cheese", MetricsListener.OPERATION_QUERY, 25000000, 5);
+        metrics.onOperation("Cheese", MetricsListener.OPERATION_DELETE, 100000, 1);
+        metrics.onOperation("Wine", MetricsListener.OPERATION_QUERY, 100000, 1);
+
+        assertEquals(2, metrics.getCount("Cheese", MetricsListener.OPERATION_QUERY));
+        assertEquals(25, metrics.getRows("Cheese", MetricsListener.OPERATION_QUERY));
+        assertEquals(1, metrics.getSlowCount("Cheese", MetricsListener.OPERATION_QUERY));
+        assertEquals(1, metrics.getCount("Cheese", MetricsListener.OPERATION_DELETE));
+        assertEquals(0, metrics.getCount("Cheese", MetricsListener.OPERATION_INSERT));
+        assertEquals(1, metrics.getCount("Wine", MetricsListener.OPERATION_QUERY));
+        assertEquals(0, metrics.getCount("Bread", MetricsListener.OPERATION_QUERY));
+    }
+
+    @Test
+    public void testDump() {
+        ProviderMetrics metrics = new ProviderMetrics();
+        metrics.onOperation("Cheese", MetricsListener.OPERATION_QUERY, 1500000, 20);
+        metrics.onTransaction(3000000);
+        metrics.onBatch(10, 2, 5000000);
+        metrics.onNotify(3);
+        metrics.onNotify(1);
+
+        String dump = metrics.dump();
+        // 1500us is in the bucket below 2048us
+        assertTrue(dump, dump.contains("Cheese query: count=1 mean=1500us p50<2048us p90<2048us p99<2048us max=1500us slow=0 rows=20\n"));
+        assertTrue(dump, dump.contains("transactions: count=1"));
+        assertTrue(dump, dump.contains("operations=10 yields=2"));
+        assertTrue(dump, dump.contains("notifications: count=2 uris=4 maxUris=3"));
+        assertEquals(1, metrics.getTransactionCount());
+        assertEquals(2, metrics.getBatchYields());
+        assertEquals(4, metrics.getNotifiedUris());
+
+        metrics.reset();
+        assertEquals(0, metrics.getCount("Cheese", MetricsListener.OPERATION_QUERY));
+        assertEquals(0, metrics.getTransactionCount());
+    }
+}
@@ -0,0 +1,84 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.net.Uri;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertNotNull;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertSame;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class QueryCacheTest {
+    private static final Uri CHEESES = Uri.parse("content://nl.littlerobots.test/Cheese");
+    private static final Uri CHEESE = Uri.parse("content://nl.littlerobots.test/Cheese/1");
+
+    @Test
+    public void testCachedResultIsCopied() {
+        QueryCache cache = new QueryCache(16 * 1024, 10);
+        String key = QueryCache.key(CHEESES, null, null, null, null);
+        Cursor cursor = cache.put(key, String.class, UriMatch.NO_ID, cache.getGeneration(String.class), cheeses(2));
+        assertEquals(2, cursor.getCount());
+        Cursor cached = cache.get(key);
+        assertNotNull(cached);
+        assertTrue(cached != cursor);
+        assertTrue(cached.moveToLast());
+        assertEquals("Cheese 2", cached.getString(1));
+        assertEquals(2, cached.getLong(0));
+    }
+
+    @Test
+    public void testLargeResultIsNotCached() {
+        QueryCache cache = new QueryCache(16 * 1024, 10);
+        String key = QueryCache.key(CHEESES, null, null, null, null);
+        Cursor cursor = cheeses(11);
+        assertSame(cursor, cache.put(key, String.class, UriMatch.NO_ID, cache.getGeneration(String.class), cursor));
+        assertNull(cache.get(key));
+    }
+
+    @Test
+    public void testItemChangeInvalidatesCollectionAndItem() {
+        QueryCache cache = new QueryCache(16 * 1024, 10);
+        String collectionKey = QueryCache.key(CHEESES, null, null, null, null);
+        String itemKey = QueryCache.key(CHEESE, null, null, null, null);
+        String otherItemKey = QueryCache.key(Uri.parse("content://nl.littlerobots.test/Cheese/2"), null, null, null, null);
+        String otherEntityKey = QueryCache.key(Uri.parse("content://nl.littlerobots.test/Wine"), null, null, null, null);
+        cache.put(collectionKey, String.class, UriMatch.NO_ID, cache.getGeneration(String.class), cheeses(2));
+        cache.put(itemKey, String.class, 1, cache.getGeneration(String.class), cheeses(1));
+        cache.put(otherItemKey, String.class, 2, cache.getGeneration(String.class), cheeses(1));
+        cache.put(otherEntityKey, Integer.class, UriMatch.NO_ID, cache.getGeneration(Integer.class), cheeses(1));
+
+        cache.invalidate(String.class, 1);
+        assertNull(cache.get(collectionKey));
+        assertNull(cache.get(itemKey));
+        assertNotNull(cache.get(otherItemKey));
+        assertNotNull(cache.get(otherEntityKey));
+    }
+
+    @Test
+    public void testResultQueriedBeforeInvalidationIsNotCached() {
+        QueryCache cache = new QueryCache(16 * 1024, 10);
+        String key = QueryCache.key(CHEESES, null, null, null, null);
+        long generation = cache.getGeneration(String.class);
+        cache.invalidate(String.class, UriMatch.NO_ID);
+        Cursor cursor = cache.put(key, String.class, UriMatch.NO_ID, generation, cheeses(2));
+        assertEquals(2, cursor.getCount());
+        assertNull(cache.get(key));
+    }
+
+    private static Cursor cheeses(int count) {
+        MatrixCursor cursor = new MatrixCursor(new String[]{"_id", "name"});
+        for (int i = 1; i <= count; i++) {
+            cursor.addRow(new Object[]{(long) i, "Cheese " + i});
+        }
+        return cursor;
+    }
+}
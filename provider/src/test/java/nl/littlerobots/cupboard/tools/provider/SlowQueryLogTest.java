@@ -0,0 +1,51 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.Test;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+public class SlowQueryLogTest {
+
+    @Test
+    public void testShape() {
+        assertEquals("SELECT * FROM Cheese WHERE name = ? AND age > ? LIMIT ?",
+                SlowQueryLog.shape("SELECT * FROM Cheese WHERE name = 'O''Gouda' AND age > 12 LIMIT 20"));
+        assertEquals("DELETE FROM \"Cheese\" WHERE _id IN (?, ...)", SlowQueryLog.shape("DELETE FROM \"Cheese\" WHERE _id IN (?,?,?)"));
+        assertEquals("[integer, real, text, null]", SlowQueryLog.argumentShape(new String[]{"12", "1.5", "Gouda", null}));
+        assertEquals("[]", SlowQueryLog.argumentShape(null));
+    }
+
+    @Test
+    public void testStatementsAreGroupedByShape() {
+        SlowQueryLog log = new SlowQueryLog(2);
+        assertTrue(log.record("SELECT * FROM Cheese WHERE age > 12", null, 200000000));
+        log.setPlan("SELECT * FROM Cheese WHERE age > 12", "SCAN TABLE Cheese");
+        assertFalse(log.record("SELECT * FROM Cheese WHERE age > 15", null, 300000000));
+        assertEquals(1, log.size());
+
+        String dump = log.dump();
+        assertTrue(dump, dump.contains("SELECT * FROM Cheese WHERE age > ?\n  count=2 last=300ms max=300ms args=[] FULL SCAN\n  SCAN TABLE Cheese\n"));
+    }
+
+    @Test
+    public void testLeastRecentlySeenShapeIsDropped() {
+        SlowQueryLog log = new SlowQueryLog(2);
+        log.record("SELECT * FROM Cheese", null, 1);
+        log.record("SELECT * FROM Wine", null, 1);
+        log.record("SELECT * FROM Cheese", null, 1);
+        assertTrue(log.record("SELECT * FROM Bread", null, 1));
+        assertEquals(2, log.size());
+        assertTrue(log.record("SELECT * FROM Wine", null, 1));
+        assertFalse(log.record("SELECT * FROM Bread", null, 1));
+    }
+
+    @Test
+    public void testIsFullScan() {
+        assertTrue(SlowQueryLog.isFullScan("SCAN TABLE Cheese"));
+        assertTrue(SlowQueryLog.isFullScan("SEARCH Wine USING INTEGER PRIMARY KEY (rowid=?)\nSCAN Cheese"));
+        assertFalse(SlowQueryLog.isFullScan("SEARCH Cheese USING INDEX cheese_name (name=?)"));
+        assertFalse(SlowQueryLog.isFullScan("SCAN Cheese USING COVERING INDEX cheese_name"));
+    }
+}
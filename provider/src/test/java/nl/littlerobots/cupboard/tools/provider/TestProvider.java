@@ -0,0 +1,414 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.robolectric.RuntimeEnvironment;
+
+import android.content.ContentValues;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+import android.os.ParcelFileDescriptor;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nl.qbusict.cupboard.Cupboard;
+import nl.qbusict.cupboard.CupboardBuilder;
+
+/**
+ * Provider with a {@link Cheese} entity that records the statements that are compiled and executed on its database
+ */
+public class TestProvider extends CupboardContentProvider {
+    static final String AUTHORITY = "nl.littlerobots.cupboard.tools.provider.test";
+    static final String DATABASE_NAME = "test.db";
+    static final Cupboard CUPBOARD = new CupboardBuilder().build();
+
+    static {
+        CUPBOARD.register(Cheese.class);
+    }
+
+    static final UriHelper URIS = UriHelper.with(CUPBOARD).forAuthority(AUTHORITY);
+    static final Uri CHEESE_URI = URIS.getUri(Cheese.class);
+
+    final List<String> mCompiledSql = Collections.synchronizedList(new ArrayList<String>());
+    final List<String> mExecutedSql = Collections.synchronizedList(new ArrayList<String>());
+    final AtomicInteger mOpenCount = new AtomicInteger();
+    final AtomicInteger mTransactionCount = new AtomicInteger();
+    /**
+     * The notified uris, followed by " sync" when synced to the network. {@link #notifyChange(boolean)} is recorded as "all".
+     */
+    final List<String> mNotifications = Collections.synchronizedList(new ArrayList<String>());
+    boolean mBulkInsertBatching;
+    /**
+     * Set to call {@link #setSyncToNetwork()} on every update
+     */
+    boolean mSyncToNetworkOnUpdate;
+    int mNotificationDelayMillis;
+    /**
+     * The maximum notification suspend time, or 0 for the default
+     */
+    int mMaxNotificationSuspendMillis;
+    /**
+     * The import chunk size, or 0 for the default
+     */
+    int mImportChunkSize;
+    /**
+     * The column inserts of {@link Cheese} are upserted on, or null to insert
+     */
+    String mUpsertColumn;
+    volatile List<Migration> mMigrations = Collections.emptyList();
+    /**
+     * When set, runs once from {@link #onDatabaseOpened(CupboardProviderDatabase)} before the database is set up
+     */
+    volatile Runnable mOnDatabaseOpened;
+    /**
+     * Set before attaching to pre-warm the database and the {@link Cheese} insert statement
+     */
+    boolean mPrewarm;
+    final CountDownLatch mPrewarmed = new CountDownLatch(1);
+
+    public TestProvider() {
+        super(AUTHORITY, DATABASE_NAME, 1);
+    }
+
+    /**
+     * Attach a provider to the application, which calls {@link #onCreate()}
+     */
+    static <T extends TestProvider> T attach(T provider) {
+        ProviderInfo info = new ProviderInfo();
+        info.authority = AUTHORITY;
+        provider.attachInfo(RuntimeEnvironment.application, info);
+        return provider;
+    }
+
+    static ContentValues cheese(String name, double price, int age) {
+        ContentValues values = new ContentValues(3);
+        values.put("name", name);
+        values.put("price", price);
+        values.put("age", age);
+        return values;
+    }
+
+    /**
+     * Close and delete the database
+     */
+    void close() {
+        shutdown();
+        getDatabaseHelper().close();
+        getContext().deleteDatabase(DATABASE_NAME);
+    }
+
+    int count(Uri uri) {
+        Cursor cursor = query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * @return the number of compiled statements that start with the given sql
+     */
+    int countCompiled(String sqlPrefix) {
+        return countStartingWith(mCompiledSql, sqlPrefix);
+    }
+
+    /**
+     * @return the number of executed compiled statements that start with the given sql
+     */
+    int countExecuted(String sqlPrefix) {
+        return countStartingWith(mExecutedSql, sqlPrefix);
+    }
+
+    private static int countStartingWith(List<String> statements, String sqlPrefix) {
+        int count = 0;
+        synchronized (statements) {
+            for (String sql : statements) {
+                if (sql.startsWith(sqlPrefix)) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    @Override
+    protected Cupboard createCupboard() {
+        return CUPBOARD;
+    }
+
+    @Override
+    protected String getUpsertColumn(Class<?> entityClass) {
+        return mUpsertColumn;
+    }
+
+    @Override
+    protected boolean isBulkInsertBatchingEnabled() {
+        return mBulkInsertBatching;
+    }
+
+    @Override
+    protected int getImportChunkSize() {
+        return mImportChunkSize > 0 ? mImportChunkSize : super.getImportChunkSize();
+    }
+
+    @Override
+    protected boolean isPrewarmEnabled() {
+        return mPrewarm;
+    }
+
+    @Override
+    protected List<Class<?>> getPrewarmEntities() {
+        return Collections.<Class<?>>singletonList(Cheese.class);
+    }
+
+    @Override
+    protected void onPrewarm(CupboardProviderDatabase db) {
+        super.onPrewarm(db);
+        mPrewarmed.countDown();
+    }
+
+    @Override
+    protected List<Migration> getMigrations() {
+        return mMigrations;
+    }
+
+    @Override
+    protected void onDatabaseOpened(CupboardProviderDatabase db) {
+        Runnable onDatabaseOpened = mOnDatabaseOpened;
+        mOnDatabaseOpened = null;
+        if (onDatabaseOpened != null) {
+            onDatabaseOpened.run();
+        }
+        super.onDatabaseOpened(db);
+    }
+
+    @Override
+    protected int getNotificationDelayMillis() {
+        return mNotificationDelayMillis;
+    }
+
+    @Override
+    protected int getMaxNotificationSuspendMillis() {
+        return mMaxNotificationSuspendMillis > 0 ? mMaxNotificationSuspendMillis : super.getMaxNotificationSuspendMillis();
+    }
+
+    @Override
+    protected int updateInTransaction(Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        if (mSyncToNetworkOnUpdate) {
+            setSyncToNetwork();
+        }
+        return super.updateInTransaction(uri, values, selection, selectionArgs);
+    }
+
+    @Override
+    protected void notifyChange(Uri uri, boolean syncToNetwork) {
+        mNotifications.add(syncToNetwork ? uri + " sync" : uri.toString());
+        super.notifyChange(uri, syncToNetwork);
+    }
+
+    @Override
+    protected void notifyChange(boolean syncToNetwork) {
+        mNotifications.add(syncToNetwork ? "all sync" : "all");
+        super.notifyChange(syncToNetwork);
+    }
+
+    /**
+     * Robolectric can't create pipes, so the data is written to a file that is returned for reading instead
+     */
+    @Override
+    public <T> ParcelFileDescriptor openPipeHelper(Uri uri, String mimeType, Bundle opts, T args, PipeDataWriter<T> func)
+            throws FileNotFoundException {
+        try {
+            File file = File.createTempFile("pipe", null, getContext().getCacheDir());
+            file.deleteOnExit();
+            func.writeDataToPipe(ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_WRITE_ONLY), uri, mimeType, opts, args);
+            return ParcelFileDescriptor.open(file, ParcelFileDescriptor.MODE_READ_ONLY);
+        } catch (IOException e) {
+            throw new FileNotFoundException(e.getMessage());
+        }
+    }
+
+    @Override
+    protected CupboardProviderDatabase openDatabase() {
+        mOpenCount.incrementAndGet();
+        return new RecordingDatabase(super.openDatabase());
+    }
+
+    public static class Cheese {
+        public Long _id;
+        public String name;
+        public double price;
+        public int age;
+    }
+
+    private class RecordingDatabase implements CupboardProviderDatabase {
+        private final CupboardProviderDatabase mDatabase;
+
+        RecordingDatabase(CupboardProviderDatabase database) {
+            mDatabase = database;
+        }
+
+        @Override
+        public void beginTransactionWithListener(TransactionListener listener) {
+            mTransactionCount.incrementAndGet();
+            mDatabase.beginTransactionWithListener(listener);
+        }
+
+        @Override
+        public boolean isClosed() {
+            return mDatabase.isClosed();
+        }
+
+        @Override
+        public boolean yieldIfContendedSafely(int sleepAfterYieldDelay) {
+            return mDatabase.yieldIfContendedSafely(sleepAfterYieldDelay);
+        }
+
+        @Override
+        public CompiledStatement compileStatement(String sql) {
+            mCompiledSql.add(sql);
+            return new RecordingStatement(sql, mDatabase.compileStatement(sql));
+        }
+
+        @Override
+        public boolean enableWriteAheadLogging() {
+            return mDatabase.enableWriteAheadLogging();
+        }
+
+        @Override
+        public void close() {
+            mDatabase.close();
+        }
+
+        @Override
+        public long insertOrThrow(String table, String nullColumnHack, ContentValues values) {
+            return mDatabase.insertOrThrow(table, nullColumnHack, values);
+        }
+
+        @Override
+        public long replaceOrThrow(String table, String nullColumnHack, ContentValues values) {
+            return mDatabase.replaceOrThrow(table, nullColumnHack, values);
+        }
+
+        @Override
+        public int update(String table, ContentValues values, String selection, String[] selectionArgs) {
+            return mDatabase.update(table, values, selection, selectionArgs);
+        }
+
+        @Override
+        public Cursor query(boolean distinct, String table, String[] columns, String selection, String[] selectionArgs,
+                            String groupBy, String having, String orderBy, String limit) {
+            return mDatabase.query(distinct, table, columns, selection, selectionArgs, groupBy, having, orderBy, limit);
+        }
+
+        @Override
+        public Cursor rawQuery(String sql, String[] selectionArgs) {
+            return mDatabase.rawQuery(sql, selectionArgs);
+        }
+
+        @Override
+        public int delete(String table, String selection, String[] selectionArgs) {
+            return mDatabase.delete(table, selection, selectionArgs);
+        }
+
+        @Override
+        public boolean inTransaction() {
+            return mDatabase.inTransaction();
+        }
+
+        @Override
+        public void beginTransaction() {
+            mDatabase.beginTransaction();
+        }
+
+        @Override
+        public void yieldIfContendedSafely() {
+            mDatabase.yieldIfContendedSafely();
+        }
+
+        @Override
+        public void setTransactionSuccessful() {
+            mDatabase.setTransactionSuccessful();
+        }
+
+        @Override
+        public void endTransaction() {
+            mDatabase.endTransaction();
+        }
+
+        @Override
+        public void execSQL(String sql) {
+            mDatabase.execSQL(sql);
+        }
+    }
+
+    private class RecordingStatement implements CompiledStatement {
+        private final String mSql;
+        private final CompiledStatement mStatement;
+
+        RecordingStatement(String sql, CompiledStatement statement) {
+            mSql = sql;
+            mStatement = statement;
+        }
+
+        @Override
+        public void bindNull(int index) {
+            mStatement.bindNull(index);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            mStatement.bindLong(index, value);
+        }
+
+        @Override
+        public void bindDouble(int index, double value) {
+            mStatement.bindDouble(index, value);
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            mStatement.bindString(index, value);
+        }
+
+        @Override
+        public void bindBlob(int index, byte[] value) {
+            mStatement.bindBlob(index, value);
+        }
+
+        @Override
+        public void clearBindings() {
+            mStatement.clearBindings();
+        }
+
+        @Override
+        public long executeInsert() {
+            mExecutedSql.add(mSql);
+            return mStatement.executeInsert();
+        }
+
+        @Override
+        public int executeUpdateDelete() {
+            mExecutedSql.add(mSql);
+            return mStatement.executeUpdateDelete();
+        }
+
+        @Override
+        public long simpleQueryForLong() {
+            return mStatement.simpleQueryForLong();
+        }
+
+        @Override
+        public void close() {
+            mStatement.close();
+        }
+    }
+}
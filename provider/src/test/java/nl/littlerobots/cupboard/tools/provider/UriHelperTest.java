@@ -0,0 +1,108 @@
+package nl.littlerobots.cupboard.tools.provider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentUris;
+import android.net.Uri;
+
+import java.io.Closeable;
+import java.io.Serializable;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import nl.qbusict.cupboard.Cupboard;
+import nl.qbusict.cupboard.CupboardBuilder;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertNull;
+import static junit.framework.Assert.assertTrue;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class UriHelperTest {
+    private static final int ENTITY_COUNT = 128;
+    private static final Class<?>[] MARKER_INTERFACES = {Runnable.class, Comparable.class, Serializable.class, CharSequence.class,
+            Iterable.class, Appendable.class, Readable.class, Closeable.class};
+
+    private List<Class<?>> mEntities;
+    private UriHelper mUriHelper;
+    private Uri[] mCollectionUris;
+    private Uri[] mItemUris;
+
+    @Before
+    public void setUp() {
+        mEntities = createEntityClasses(ENTITY_COUNT);
+        Cupboard cupboard = new CupboardBuilder().build();
+        for (Class<?> entity : mEntities) {
+            cupboard.register(entity);
+        }
+        mUriHelper = UriHelper.with(cupboard).forAuthority("nl.littlerobots.test");
+        mCollectionUris = new Uri[ENTITY_COUNT];
+        mItemUris = new Uri[ENTITY_COUNT];
+        for (int i = 0; i < ENTITY_COUNT; i++) {
+            mCollectionUris[i] = Uri.parse(mUriHelper.getUri(mEntities.get(i)).toString());
+            mItemUris[i] = ContentUris.withAppendedId(mCollectionUris[i], i + 1);
+        }
+    }
+
+    @Test
+    public void testUrisMatchEntities() {
+        for (int i = 0; i < ENTITY_COUNT; i++) {
+            assertEquals(mEntities.get(i), mUriHelper.getMatchedClass(mCollectionUris[i]));
+            assertEquals(mEntities.get(i), mUriHelper.getMatchedClass(mItemUris[i]));
+            assertTrue(mUriHelper.isCollection(mCollectionUris[i]));
+            assertFalse(mUriHelper.isCollection(mItemUris[i]));
+            assertEquals(mEntities.get(i), mUriHelper.getClassForPath(mCollectionUris[i].getLastPathSegment()));
+        }
+        UriMatch match = mUriHelper.resolve(mItemUris[3].buildUpon().appendQueryParameter("limit", "10").build());
+        assertEquals(mEntities.get(3), match.getEntityClass());
+        assertEquals(4, match.getId());
+        assertEquals("10", match.getQueryParameter("limit"));
+        assertEquals(mItemUris[3], match.getNotificationUri());
+        assertTrue(mUriHelper.resolve(mCollectionUris[3]).isCollection());
+        assertNull(mUriHelper.resolve(Uri.parse("content://nl.littlerobots.test/unknown")));
+        assertFalse(mUriHelper.matches(Uri.parse("content://nl.littlerobots.test/unknown")));
+        assertFalse(mUriHelper.matches(Uri.parse("content://other/" + mCollectionUris[0].getLastPathSegment())));
+    }
+
+    @Test
+    public void testAggregateUris() {
+        Uri countUri = mUriHelper.getCountUri(mEntities.get(5));
+        UriMatch count = mUriHelper.resolve(countUri);
+        assertEquals(mEntities.get(5), count.getEntityClass());
+        assertEquals(UriHelper.AGGREGATE_COUNT, count.getAggregate());
+        assertNull(count.getAggregateColumn());
+        assertEquals(mCollectionUris[5], count.getNotificationUri());
+        assertFalse(mUriHelper.matches(countUri));
+
+        UriMatch sum = mUriHelper.resolve(mUriHelper.getAggregateUri(mEntities.get(5), UriHelper.AGGREGATE_SUM, "price"));
+        assertEquals(UriHelper.AGGREGATE_SUM, sum.getAggregate());
+        assertEquals("price", sum.getAggregateColumn());
+        assertNull(mUriHelper.resolve(countUri.buildUpon().appendPath("price").build()));
+        assertNull(mUriHelper.resolve(mCollectionUris[5].buildUpon().appendPath("avg").appendPath("price").build()));
+        assertNull(mUriHelper.resolve(mItemUris[5]).getAggregate());
+    }
+
+    /**
+     * Create distinct classes to register as entities, using a proxy class for each combination of marker interfaces.
+     */
+    private static List<Class<?>> createEntityClasses(int count) {
+        List<Class<?>> classes = new ArrayList<>(count);
+        for (int mask = 1; classes.size() < count; mask++) {
+            List<Class<?>> interfaces = new ArrayList<>();
+            for (int bit = 0; bit < MARKER_INTERFACES.length; bit++) {
+                if ((mask & (1 << bit)) != 0) {
+                    interfaces.add(MARKER_INTERFACES[bit]);
+                }
+            }
+            classes.add(Proxy.getProxyClass(UriHelperTest.class.getClassLoader(), interfaces.toArray(new Class<?>[interfaces.size()])));
+        }
+        return classes;
+    }
+}
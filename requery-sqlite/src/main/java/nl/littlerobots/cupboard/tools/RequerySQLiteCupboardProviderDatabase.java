@@ -3,6 +3,11 @@ package nl.littlerobots.cupboard.tools;
 import android.database.sqlite.SQLiteTransactionListener;
 
 import io.requery.android.database.sqlite.SQLiteDatabase;
+import io.requery.android.database.sqlite.SQLiteStatement;
+
+import java.io.File;
+
+import nl.littlerobots.cupboard.tools.provider.CompiledStatement;
 import nl.littlerobots.cupboard.tools.provider.SQLiteContentProvider;
 import nl.littlerobots.cupboard.tools.provider.TransactionListener;
 
@@ -15,6 +20,16 @@ public class RequerySQLiteCupboardProviderDatabase extends RequerySQLiteCupboard
         super(mDatabase);
     }
 
+    /**
+     * Open a read-only connection to a database, for use in {@link SQLiteContentProvider#openReadOnlyDatabase()}
+     *
+     * @param path the path of the database
+     * @return the database
+     */
+    public static RequerySQLiteCupboardProviderDatabase openReadOnly(File path) {
+        return new RequerySQLiteCupboardProviderDatabase(SQLiteDatabase.openDatabase(path.getPath(), null, SQLiteDatabase.OPEN_READONLY));
+    }
+
     @Override
     public void beginTransactionWithListener(final TransactionListener listener) {
         mDatabase.beginTransactionWithListener(new SQLiteTransactionListener() {
@@ -44,4 +59,77 @@ public class RequerySQLiteCupboardProviderDatabase extends RequerySQLiteCupboard
     public boolean yieldIfContendedSafely(int sleepAfterYieldDelay) {
         return false;
     }
+
+    @Override
+    public CompiledStatement compileStatement(String sql) {
+        return new RequerySQLiteCompiledStatement(mDatabase.compileStatement(sql));
+    }
+
+    @Override
+    public boolean enableWriteAheadLogging() {
+        return mDatabase.enableWriteAheadLogging();
+    }
+
+    @Override
+    public void close() {
+        mDatabase.close();
+    }
+
+    private static class RequerySQLiteCompiledStatement implements CompiledStatement {
+        private final SQLiteStatement mStatement;
+
+        public RequerySQLiteCompiledStatement(SQLiteStatement statement) {
+            mStatement = statement;
+        }
+
+        @Override
+        public void bindNull(int index) {
+            mStatement.bindNull(index);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            mStatement.bindLong(index, value);
+        }
+
+        @Override
+        public void bindDouble(int index, double value) {
+            mStatement.bindDouble(index, value);
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            mStatement.bindString(index, value);
+        }
+
+        @Override
+        public void bindBlob(int index, byte[] value) {
+            mStatement.bindBlob(index, value);
+        }
+
+        @Override
+        public void clearBindings() {
+            mStatement.clearBindings();
+        }
+
+        @Override
+        public long executeInsert() {
+            return mStatement.executeInsert();
+        }
+
+        @Override
+        public int executeUpdateDelete() {
+            return mStatement.executeUpdateDelete();
+        }
+
+        @Override
+        public long simpleQueryForLong() {
+            return mStatement.simpleQueryForLong();
+        }
+
+        @Override
+        public void close() {
+            mStatement.close();
+        }
+    }
 }
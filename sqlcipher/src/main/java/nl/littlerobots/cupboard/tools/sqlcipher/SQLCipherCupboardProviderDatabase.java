@@ -1,8 +1,14 @@
 package nl.littlerobots.cupboard.tools.sqlcipher;
 
+import android.database.Cursor;
+
 import net.sqlcipher.database.SQLiteDatabase;
+import net.sqlcipher.database.SQLiteStatement;
 import net.sqlcipher.database.SQLiteTransactionListener;
 
+import java.io.File;
+
+import nl.littlerobots.cupboard.tools.provider.CompiledStatement;
 import nl.littlerobots.cupboard.tools.provider.SQLiteContentProvider;
 import nl.littlerobots.cupboard.tools.provider.TransactionListener;
 
@@ -16,6 +22,17 @@ public class SQLCipherCupboardProviderDatabase extends SQLCipherCupboardDatabase
         super(mDatabase);
     }
 
+    /**
+     * Open a read-only connection to a database, for use in {@link SQLiteContentProvider#openReadOnlyDatabase()}
+     *
+     * @param path     the path of the database
+     * @param password the password of the database
+     * @return the database
+     */
+    public static SQLCipherCupboardProviderDatabase openReadOnly(File path, String password) {
+        return new SQLCipherCupboardProviderDatabase(SQLiteDatabase.openDatabase(path.getPath(), password, null, SQLiteDatabase.OPEN_READONLY));
+    }
+
     @Override
     public void beginTransactionWithListener(final TransactionListener listener) {
         mDatabase.beginTransactionWithListener(new SQLiteTransactionListener() {
@@ -45,4 +62,82 @@ public class SQLCipherCupboardProviderDatabase extends SQLCipherCupboardDatabase
     public boolean yieldIfContendedSafely(int sleepAfterYieldDelay) {
         return mDatabase.yieldIfContendedSafely(sleepAfterYieldDelay);
     }
+
+    @Override
+    public CompiledStatement compileStatement(String sql) {
+        return new SQLCipherCompiledStatement(mDatabase.compileStatement(sql));
+    }
+
+    @Override
+    public boolean enableWriteAheadLogging() {
+        Cursor cursor = mDatabase.rawQuery("PRAGMA journal_mode = WAL", null);
+        try {
+            return cursor.moveToFirst() && "wal".equalsIgnoreCase(cursor.getString(0));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void close() {
+        mDatabase.close();
+    }
+
+    private static class SQLCipherCompiledStatement implements CompiledStatement {
+        private final SQLiteStatement mStatement;
+
+        public SQLCipherCompiledStatement(SQLiteStatement statement) {
+            mStatement = statement;
+        }
+
+        @Override
+        public void bindNull(int index) {
+            mStatement.bindNull(index);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            mStatement.bindLong(index, value);
+        }
+
+        @Override
+        public void bindDouble(int index, double value) {
+            mStatement.bindDouble(index, value);
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            mStatement.bindString(index, value);
+        }
+
+        @Override
+        public void bindBlob(int index, byte[] value) {
+            mStatement.bindBlob(index, value);
+        }
+
+        @Override
+        public void clearBindings() {
+            mStatement.clearBindings();
+        }
+
+        @Override
+        public long executeInsert() {
+            return mStatement.executeInsert();
+        }
+
+        @Override
+        public int executeUpdateDelete() {
+            return mStatement.executeUpdateDelete();
+        }
+
+        @Override
+        public long simpleQueryForLong() {
+            return mStatement.simpleQueryForLong();
+        }
+
+        @Override
+        public void close() {
+            mStatement.close();
+        }
+    }
 }
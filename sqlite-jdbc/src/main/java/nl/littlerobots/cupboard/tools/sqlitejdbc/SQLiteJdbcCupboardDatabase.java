@@ -0,0 +1,413 @@
+package nl.littlerobots.cupboard.tools.sqlitejdbc;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteConstraintException;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteQueryBuilder;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import nl.littlerobots.cupboard.tools.provider.TransactionListener;
+import nl.qbusict.cupboard.CupboardDatabase;
+
+/**
+ * An implementation of {@link CupboardDatabase} on a JDBC connection of sqlite-jdbc, to run Cupboard on a plain JVM.
+ * Like {@link android.database.sqlite.SQLiteDatabase}, the connection is used by a single thread at a time, transactions
+ * can be nested and hold the connection until the outermost transaction ends. Prepared statements are cached by their sql.
+ *
+ * Use with {@link nl.qbusict.cupboard.Cupboard#withDatabase(CupboardDatabase)}
+ */
+public class SQLiteJdbcCupboardDatabase implements CupboardDatabase {
+    /**
+     * Number of prepared statements that are cached, the default statement cache size of SQLiteDatabase
+     */
+    private static final int STATEMENT_CACHE_SIZE = 25;
+    private static final int SQLITE_CONSTRAINT = 19;
+
+    final Connection mConnection;
+    /**
+     * Fair, so that a transaction that yields hands the connection to the threads that are waiting for it
+     */
+    final ReentrantLock mLock = new ReentrantLock(true);
+    private final List<Transaction> mTransactions = new ArrayList<Transaction>();
+    private final LinkedHashMap<String, PreparedStatement> mStatements =
+            new LinkedHashMap<String, PreparedStatement>(STATEMENT_CACHE_SIZE, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > STATEMENT_CACHE_SIZE) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    public SQLiteJdbcCupboardDatabase(Connection connection) {
+        this.mConnection = connection;
+    }
+
+    @Override
+    public long insertOrThrow(String table, String nullColumnHack, ContentValues values) {
+        return insert("INSERT INTO ", table, nullColumnHack, values);
+    }
+
+    @Override
+    public long replaceOrThrow(String table, String nullColumnHack, ContentValues values) {
+        return insert("INSERT OR REPLACE INTO ", table, nullColumnHack, values);
+    }
+
+    private long insert(String prefix, String table, String nullColumnHack, ContentValues values) {
+        StringBuilder sql = new StringBuilder(prefix).append(table);
+        Object[] args = new Object[values.size()];
+        if (values.size() == 0) {
+            if (nullColumnHack == null) {
+                sql.append(" DEFAULT VALUES");
+            } else {
+                sql.append(" (").append(nullColumnHack).append(") VALUES (NULL)");
+            }
+        } else {
+            sql.append(" (");
+            int i = 0;
+            for (String column : values.keySet()) {
+                sql.append(i > 0 ? "," : "").append(column);
+                args[i++] = values.get(column);
+            }
+            sql.append(") VALUES (");
+            for (i = 0; i < args.length; i++) {
+                sql.append(i > 0 ? ",?" : "?");
+            }
+            sql.append(')');
+        }
+        mLock.lock();
+        try {
+            executeUpdate(sql.toString(), args);
+            return lastInsertRowId();
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int update(String table, ContentValues values, String selection, String[] selectionArgs) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        Object[] args = new Object[values.size() + (selectionArgs == null ? 0 : selectionArgs.length)];
+        int i = 0;
+        for (String column : values.keySet()) {
+            sql.append(i > 0 ? "," : "").append(column).append("=?");
+            args[i++] = values.get(column);
+        }
+        if (selectionArgs != null) {
+            System.arraycopy(selectionArgs, 0, args, i, selectionArgs.length);
+        }
+        if (selection != null) {
+            sql.append(" WHERE ").append(selection);
+        }
+        return executeUpdate(sql.toString(), args);
+    }
+
+    @Override
+    public Cursor query(boolean distinct, String table, String[] columns, String selection, String[] selectionArgs, String groupBy, String having, String orderBy, String limit) {
+        return rawQuery(SQLiteQueryBuilder.buildQueryString(distinct, table, columns, selection, groupBy, having, orderBy, limit), selectionArgs);
+    }
+
+    /**
+     * Run a query. The result is read into a {@link MatrixCursor} right away, so that the connection is not held by the cursor.
+     */
+    @Override
+    public Cursor rawQuery(String sql, String[] selectionArgs) {
+        mLock.lock();
+        try {
+            PreparedStatement statement = prepare(sql, selectionArgs);
+            ResultSet resultSet = statement.executeQuery();
+            try {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                int columnCount = metaData.getColumnCount();
+                String[] columnNames = new String[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    columnNames[i] = metaData.getColumnLabel(i + 1);
+                }
+                MatrixCursor cursor = new MatrixCursor(columnNames);
+                while (resultSet.next()) {
+                    Object[] row = new Object[columnCount];
+                    for (int i = 0; i < columnCount; i++) {
+                        Object value = resultSet.getObject(i + 1);
+                        // report all integers as long, like SQLiteCursor
+                        row[i] = value instanceof Integer ? Long.valueOf((Integer) value) : value;
+                    }
+                    cursor.addRow(row);
+                }
+                return cursor;
+            } finally {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            throw toSQLiteException(e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public int delete(String table, String selection, String[] selectionArgs) {
+        StringBuilder sql = new StringBuilder("DELETE FROM ").append(table);
+        if (selection != null) {
+            sql.append(" WHERE ").append(selection);
+        }
+        return executeUpdate(sql.toString(), selectionArgs == null ? new Object[0] : selectionArgs);
+    }
+
+    @Override
+    public boolean inTransaction() {
+        return mLock.isHeldByCurrentThread() && !mTransactions.isEmpty();
+    }
+
+    @Override
+    public void beginTransaction() {
+        beginTransaction(null);
+    }
+
+    /**
+     * Begin a transaction, or a nested transaction if the current thread is already in a transaction
+     *
+     * @param listener the listener, may be null
+     */
+    void beginTransaction(TransactionListener listener) {
+        mLock.lock();
+        boolean started = false;
+        try {
+            if (mTransactions.isEmpty()) {
+                execute("BEGIN EXCLUSIVE");
+            }
+            mTransactions.add(new Transaction(listener));
+            started = true;
+            if (listener != null) {
+                listener.onBegin();
+            }
+        } finally {
+            if (!started) {
+                mLock.unlock();
+            }
+        }
+    }
+
+    @Override
+    public void yieldIfContendedSafely() {
+        yieldTransaction(0);
+    }
+
+    /**
+     * Commit the outermost transaction and hand the connection to the waiting threads, if there are any, then begin a new
+     * transaction with the same listener
+     *
+     * @return true if the transaction was yielded
+     */
+    boolean yieldTransaction(int sleepAfterYieldDelay) {
+        if (!mLock.hasQueuedThreads() || mTransactions.size() != 1 || !mLock.isHeldByCurrentThread()) {
+            return false;
+        }
+        Transaction transaction = mTransactions.get(0);
+        if (transaction.mChildFailed) {
+            return false;
+        }
+        if (transaction.mSuccessful) {
+            throw new IllegalStateException("Cannot yield a transaction that has been marked successful");
+        }
+        transaction.mSuccessful = true;
+        endTransaction();
+        if (sleepAfterYieldDelay > 0) {
+            try {
+                Thread.sleep(sleepAfterYieldDelay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        beginTransaction(transaction.mListener);
+        return true;
+    }
+
+    @Override
+    public void setTransactionSuccessful() {
+        if (!inTransaction()) {
+            throw new IllegalStateException("No transaction in progress");
+        }
+        mTransactions.get(mTransactions.size() - 1).mSuccessful = true;
+    }
+
+    /**
+     * End the current transaction. The outermost transaction is committed if it and all transactions nested in it were
+     * marked successful, otherwise it's rolled back. Listeners are notified at the end of the transaction they were passed
+     * to, before the changes are committed.
+     */
+    @Override
+    public void endTransaction() {
+        if (!inTransaction()) {
+            throw new IllegalStateException("No transaction in progress");
+        }
+        try {
+            Transaction transaction = mTransactions.remove(mTransactions.size() - 1);
+            boolean successful = transaction.mSuccessful && !transaction.mChildFailed;
+            if (transaction.mListener != null) {
+                try {
+                    if (successful) {
+                        transaction.mListener.onCommit();
+                    } else {
+                        transaction.mListener.onRollback();
+                    }
+                } catch (RuntimeException e) {
+                    successful = false;
+                    if (mTransactions.isEmpty()) {
+                        execute("ROLLBACK");
+                    } else {
+                        mTransactions.get(mTransactions.size() - 1).mChildFailed = true;
+                    }
+                    throw e;
+                }
+            }
+            if (!mTransactions.isEmpty()) {
+                if (!successful) {
+                    mTransactions.get(mTransactions.size() - 1).mChildFailed = true;
+                }
+            } else {
+                execute(successful ? "COMMIT" : "ROLLBACK");
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void execSQL(String sql) {
+        execute(sql);
+    }
+
+    private void execute(String sql) {
+        mLock.lock();
+        try {
+            Statement statement = mConnection.createStatement();
+            try {
+                statement.execute(sql);
+            } finally {
+                statement.close();
+            }
+        } catch (SQLException e) {
+            throw toSQLiteException(e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    int executeUpdate(String sql, Object[] args) {
+        mLock.lock();
+        try {
+            return prepare(sql, args).executeUpdate();
+        } catch (SQLException e) {
+            throw toSQLiteException(e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    long lastInsertRowId() {
+        mLock.lock();
+        try {
+            ResultSet resultSet = prepare("SELECT last_insert_rowid()", null).executeQuery();
+            try {
+                resultSet.next();
+                return resultSet.getLong(1);
+            } finally {
+                resultSet.close();
+            }
+        } catch (SQLException e) {
+            throw toSQLiteException(e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Get a cached prepared statement and bind the arguments. Must be called while holding the lock.
+     */
+    private PreparedStatement prepare(String sql, Object[] args) throws SQLException {
+        PreparedStatement statement = mStatements.get(sql);
+        if (statement == null) {
+            statement = mConnection.prepareStatement(sql);
+            mStatements.put(sql, statement);
+        } else {
+            statement.clearParameters();
+        }
+        if (args != null) {
+            for (int i = 0; i < args.length; i++) {
+                bind(statement, i + 1, args[i]);
+            }
+        }
+        return statement;
+    }
+
+    static void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, java.sql.Types.NULL);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            statement.setLong(index, ((Number) value).longValue());
+        } else if (value instanceof Double || value instanceof Float) {
+            statement.setDouble(index, ((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            statement.setLong(index, (Boolean) value ? 1 : 0);
+        } else if (value instanceof byte[]) {
+            statement.setBytes(index, (byte[]) value);
+        } else {
+            statement.setString(index, value.toString());
+        }
+    }
+
+    /**
+     * Close the cached statements, for example before closing the connection
+     */
+    void clearStatements() {
+        mLock.lock();
+        try {
+            for (Iterator<PreparedStatement> iterator = mStatements.values().iterator(); iterator.hasNext(); ) {
+                closeQuietly(iterator.next());
+                iterator.remove();
+            }
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    static SQLiteException toSQLiteException(SQLException e) {
+        SQLiteException exception = (e.getErrorCode() & 0xff) == SQLITE_CONSTRAINT ?
+                new SQLiteConstraintException(e.getMessage()) : new SQLiteException(e.getMessage());
+        exception.initCause(e);
+        return exception;
+    }
+
+    private static void closeQuietly(Statement statement) {
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    private static final class Transaction {
+        final TransactionListener mListener;
+        boolean mSuccessful;
+        boolean mChildFailed;
+
+        Transaction(TransactionListener listener) {
+            mListener = listener;
+        }
+    }
+}
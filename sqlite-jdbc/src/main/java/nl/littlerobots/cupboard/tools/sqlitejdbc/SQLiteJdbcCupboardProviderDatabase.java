@@ -0,0 +1,244 @@
+package nl.littlerobots.cupboard.tools.sqlitejdbc;
+
+import android.database.sqlite.SQLiteDoneException;
+
+import org.sqlite.SQLiteConfig;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import nl.littlerobots.cupboard.tools.provider.CompiledStatement;
+import nl.littlerobots.cupboard.tools.provider.SQLiteContentProvider;
+import nl.littlerobots.cupboard.tools.provider.TransactionListener;
+
+/**
+ * Implementation of {@link nl.littlerobots.cupboard.tools.provider.SQLiteContentProvider.CupboardProviderDatabase} for
+ * sqlite-jdbc, to run a provider on a plain JVM, for example in unit tests and benchmarks on a build server.
+ * Return an instance of this class from {@link SQLiteContentProvider#openDatabase()}. The tables are not created by the
+ * {@link android.database.sqlite.SQLiteOpenHelper} of the provider in that case, create them using
+ * {@link nl.qbusict.cupboard.DatabaseCompartment#createTables()} on the opened database.
+ */
+public class SQLiteJdbcCupboardProviderDatabase extends SQLiteJdbcCupboardDatabase implements SQLiteContentProvider.CupboardProviderDatabase {
+
+    public SQLiteJdbcCupboardProviderDatabase(Connection connection) {
+        super(connection);
+    }
+
+    /**
+     * Open a database, creating it if it doesn't exist
+     *
+     * @param path the path of the database
+     * @return the database
+     */
+    public static SQLiteJdbcCupboardProviderDatabase open(File path) {
+        try {
+            return new SQLiteJdbcCupboardProviderDatabase(DriverManager.getConnection("jdbc:sqlite:" + path.getPath()));
+        } catch (SQLException e) {
+            throw toSQLiteException(e);
+        }
+    }
+
+    /**
+     * Open a read-only connection to a database, for use in {@link SQLiteContentProvider#openReadOnlyDatabase()}
+     *
+     * @param path the path of the database
+     * @return the database
+     */
+    public static SQLiteJdbcCupboardProviderDatabase openReadOnly(File path) {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        try {
+            return new SQLiteJdbcCupboardProviderDatabase(config.createConnection("jdbc:sqlite:" + path.getPath()));
+        } catch (SQLException e) {
+            throw toSQLiteException(e);
+        }
+    }
+
+    /**
+     * Open a database that only exists in memory, as long as it's open
+     *
+     * @return the database
+     */
+    public static SQLiteJdbcCupboardProviderDatabase openInMemory() {
+        try {
+            return new SQLiteJdbcCupboardProviderDatabase(DriverManager.getConnection("jdbc:sqlite::memory:"));
+        } catch (SQLException e) {
+            throw toSQLiteException(e);
+        }
+    }
+
+    @Override
+    public void beginTransactionWithListener(TransactionListener listener) {
+        beginTransaction(listener);
+    }
+
+    @Override
+    public boolean isClosed() {
+        try {
+            return mConnection.isClosed();
+        } catch (SQLException e) {
+            throw toSQLiteException(e);
+        }
+    }
+
+    /**
+     * Commits the transaction and lets other threads that are waiting for the database go first. Note that, like
+     * {@link android.database.sqlite.SQLiteDatabase#yieldIfContendedSafely(long)}, this sleeps for the given delay after
+     * yielding.
+     */
+    @Override
+    public boolean yieldIfContendedSafely(int sleepAfterYieldDelay) {
+        return yieldTransaction(sleepAfterYieldDelay);
+    }
+
+    @Override
+    public CompiledStatement compileStatement(String sql) {
+        mLock.lock();
+        try {
+            return new SQLiteJdbcCompiledStatement(this, mConnection.prepareStatement(sql));
+        } catch (SQLException e) {
+            throw toSQLiteException(e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public boolean enableWriteAheadLogging() {
+        mLock.lock();
+        try {
+            ResultSet resultSet = mConnection.createStatement().executeQuery("PRAGMA journal_mode=WAL");
+            try {
+                return resultSet.next() && "wal".equalsIgnoreCase(resultSet.getString(1));
+            } finally {
+                resultSet.getStatement().close();
+            }
+        } catch (SQLException e) {
+            throw toSQLiteException(e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        mLock.lock();
+        try {
+            clearStatements();
+            mConnection.close();
+        } catch (SQLException e) {
+            throw toSQLiteException(e);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    private static class SQLiteJdbcCompiledStatement implements CompiledStatement {
+        private final SQLiteJdbcCupboardDatabase mDatabase;
+        private final PreparedStatement mStatement;
+
+        public SQLiteJdbcCompiledStatement(SQLiteJdbcCupboardDatabase database, PreparedStatement statement) {
+            mDatabase = database;
+            mStatement = statement;
+        }
+
+        @Override
+        public void bindNull(int index) {
+            bind(index, null);
+        }
+
+        @Override
+        public void bindLong(int index, long value) {
+            bind(index, value);
+        }
+
+        @Override
+        public void bindDouble(int index, double value) {
+            bind(index, value);
+        }
+
+        @Override
+        public void bindString(int index, String value) {
+            bind(index, value);
+        }
+
+        @Override
+        public void bindBlob(int index, byte[] value) {
+            bind(index, value);
+        }
+
+        private void bind(int index, Object value) {
+            try {
+                SQLiteJdbcCupboardDatabase.bind(mStatement, index, value);
+            } catch (SQLException e) {
+                throw toSQLiteException(e);
+            }
+        }
+
+        @Override
+        public void clearBindings() {
+            try {
+                mStatement.clearParameters();
+            } catch (SQLException e) {
+                throw toSQLiteException(e);
+            }
+        }
+
+        @Override
+        public long executeInsert() {
+            mDatabase.mLock.lock();
+            try {
+                return mStatement.executeUpdate() > 0 ? mDatabase.lastInsertRowId() : -1;
+            } catch (SQLException e) {
+                throw toSQLiteException(e);
+            } finally {
+                mDatabase.mLock.unlock();
+            }
+        }
+
+        @Override
+        public int executeUpdateDelete() {
+            mDatabase.mLock.lock();
+            try {
+                return mStatement.executeUpdate();
+            } catch (SQLException e) {
+                throw toSQLiteException(e);
+            } finally {
+                mDatabase.mLock.unlock();
+            }
+        }
+
+        @Override
+        public long simpleQueryForLong() {
+            mDatabase.mLock.lock();
+            try {
+                ResultSet resultSet = mStatement.executeQuery();
+                try {
+                    if (!resultSet.next()) {
+                        throw new SQLiteDoneException();
+                    }
+                    return resultSet.getLong(1);
+                } finally {
+                    resultSet.close();
+                }
+            } catch (SQLException e) {
+                throw toSQLiteException(e);
+            } finally {
+                mDatabase.mLock.unlock();
+            }
+        }
+
+        @Override
+        public void close() {
+            try {
+                mStatement.close();
+            } catch (SQLException e) {
+                throw toSQLiteException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package nl.littlerobots.cupboard.tools.sqlitejdbc;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteConstraintException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nl.littlerobots.cupboard.tools.provider.CompiledStatement;
+import nl.littlerobots.cupboard.tools.provider.TransactionListener;
+import nl.qbusict.cupboard.Cupboard;
+import nl.qbusict.cupboard.CupboardBuilder;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+import static junit.framework.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class SQLiteJdbcCupboardProviderDatabaseTest {
+    private Cupboard mCupboard;
+    private SQLiteJdbcCupboardProviderDatabase mDb;
+
+    @Before
+    public void setUp() {
+        mCupboard = new CupboardBuilder().build();
+        mCupboard.register(Cheese.class);
+        mDb = SQLiteJdbcCupboardProviderDatabase.openInMemory();
+        mCupboard.withDatabase(mDb).createTables();
+    }
+
+    @After
+    public void tearDown() {
+        mDb.close();
+    }
+
+    @Test
+    public void testPutAndQuery() {
+        Cheese cheese = new Cheese();
+        cheese.name = "Gouda";
+        cheese.age = 12;
+        long id = mCupboard.withDatabase(mDb).put(cheese);
+        assertEquals(1, id);
+        Cheese result = mCupboard.withDatabase(mDb).get(Cheese.class, id);
+        assertEquals("Gouda", result.name);
+        assertEquals(12, result.age);
+
+        cheese.age = 24;
+        mCupboard.withDatabase(mDb).put(cheese);
+        Cursor cursor = mDb.rawQuery("SELECT count(*), max(age) FROM Cheese WHERE name = ?", new String[]{"Gouda"});
+        try {
+            assertTrue(cursor.moveToFirst());
+            assertEquals(1, cursor.getLong(0));
+            assertEquals(24, cursor.getLong(1));
+        } finally {
+            cursor.close();
+        }
+        assertEquals(1, mDb.delete("Cheese", "age > ?", new String[]{"20"}));
+    }
+
+    @Test
+    public void testFailedNestedTransactionRollsBack() {
+        RecordingListener listener = new RecordingListener();
+        mDb.beginTransactionWithListener(listener);
+        try {
+            mDb.execSQL("INSERT INTO Cheese (name) VALUES ('Brie')");
+            mDb.beginTransaction();
+            try {
+                assertTrue(mDb.inTransaction());
+            } finally {
+                // not marked successful
+                mDb.endTransaction();
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+        assertFalse(mDb.inTransaction());
+        assertEquals("[begin, rollback]", listener.mEvents.toString());
+        assertEquals(0, mCupboard.withDatabase(mDb).query(Cheese.class).list().size());
+    }
+
+    @Test
+    public void testCompiledStatement() {
+        CompiledStatement insert = mDb.compileStatement("INSERT INTO Cheese (name, age) VALUES (?, ?)");
+        CompiledStatement count = mDb.compileStatement("SELECT count(*) FROM Cheese");
+        try {
+            insert.bindString(1, "Edammer");
+            insert.bindLong(2, 4);
+            assertEquals(1, insert.executeInsert());
+            insert.clearBindings();
+            insert.bindString(1, "Roquefort");
+            insert.bindNull(2);
+            assertEquals(2, insert.executeInsert());
+            assertEquals(2, count.simpleQueryForLong());
+        } finally {
+            insert.close();
+            count.close();
+        }
+        mDb.execSQL("CREATE UNIQUE INDEX cheese_name ON Cheese (name)");
+        Cheese duplicate = new Cheese();
+        duplicate.name = "Edammer";
+        try {
+            mCupboard.withDatabase(mDb).put(duplicate);
+            fail("Expected constraint violation");
+        } catch (SQLiteConstraintException expected) {
+        }
+    }
+
+    @Test
+    public void testYieldLetsWaitingThreadWrite() throws InterruptedException {
+        RecordingListener listener = new RecordingListener();
+        mDb.beginTransactionWithListener(listener);
+        final CountDownLatch written = new CountDownLatch(1);
+        try {
+            assertFalse(mDb.yieldIfContendedSafely(0));
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    mDb.execSQL("INSERT INTO Cheese (name) VALUES ('Brie')");
+                    written.countDown();
+                }
+            });
+            writer.start();
+            while (!mDb.mLock.hasQueuedThreads()) {
+                Thread.sleep(1);
+            }
+            assertTrue(mDb.yieldIfContendedSafely(0));
+            assertTrue(written.await(5, TimeUnit.SECONDS));
+            mDb.execSQL("INSERT INTO Cheese (name) VALUES ('Gouda')");
+            // still in a transaction
+        } finally {
+            mDb.endTransaction();
+        }
+        assertEquals("[begin, commit, begin, rollback]", listener.mEvents.toString());
+        // the write from the other thread is committed, the write after the yield is rolled back
+        assertEquals(1, mCupboard.withDatabase(mDb).query(Cheese.class).list().size());
+    }
+
+    public static class Cheese {
+        public Long _id;
+        public String name;
+        public int age;
+    }
+
+    private static class RecordingListener implements TransactionListener {
+        final List<String> mEvents = new ArrayList<>();
+
+        @Override
+        public void onBegin() {
+            mEvents.add("begin");
+        }
+
+        @Override
+        public void onCommit() {
+            mEvents.add("commit");
+        }
+
+        @Override
+        public void onRollback() {
+            mEvents.add("rollback");
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package nl.littlerobots.cupboard.tools.sqlitejdbc;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import android.content.ContentValues;
+import android.content.pm.ProviderInfo;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import nl.littlerobots.cupboard.tools.provider.CupboardContentProvider;
+import nl.littlerobots.cupboard.tools.provider.UriHelper;
+import nl.qbusict.cupboard.Cupboard;
+import nl.qbusict.cupboard.CupboardBuilder;
+
+import static junit.framework.Assert.assertEquals;
+import static junit.framework.Assert.assertFalse;
+import static junit.framework.Assert.assertTrue;
+
+/**
+ * Runs the read-only connection pool of a provider with write-ahead logging on sqlite-jdbc, which, unlike Robolectric,
+ * supports concurrent connections to a database file.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 23)
+public class SQLiteJdbcProviderTest {
+    private static final String AUTHORITY = "nl.littlerobots.cupboard.tools.sqlitejdbc.test";
+    private static final Cupboard CUPBOARD = new CupboardBuilder().build();
+
+    static {
+        CUPBOARD.register(Cheese.class);
+    }
+
+    private static final Uri CHEESE_URI = UriHelper.with(CUPBOARD).forAuthority(AUTHORITY).getUri(Cheese.class);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private JdbcProvider mProvider;
+
+    @After
+    public void tearDown() {
+        if (mProvider != null) {
+            mProvider.close();
+        }
+    }
+
+    @Test
+    public void testQueriesUseReadConnectionPool() throws IOException {
+        mProvider = attach(new JdbcProvider(mFolder.newFile("test.db")));
+        mProvider.insert(CHEESE_URI, cheese("Gouda"));
+        for (int i = 0; i < 5; i++) {
+            assertEquals(1, mProvider.count());
+        }
+        // the connections are handed out round robin and opened once
+        assertEquals(JdbcProvider.POOL_SIZE, mProvider.mReadDatabases.size());
+    }
+
+    @Test
+    public void testReadsAreNotBlockedByWriteTransaction() throws Exception {
+        mProvider = attach(new JdbcProvider(mFolder.newFile("test.db")));
+        mProvider.insert(CHEESE_URI, cheese("Gouda"));
+        mProvider.mInserted = new CountDownLatch(1);
+        mProvider.mReleaseInsert = new CountDownLatch(1);
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                mProvider.insert(CHEESE_URI, cheese("Brie"));
+            }
+        });
+        writer.start();
+        assertTrue(mProvider.mInserted.await(5, TimeUnit.SECONDS));
+        // the writer is in its transaction, holding the writable connection. A query on that connection would wait for
+        // the insert to commit after its timeout and would see both rows.
+        assertEquals(1, mProvider.count());
+        mProvider.mReleaseInsert.countDown();
+        writer.join();
+        assertEquals(2, mProvider.count());
+    }
+
+    @Test
+    public void testReadConnectionsAreClosedWhenDatabaseIsReopened() throws IOException {
+        mProvider = attach(new JdbcProvider(mFolder.newFile("test.db")));
+        mProvider.insert(CHEESE_URI, cheese("Gouda"));
+        mProvider.count();
+        mProvider.count();
+        List<SQLiteJdbcCupboardProviderDatabase> previous = new ArrayList<>(mProvider.mReadDatabases);
+        assertEquals(JdbcProvider.POOL_SIZE, previous.size());
+
+        mProvider.closeWritableDatabase();
+        assertEquals(1, mProvider.count());
+        for (SQLiteJdbcCupboardProviderDatabase db : previous) {
+            assertTrue(db.isClosed());
+        }
+        assertEquals(JdbcProvider.POOL_SIZE + 1, mProvider.mReadDatabases.size());
+        assertFalse(mProvider.mReadDatabases.get(JdbcProvider.POOL_SIZE).isClosed());
+    }
+
+    @Test
+    public void testQueriesUseWritableDatabaseWithoutWriteAheadLogging() {
+        // an in-memory database can't use write-ahead logging
+        mProvider = attach(new JdbcProvider(null));
+        mProvider.insert(CHEESE_URI, cheese("Gouda"));
+        assertEquals(1, mProvider.count());
+        assertEquals(1, mProvider.count());
+        assertEquals(Collections.emptyList(), mProvider.mReadDatabases);
+    }
+
+    private static JdbcProvider attach(JdbcProvider provider) {
+        ProviderInfo info = new ProviderInfo();
+        info.authority = AUTHORITY;
+        provider.attachInfo(RuntimeEnvironment.application, info);
+        return provider;
+    }
+
+    private static ContentValues cheese(String name) {
+        ContentValues values = new ContentValues(1);
+        values.put("name", name);
+        return values;
+    }
+
+    public static class Cheese {
+        public Long _id;
+        public String name;
+    }
+
+    private static class JdbcProvider extends CupboardContentProvider {
+        static final int POOL_SIZE = 2;
+
+        private final File mFile;
+        final List<SQLiteJdbcCupboardProviderDatabase> mReadDatabases = Collections.synchronizedList(new ArrayList<SQLiteJdbcCupboardProviderDatabase>());
+        /**
+         * When set, an insert counts down {@link #mInserted} and waits for {@link #mReleaseInsert} before committing
+         */
+        volatile CountDownLatch mInserted;
+        volatile CountDownLatch mReleaseInsert;
+
+        /**
+         * @param file the database file, or null for an in-memory database
+         */
+        JdbcProvider(File file) {
+            super(AUTHORITY, 1);
+            mFile = file;
+        }
+
+        int count() {
+            Cursor cursor = query(CHEESE_URI, null, null, null, null);
+            try {
+                return cursor.getCount();
+            } finally {
+                cursor.close();
+            }
+        }
+
+        void closeWritableDatabase() {
+            getWritableDatabase().close();
+        }
+
+        void close() {
+            shutdown();
+            closeWritableDatabase();
+        }
+
+        @Override
+        protected Cupboard createCupboard() {
+            return CUPBOARD;
+        }
+
+        @Override
+        protected boolean isWriteAheadLoggingEnabled() {
+            return true;
+        }
+
+        @Override
+        protected int getReadConnectionPoolSize() {
+            return POOL_SIZE;
+        }
+
+        @Override
+        protected CupboardProviderDatabase openDatabase() {
+            SQLiteJdbcCupboardProviderDatabase db = mFile == null ? SQLiteJdbcCupboardProviderDatabase.openInMemory()
+                    : SQLiteJdbcCupboardProviderDatabase.open(mFile);
+            CUPBOARD.withDatabase(db).upgradeTables();
+            return db;
+        }
+
+        @Override
+        protected CupboardProviderDatabase openReadOnlyDatabase() {
+            SQLiteJdbcCupboardProviderDatabase db = SQLiteJdbcCupboardProviderDatabase.openReadOnly(mFile);
+            mReadDatabases.add(db);
+            return db;
+        }
+
+        @Override
+        protected Uri insertInTransaction(Uri uri, ContentValues values) {
+            Uri result = super.insertInTransaction(uri, values);
+            CountDownLatch inserted = mInserted;
+            if (inserted != null) {
+                mInserted = null;
+                inserted.countDown();
+                try {
+                    mReleaseInsert.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return result;
+        }
+    }
+}